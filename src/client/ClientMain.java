@@ -32,6 +32,9 @@ public class ClientMain {
     private static final long SHOUTDOWN_TIMEOUT;
     private static NotificationReceiverUDP notificationReceiverUDP;
     private static NotificationReceiverMulticastUDP multicastUDP;
+    private static final String MARKET_DATA_GROUP;
+    private static final int MARKET_DATA_PORT;
+    private static MarketDataReceiver marketDataReceiver;
 
     private static int tryReconnect;
     private static int INTERVAL_RECONNECT;
@@ -49,6 +52,8 @@ public class ClientMain {
             SHOUTDOWN_TIMEOUT = configReader.getInt("shutdown.timeout");
             tryReconnect = configReader.getInt("max.reconnect.attempts");
             INTERVAL_RECONNECT = configReader.getInt("reconnect.interval");
+            MARKET_DATA_GROUP = configReader.getString("market.data.group");
+            MARKET_DATA_PORT = configReader.getInt("market.data.port");
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -105,6 +110,26 @@ public class ClientMain {
         executorService.submit(multicastUDP);
     }
 
+    /**
+     * Avvia la ricezione dei dati di mercato, con cui vengono mantenuti i book locali degli strumenti.
+     * I dati di mercato sono pubblici: la ricezione parte alla connessione, senza attendere il login.
+     */
+    public static void startMarketData() {
+        if (marketDataReceiver == null) {
+            marketDataReceiver = new MarketDataReceiver(MARKET_DATA_GROUP, MARKET_DATA_PORT);
+            executorService.submit(marketDataReceiver);
+        }
+    }
+
+    /**
+     * Arresta la ricezione dei dati di mercato.
+     */
+    public static void stopMarketData() {
+        if (marketDataReceiver != null) {
+            marketDataReceiver.stopRunning();
+        }
+    }
+
     /**
      * Arresta la ricezione di notifiche multicast UDP.
      */
@@ -155,6 +180,7 @@ public class ClientMain {
                 //voglio generare delle porte in un range per l'ascolto
 
                 startUDP(localPort);
+                startMarketData();
                 //Registrazione del canale al selettore
                 SelectionKey key = clientChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
                 //Creazione del buffer
@@ -245,6 +271,7 @@ public class ClientMain {
 
         stopUDP();
         stopMulticast();
+        stopMarketData();
 
 
         if (executorService != null) {
@@ -335,8 +362,13 @@ public class ClientMain {
             //Leggo i dati dal buffer
             buffer.get(data);
             // Stampa la risposta del server
-            String parsedMessage = jsonParsing.convertResponseToString(new String(data));
+            String response = new String(data);
+            String parsedMessage = jsonParsing.convertResponseToString(response);
             System.out.println(parsedMessage);
+            //la vista del book restituita da getOrderBookDepth riallinea anche il book locale dei dati di mercato
+            if (marketDataReceiver != null) {
+                marketDataReceiver.applyDepthResponse(response);
+            }
             key.interestOps(SelectionKey.OP_WRITE); // Cambia l'interesse a scrivere
 
         }
@@ -408,7 +440,14 @@ public class ClientMain {
                 int size = Integer.parseInt(scanner.nextLine());
                 System.out.print("Inserisci prezzo: ");
                 int price = Integer.parseInt(scanner.nextLine());
-                jsonMessage = jsonParsing.convertMessageToJson(operation, type, String.valueOf(size), String.valueOf(price));
+                System.out.print("Inserisci strumento (invio per lo strumento predefinito): ");
+                String instrument = scanner.nextLine();
+                String timeInForce = "";
+                if (operation.equals("insertLimitOrder")) {
+                    System.out.print("Inserisci validità (gtc/ioc/fok, invio per gtc): ");
+                    timeInForce = scanner.nextLine();
+                }
+                jsonMessage = jsonParsing.convertMessageToJson(operation, type, String.valueOf(size), String.valueOf(price), instrument, timeInForce);
                 break;
             case "insertMarketOrder":
                 System.out.print("Inserisci tipo (ask/bid): ");
@@ -420,18 +459,107 @@ public class ClientMain {
                 }
                 System.out.print("Inserisci dimensione: ");
                 size = Integer.parseInt(scanner.nextLine());
-                jsonMessage = jsonParsing.convertMessageToJson(operation, type, String.valueOf(size));
+                System.out.print("Inserisci strumento (invio per lo strumento predefinito): ");
+                instrument = scanner.nextLine();
+                System.out.print("Inserisci validità (gtc/ioc/fok, invio per gtc): ");
+                timeInForce = scanner.nextLine();
+                jsonMessage = jsonParsing.convertMessageToJson(operation, type, String.valueOf(size), instrument, timeInForce);
+                break;
+            case "insertOrderBatch":
+                System.out.print("Inserisci numero di ordini: ");
+                int count = Integer.parseInt(scanner.nextLine());
+                String[] orders = new String[count * 5];
+                for (int i = 0; i < count; i++) {
+                    System.out.print("Ordine " + (i + 1) + " - inserisci tipo di ordine (limit/market/stop): ");
+                    String orderType = scanner.nextLine();
+                    System.out.print("Ordine " + (i + 1) + " - inserisci tipo (ask/bid): ");
+                    type = scanner.nextLine();
+                    System.out.print("Ordine " + (i + 1) + " - inserisci dimensione: ");
+                    size = Integer.parseInt(scanner.nextLine());
+                    price = 0;
+                    if (!"market".equals(orderType)) {
+                        System.out.print("Ordine " + (i + 1) + " - inserisci prezzo: ");
+                        price = Integer.parseInt(scanner.nextLine());
+                    }
+                    System.out.print("Ordine " + (i + 1) + " - inserisci strumento (invio per lo strumento predefinito): ");
+                    instrument = scanner.nextLine();
+                    orders[i * 5] = orderType;
+                    orders[i * 5 + 1] = type;
+                    orders[i * 5 + 2] = String.valueOf(size);
+                    orders[i * 5 + 3] = String.valueOf(price);
+                    orders[i * 5 + 4] = instrument;
+                }
+                jsonMessage = jsonParsing.convertMessageToJson(operation, orders);
                 break;
             case "cancelOrder":
                 System.out.print("Inserisci id ordine: ");
                 int orderId = Integer.parseInt(scanner.nextLine());
                 jsonMessage = jsonParsing.convertMessageToJson(operation, String.valueOf(orderId));
                 break;
+            case "quote":
+                System.out.print("Inserisci dimensione bid (0 per ritirarlo): ");
+                int bidSize = Integer.parseInt(scanner.nextLine());
+                int bidPrice = 0;
+                if (bidSize > 0) {
+                    System.out.print("Inserisci prezzo bid: ");
+                    bidPrice = Integer.parseInt(scanner.nextLine());
+                }
+                System.out.print("Inserisci dimensione ask (0 per ritirarlo): ");
+                int askSize = Integer.parseInt(scanner.nextLine());
+                int askPrice = 0;
+                if (askSize > 0) {
+                    System.out.print("Inserisci prezzo ask: ");
+                    askPrice = Integer.parseInt(scanner.nextLine());
+                }
+                System.out.print("Inserisci strumento (invio per lo strumento predefinito): ");
+                instrument = scanner.nextLine();
+                jsonMessage = jsonParsing.convertMessageToJson(operation, String.valueOf(bidSize), String.valueOf(bidPrice),
+                        String.valueOf(askSize), String.valueOf(askPrice), instrument);
+                break;
+            case "cancelAllOrders":
+                jsonMessage = jsonParsing.convertMessageToJson(operation);
+                break;
+            case "getOpenOrders":
+                System.out.print("Inserisci strumento (invio per tutti gli strumenti): ");
+                instrument = scanner.nextLine();
+                jsonMessage = jsonParsing.convertMessageToJson(operation, instrument);
+                break;
+            case "getOrderStatus":
+                System.out.print("Inserisci id ordine: ");
+                long statusOrderId = Long.parseLong(scanner.nextLine());
+                jsonMessage = jsonParsing.convertMessageToJson(operation, String.valueOf(statusOrderId));
+                break;
+            case "modifyOrder":
+                System.out.print("Inserisci id ordine: ");
+                long modifiedOrderId = Long.parseLong(scanner.nextLine());
+                System.out.print("Inserisci nuova dimensione (invio per lasciarla invariata): ");
+                String newSize = scanner.nextLine().trim();
+                System.out.print("Inserisci nuovo prezzo (invio per lasciarlo invariato): ");
+                String newPrice = scanner.nextLine().trim();
+                jsonMessage = jsonParsing.convertMessageToJson(operation, String.valueOf(modifiedOrderId), newSize, newPrice);
+                break;
             case "getPriceHistory":
                 System.out.print("Inserisci mese: ");
                 String month = scanner.nextLine();
-                jsonMessage = jsonParsing.convertMessageToJson(operation, month);
+                System.out.print("Inserisci strumento (invio per lo strumento predefinito): ");
+                instrument = scanner.nextLine();
+                System.out.print("Inserisci durata delle candele in minuti (invio per le candele giornaliere): ");
+                String interval = scanner.nextLine();
+                jsonMessage = jsonParsing.convertMessageToJson(operation, month, instrument, interval);
+                break;
+            case "getOrderBookDepth":
+                System.out.print("Inserisci numero di livelli: ");
+                int levels = Integer.parseInt(scanner.nextLine().trim());
+                System.out.print("Inserisci strumento (invio per lo strumento predefinito): ");
+                instrument = scanner.nextLine();
+                jsonMessage = jsonParsing.convertMessageToJson(operation, String.valueOf(levels), instrument);
                 break;
+            case "localBook":
+                //Operazione locale: il book viene letto dai dati di mercato ricevuti, senza richieste al server
+                System.out.print("Inserisci strumento (invio per tutti gli strumenti): ");
+                instrument = scanner.nextLine();
+                System.out.println(marketDataReceiver == null ? "Dati di mercato non attivi" : marketDataReceiver.describe(instrument, 10));
+                return "";
             case "exit":
                 System.out.println("Chiusura del ClientMain");
                 shutdownClient(null, null, scanner);
@@ -0,0 +1,151 @@
+package client;
+
+import common.MarketDataMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Book locale di uno strumento, ricostruito dai messaggi numerati del canale dei dati di mercato.
+ * I messaggi vengono applicati solo in sequenza: se ne manca uno il book non è più allineato e i messaggi successivi
+ * vengono conservati finché una risposta a getOrderBookDepth non fornisce una vista del book con il relativo numero
+ * di sequenza; dalla vista si riparte applicando i soli messaggi successivi.
+ * La vista contiene al massimo i livelli richiesti: i livelli più lontani ricompaiono alla loro prima modifica.
+ * Un messaggio con sequenza 1 indica un book appena creato, quindi vuoto, e allinea il book senza bisogno della vista.
+ */
+class LocalBook {
+    private static final int MAX_PENDING = 4096; //messaggi conservati in attesa della vista del book
+
+    private final String instrument;
+    private final TreeMap<Integer, long[]> bids = new TreeMap<>(Collections.reverseOrder()); //prezzo -> {quantità, ordini}
+    private final TreeMap<Integer, long[]> asks = new TreeMap<>();
+    private final ArrayDeque<MarketDataMessage> pending = new ArrayDeque<>();
+    private long lastSequence;
+    private boolean synced;
+    private int lastTradePrice;
+
+    LocalBook(String instrument) {
+        this.instrument = instrument;
+    }
+
+    /**
+     * Applica un messaggio ricevuto dal canale dei dati di mercato.
+     *
+     * @param message Il messaggio, relativo a questo strumento.
+     */
+    synchronized void apply(MarketDataMessage message) {
+        long sequence = message.getSequence();
+        if (sequence == 1 && lastSequence != 1) {
+            //il book è stato appena creato (o il server è ripartito): si riparte da un book vuoto
+            bids.clear();
+            asks.clear();
+            pending.clear();
+            lastTradePrice = 0;
+            synced = true;
+        } else if (!synced) {
+            addPending(message);
+            return;
+        } else if (sequence <= lastSequence) {
+            return;
+        } else if (sequence != lastSequence + 1) {
+            System.out.println("Dati di mercato di " + instrument + " persi (attesa sequenza " + (lastSequence + 1)
+                    + ", ricevuta " + sequence + "): usa getOrderBookDepth per riallineare il book locale");
+            synced = false;
+            addPending(message);
+            return;
+        }
+        update(message);
+        lastSequence = sequence;
+    }
+
+    /**
+     * Riallinea il book a una vista restituita da getOrderBookDepth, se il book non è già allineato,
+     * e applica i messaggi successivi ricevuti nel frattempo.
+     *
+     * @param sequence       Il numero di sequenza a cui si riferisce la vista.
+     * @param lastTradePrice Il prezzo dell'ultimo scambio.
+     * @param bidLevels      I livelli di acquisto della vista, come terne {prezzo, quantità, ordini}.
+     * @param askLevels      I livelli di vendita della vista.
+     */
+    synchronized void applySnapshot(long sequence, int lastTradePrice, List<long[]> bidLevels, List<long[]> askLevels) {
+        if (synced) {
+            return;
+        }
+        bids.clear();
+        asks.clear();
+        for (long[] level : bidLevels) {
+            bids.put((int) level[0], new long[]{level[1], level[2]});
+        }
+        for (long[] level : askLevels) {
+            asks.put((int) level[0], new long[]{level[1], level[2]});
+        }
+        this.lastTradePrice = lastTradePrice;
+        lastSequence = sequence;
+        synced = true;
+        List<MarketDataMessage> buffered = new ArrayList<>(pending);
+        pending.clear();
+        for (MarketDataMessage message : buffered) {
+            if (message.getSequence() > sequence) {
+                apply(message);
+            }
+        }
+    }
+
+    /**
+     * Descrive i primi livelli del book locale.
+     *
+     * @param levels Il numero massimo di livelli per lato.
+     * @return Una stringa con una riga per livello, prima le vendite e poi gli acquisti.
+     */
+    synchronized String describe(int levels) {
+        StringBuilder description = new StringBuilder();
+        description.append("Book locale ").append(instrument).append(synced ? "" : " (non allineato)")
+                .append(", sequenza: ").append(lastSequence).append(", ultimo prezzo: ").append(lastTradePrice);
+        List<Map.Entry<Integer, long[]>> bestAsks = new ArrayList<>();
+        for (Iterator<Map.Entry<Integer, long[]>> it = asks.entrySet().iterator(); it.hasNext() && bestAsks.size() < levels; ) {
+            bestAsks.add(it.next());
+        }
+        for (int i = bestAsks.size() - 1; i >= 0; i--) {
+            appendLevel(description.append("\nask "), bestAsks.get(i));
+        }
+        int count = 0;
+        for (Map.Entry<Integer, long[]> level : bids.entrySet()) {
+            if (count++ == levels) {
+                break;
+            }
+            appendLevel(description.append("\nbid "), level);
+        }
+        return description.toString();
+    }
+
+    private void appendLevel(StringBuilder description, Map.Entry<Integer, long[]> level) {
+        description.append("price: ").append(level.getKey())
+                .append(" size: ").append(level.getValue()[0])
+                .append(" orders: ").append(level.getValue()[1]);
+    }
+
+    private void update(MarketDataMessage message) {
+        if (message.getType() == MarketDataMessage.TRADE) {
+            lastTradePrice = message.getPrice();
+            return;
+        }
+        TreeMap<Integer, long[]> side = message.getSide() == 0 ? bids : asks;
+        if (message.getQuantity() == 0) {
+            side.remove(message.getPrice());
+        } else {
+            side.put(message.getPrice(), new long[]{message.getQuantity(), message.getOrders()});
+        }
+    }
+
+    private void addPending(MarketDataMessage message) {
+        if (pending.size() == MAX_PENDING) {
+            pending.removeFirst();
+        }
+        pending.addLast(message);
+    }
+}
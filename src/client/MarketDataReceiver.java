@@ -0,0 +1,148 @@
+package client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import common.MarketDataMessage;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Riceve in un thread separato i messaggi del canale multicast dei dati di mercato
+ * e mantiene un {@link LocalBook} per ogni strumento. Quando il canale è attivo il server non invia più gli scambi
+ * pubblici come notifica JSON, quindi gli scambi ricevuti vengono anche stampati.
+ */
+public class MarketDataReceiver implements Runnable {
+    private final String groupAddress;
+    private final int port;
+    private final Map<String, LocalBook> books = new ConcurrentHashMap<>();
+    private volatile MulticastSocket socket;
+    private volatile boolean isRunning = true; // Flag per fermare il thread
+
+    /**
+     * Costruttore della classe MarketDataReceiver.
+     *
+     * @param groupAddress L'indirizzo del gruppo multicast dei dati di mercato.
+     * @param port         La porta del gruppo.
+     */
+    public MarketDataReceiver(String groupAddress, int port) {
+        this.groupAddress = groupAddress;
+        this.port = port;
+    }
+
+    /**
+     * Riceve i messaggi finché il flag `isRunning` è impostato su true e li applica al book locale dello strumento.
+     */
+    @Override
+    public void run() {
+        InetAddress group;
+        try {
+            group = InetAddress.getByName(groupAddress);
+            socket = new MulticastSocket(port);
+            socket.setReuseAddress(true);
+            //nessuna interfaccia indicata: il gruppo viene ricevuto sull'interfaccia multicast predefinita del sistema
+            socket.joinGroup(new InetSocketAddress(group, port), null);
+        } catch (IOException e) {
+            System.err.println("Errore nella creazione del socket dei dati di mercato: " + e.getMessage());
+            return;
+        }
+        byte[] buffer = new byte[MarketDataMessage.MAX_SIZE];
+        try {
+            while (isRunning) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                try {
+                    MarketDataMessage message = MarketDataMessage.decode(packet.getData(), packet.getLength());
+                    books.computeIfAbsent(message.getInstrument(), LocalBook::new).apply(message);
+                    if (message.getType() == MarketDataMessage.TRADE) {
+                        System.out.println("Trade: " + message.getQuantity() + " " + message.getInstrument()
+                                + " at price " + message.getPrice() + " USD");
+                    }
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            // Gestisci solo l'errore se il socket è stato chiuso esplicitamente
+            if (isRunning) {
+                System.err.println("Errore nella ricezione dei dati di mercato: " + e.getMessage());
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Riallinea il book locale di uno strumento con la risposta a getOrderBookDepth, se la risposta è di quel tipo.
+     *
+     * @param response La risposta JSON del server.
+     */
+    public void applyDepthResponse(String response) {
+        JsonObject depth;
+        try {
+            depth = JsonParser.parseString(response).getAsJsonObject();
+        } catch (JsonSyntaxException | IllegalStateException e) {
+            return;
+        }
+        if (!depth.has("bids") || !depth.has("sequence")) {
+            return;
+        }
+        books.computeIfAbsent(depth.get("instrument").getAsString(), LocalBook::new)
+                .applySnapshot(depth.get("sequence").getAsLong(), depth.get("lastPrice").getAsInt(),
+                        toLevels(depth.getAsJsonArray("bids")), toLevels(depth.getAsJsonArray("asks")));
+    }
+
+    /**
+     * Descrive i book locali.
+     *
+     * @param instrument Il simbolo dello strumento, vuoto per tutti gli strumenti ricevuti.
+     * @param levels     Il numero massimo di livelli per lato.
+     * @return La descrizione dei book.
+     */
+    public String describe(String instrument, int levels) {
+        if (!instrument.isBlank()) {
+            LocalBook book = books.get(instrument.trim().toUpperCase());
+            return book == null ? "Nessun dato di mercato ricevuto per " + instrument : book.describe(levels);
+        }
+        if (books.isEmpty()) {
+            return "Nessun dato di mercato ricevuto";
+        }
+        StringBuilder description = new StringBuilder();
+        for (LocalBook book : books.values()) {
+            if (description.length() > 0) {
+                description.append("\n");
+            }
+            description.append(book.describe(levels));
+        }
+        return description.toString();
+    }
+
+    private List<long[]> toLevels(JsonArray levels) {
+        List<long[]> result = new ArrayList<>();
+        for (JsonElement element : levels) {
+            JsonObject level = element.getAsJsonObject();
+            result.add(new long[]{level.get("price").getAsInt(), level.get("size").getAsLong(), level.get("orders").getAsInt()});
+        }
+        return result;
+    }
+
+    /**
+     * Ferma l'esecuzione del thread impostando il flag `isRunning` su false e chiudendo il socket.
+     */
+    public void stopRunning() {
+        isRunning = false;
+        if (socket != null) {
+            socket.close();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import com.google.gson.JsonObject;
 import java.io.IOException;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -17,6 +18,7 @@ import java.util.Iterator;
  * Gestisce la lettura delle notifiche in modo concorrente e le elabora utilizzando Gson per il parsing del messaggio JSON.
  */
 public class NotificationReceiverUDP implements Runnable {
+    private static final int MAX_DATAGRAM_SIZE = 65507; //un datagramma può contenere più notifiche
     private int port;
     private volatile boolean terminateFlag;
     private Selector selector;
@@ -62,13 +64,13 @@ public class NotificationReceiverUDP implements Runnable {
 
                         //System.out.println("Listener UDP non bloccante avviato sulla porta " + port);
                         if (key.isReadable()) {
-                            ByteBuffer buffer = ByteBuffer.allocate(1024);
+                            ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
                             channel.receive(buffer);
                             buffer.flip();
                             if (buffer.hasRemaining()) {
                                 byte[] data = new byte[buffer.limit()];
                                 buffer.get(data);
-                                String message = new String(data);
+                                String message = new String(data, StandardCharsets.UTF_8);
                                 parseAndPrintNotification(message);
                             }
                         }
@@ -89,8 +91,9 @@ public class NotificationReceiverUDP implements Runnable {
     }
 
     /**
-     * Analizza e stampa la notifica ricevuta in formato leggibile utilizzando la libreria Gson.
-     * Se sono presenti informazioni su ordini (trades), vengono estratte e stampate.
+     * Analizza e stampa il datagramma ricevuto utilizzando la libreria Gson.
+     * Il datagramma contiene una notifica oppure, quando il server ne ha accumulate più di una
+     * per questo client, un array JSON di notifiche.
      *
      * @param message il messaggio da analizzare e stampare.
      */
@@ -98,33 +101,57 @@ public class NotificationReceiverUDP implements Runnable {
         Gson gson = new Gson();
 
         try {
-            JsonObject jsonObject = gson.fromJson(message, JsonObject.class);  // Deserializza il JSON
-            String notification = jsonObject.get("notification").getAsString();
-
-            System.out.println("Notifica: " + notification);
-
-            // Se ci sono trades, li estrai e li stampi
-            if (jsonObject.has("trades")) {
-                JsonArray trades = jsonObject.getAsJsonArray("trades");
-
-                for (int i = 0; i < trades.size(); i++) {
-                    JsonObject trade = trades.get(i).getAsJsonObject();
-                    int orderId = trade.get("orderId").getAsInt();
-                    String type = trade.get("type").getAsString();
-                    String orderType = trade.get("orderType").getAsString();
-                    int size = trade.get("size").getAsInt();
-                    int price = trade.get("price").getAsInt();
-
-                    System.out.println(String.format("Ordine ID: %d, Tipo: %s, Tipo Ordine: %s, Dimensione: %d, Prezzo: %d",
-                            orderId, type, orderType, size, price));
+            if (message.startsWith("[")) {
+                JsonArray notifications = gson.fromJson(message, JsonArray.class);
+                for (int i = 0; i < notifications.size(); i++) {
+                    printNotification(notifications.get(i).getAsJsonObject());
                 }
+            } else {
+                printNotification(gson.fromJson(message, JsonObject.class));  // Deserializza il JSON
             }
-
         } catch (Exception e) {
             System.err.println("Errore nel parsing della notifica: " + e.getMessage());
         }
     }
 
+    /**
+     * Stampa una notifica in formato leggibile.
+     * Se sono presenti informazioni su ordini (trades), vengono estratte e stampate.
+     *
+     * @param jsonObject la notifica da stampare.
+     */
+    private void printNotification(JsonObject jsonObject) {
+        String notification = jsonObject.get("notification").getAsString();
+
+        System.out.println("Notifica: " + notification);
+
+        // Se ci sono trades, li estrai e li stampi
+        if (jsonObject.has("trades")) {
+            JsonArray trades = jsonObject.getAsJsonArray("trades");
+
+            for (int i = 0; i < trades.size(); i++) {
+                JsonObject trade = trades.get(i).getAsJsonObject();
+                int orderId = trade.get("orderId").getAsInt();
+                String type = trade.get("type").getAsString();
+                String orderType = trade.get("orderType").getAsString();
+                int size = trade.get("size").getAsInt();
+                int price = trade.get("price").getAsInt();
+                String instrument = trade.has("instrument") ? trade.get("instrument").getAsString() : "BTC";
+
+                System.out.println(String.format("Ordine ID: %d, Strumento: %s, Tipo: %s, Tipo Ordine: %s, Dimensione: %d, Prezzo: %d",
+                        orderId, instrument, type, orderType, size, price));
+            }
+        }
+
+        // Ordine scartato senza esecuzione (ad esempio uno stop attivato senza liquidità)
+        if (jsonObject.has("reason")) {
+            System.out.println(String.format("Ordine ID: %d scartato, Strumento: %s, Tipo: %s, Tipo Ordine: %s, Dimensione: %d, Ultimo prezzo: %d, Motivo: %s",
+                    jsonObject.get("orderId").getAsLong(), jsonObject.get("instrument").getAsString(), jsonObject.get("type").getAsString(),
+                    jsonObject.get("orderType").getAsString(), jsonObject.get("size").getAsInt(), jsonObject.get("price").getAsInt(),
+                    jsonObject.get("reason").getAsString()));
+        }
+    }
+
     /**
      * Ferma l'esecuzione del thread impostando il flag `terminateFlag` su true e chiudendo il selettore.
      */
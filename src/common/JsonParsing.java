@@ -2,11 +2,10 @@ package common;
 
 import com.google.gson.*;
 import order.DayPriceData;
+import order.DepthSnapshot;
 import order.Order;
+import order.OrderStatus;
 
-import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.List;
 
 
@@ -16,7 +15,6 @@ import java.util.List;
  */
 public class JsonParsing {
     private final Gson gson = new Gson();
-    private static final String ORDER_HISTORY_FILE = "resources/Storico.json";
 
     /**
      * Converte una stringa JSON in un oggetto {@link JsonObject}.
@@ -40,6 +38,11 @@ public class JsonParsing {
         for(DayPriceData data : dayPrices){
             JsonObject jsonObject = new JsonObject();
             jsonObject.addProperty("date", data.getDate().toString());//Converte LocalData in stringa
+            if (data.getTime() != null) {
+                //candela di durata inferiore al giorno
+                jsonObject.addProperty("time", data.getTime().toString());
+                jsonObject.addProperty("volume", data.getVolume());
+            }
             jsonObject.addProperty("openPrice",data.getOpenPrice());
             jsonObject.addProperty("closePrice",data.getClosePrice());
             jsonObject.addProperty("maxPrice",data.getMaxPrice());
@@ -84,10 +87,16 @@ public class JsonParsing {
                 int minPrice = orderData.get("minPrice").getAsInt();
 
                 result.append("Date: ").append(date).append("\n");
+                if (orderData.has("time")) {
+                    result.append("Time: ").append(orderData.get("time").getAsString()).append("\n");
+                }
                 result.append("OpenPrice: ").append(openPrice).append("\n");
                 result.append("ClosePrice: ").append(closePrice).append("\n");
                 result.append("Max Price: ").append(maxPrice).append("\n");
                 result.append("Min Price: ").append(minPrice).append("\n");
+                if (orderData.has("volume")) {
+                    result.append("Volume: ").append(orderData.get("volume").getAsLong()).append("\n");
+                }
             }
         }
         return result.toString();
@@ -117,6 +126,100 @@ public class JsonParsing {
         }
     }
 
+    /**
+     * Crea la risposta JSON a un'operazione composta, come l'inserimento di un batch di ordini.
+     * Ogni elemento di "results" ha lo stesso formato della risposta a una singola richiesta.
+     *
+     * @param responseCode Il codice di risposta dell'operazione complessiva.
+     * @param errorMessage Il messaggio di errore (se presente).
+     * @param results      Le risposte alle singole richieste, nell'ordine della richiesta.
+     * @return Una stringa JSON contenente la risposta formattata.
+     */
+    public String createBatchResponse(int responseCode, String errorMessage, List<Response> results) {
+        JsonObject jsonResponse = new JsonObject();
+        jsonResponse.addProperty("response", responseCode);
+        jsonResponse.addProperty("errorMessage", errorMessage);
+        JsonArray jsonResults = new JsonArray();
+        for (Response result : results) {
+            JsonObject jsonResult = new JsonObject();
+            jsonResult.addProperty("response", result.getResponseCode());
+            if (result.getErrorMessage() != null) {
+                jsonResult.addProperty("errorMessage", result.getErrorMessage());
+            }
+            if (result.getOrderId() != 0) {
+                jsonResult.addProperty("orderId", result.getOrderId());
+            }
+            jsonResults.add(jsonResult);
+        }
+        jsonResponse.add("results", jsonResults);
+        return gson.toJson(jsonResponse);
+    }
+
+    /**
+     * Crea la risposta JSON a una richiesta sullo stato degli ordini in attesa.
+     *
+     * @param responseCode Il codice di risposta.
+     * @param errorMessage Il messaggio di errore (se presente).
+     * @param orders       Lo stato degli ordini, uno per elemento di "orders".
+     * @return Una stringa JSON contenente la risposta formattata.
+     */
+    public String createOrdersResponse(int responseCode, String errorMessage, List<OrderStatus> orders) {
+        JsonObject jsonResponse = new JsonObject();
+        jsonResponse.addProperty("response", responseCode);
+        jsonResponse.addProperty("errorMessage", errorMessage);
+        JsonArray jsonOrders = new JsonArray();
+        for (OrderStatus order : orders) {
+            JsonObject jsonOrder = new JsonObject();
+            jsonOrder.addProperty("orderId", order.getOrderId());
+            jsonOrder.addProperty("instrument", order.getInstrument());
+            jsonOrder.addProperty("orderType", order.getOrderType());
+            jsonOrder.addProperty("type", order.getType());
+            jsonOrder.addProperty("size", order.getSize());
+            jsonOrder.addProperty("price", order.getPrice());
+            jsonOrders.add(jsonOrder);
+        }
+        jsonResponse.add("orders", jsonOrders);
+        return gson.toJson(jsonResponse);
+    }
+
+    /**
+     * Crea la risposta JSON a una richiesta sulla profondità del book, con un elemento per livello di prezzo
+     * in "bids" (dal prezzo più alto) e in "asks" (dal prezzo più basso).
+     *
+     * @param responseCode Il codice di risposta.
+     * @param errorMessage Il messaggio di errore (se presente).
+     * @param depth        La vista della profondità del book.
+     * @param levels       Il numero massimo di livelli per lato da includere.
+     * @return Una stringa JSON contenente la risposta formattata.
+     */
+    public String createDepthResponse(int responseCode, String errorMessage, DepthSnapshot depth, int levels) {
+        JsonObject jsonResponse = new JsonObject();
+        jsonResponse.addProperty("response", responseCode);
+        jsonResponse.addProperty("errorMessage", errorMessage);
+        jsonResponse.addProperty("instrument", depth.getInstrument());
+        jsonResponse.addProperty("lastPrice", depth.getLastTradePrice());
+        jsonResponse.addProperty("sequence", depth.getSequence());
+        JsonArray bids = new JsonArray();
+        for (int i = 0; i < Math.min(levels, depth.getBidLevels()); i++) {
+            bids.add(createLevel(depth.getBidPrice(i), depth.getBidQuantity(i), depth.getBidOrders(i)));
+        }
+        jsonResponse.add("bids", bids);
+        JsonArray asks = new JsonArray();
+        for (int i = 0; i < Math.min(levels, depth.getAskLevels()); i++) {
+            asks.add(createLevel(depth.getAskPrice(i), depth.getAskQuantity(i), depth.getAskOrders(i)));
+        }
+        jsonResponse.add("asks", asks);
+        return gson.toJson(jsonResponse);
+    }
+
+    private JsonObject createLevel(int price, long size, int orders) {
+        JsonObject level = new JsonObject();
+        level.addProperty("price", price);
+        level.addProperty("size", size);
+        level.addProperty("orders", orders);
+        return level;
+    }
+
     /**
      * Converte un messaggio JSON in una stringa leggibile.
      *
@@ -128,7 +231,6 @@ public class JsonParsing {
         JsonObject jsonMessage = parseMessage(message);
 
         int responseCode = jsonMessage.get("response").getAsInt();
-        StringBuilder responseString = new StringBuilder();
 
         // Controlla se il responseCode è 200, 0 o 202
         if (responseCode == 200) {
@@ -136,19 +238,93 @@ public class JsonParsing {
             return convertHistoryJsonToString(message,responseCode);
         }
 
+        //Risposta a un batch di ordini: una riga per ogni ordine
+        if (jsonMessage.has("results")) {
+            StringBuilder responseString = new StringBuilder();
+            JsonArray results = jsonMessage.getAsJsonArray("results");
+            for (int i = 0; i < results.size(); i++) {
+                JsonObject result = results.get(i).getAsJsonObject();
+                responseString.append("Ordine ").append(i + 1).append(": ").append(convertResultToString(result));
+                //per gli ordini rifiutati mostro anche il motivo, se presente
+                if (result.has("orderId") && result.get("orderId").getAsLong() == -1 && result.has("errorMessage")) {
+                    responseString.append(" (").append(result.get("errorMessage").getAsString()).append(")");
+                }
+                if (i < results.size() - 1) {
+                    responseString.append("\n");
+                }
+            }
+            return responseString.toString();
+        }
+
+        //Risposta sullo stato degli ordini: una riga per ogni ordine in attesa
+        if (jsonMessage.has("orders")) {
+            JsonArray orders = jsonMessage.getAsJsonArray("orders");
+            if (orders.isEmpty()) {
+                return "Nessun ordine in attesa";
+            }
+            StringBuilder responseString = new StringBuilder();
+            for (int i = 0; i < orders.size(); i++) {
+                JsonObject order = orders.get(i).getAsJsonObject();
+                responseString.append("Order ID: ").append(order.get("orderId").getAsLong())
+                        .append(" ").append(order.get("instrument").getAsString())
+                        .append(" ").append(order.get("orderType").getAsString())
+                        .append(" ").append(order.get("type").getAsString())
+                        .append(" size: ").append(order.get("size").getAsInt())
+                        .append(" price: ").append(order.get("price").getAsInt());
+                if (i < orders.size() - 1) {
+                    responseString.append("\n");
+                }
+            }
+            return responseString.toString();
+        }
+
+        //Risposta sulla profondità del book: una riga per livello, prima le vendite e poi gli acquisti
+        if (jsonMessage.has("bids")) {
+            StringBuilder responseString = new StringBuilder();
+            responseString.append("Book ").append(jsonMessage.get("instrument").getAsString())
+                    .append(", ultimo prezzo: ").append(jsonMessage.get("lastPrice").getAsInt());
+            JsonArray asks = jsonMessage.getAsJsonArray("asks");
+            for (int i = asks.size() - 1; i >= 0; i--) {
+                appendLevel(responseString.append("\nask "), asks.get(i).getAsJsonObject());
+            }
+            for (JsonElement bid : jsonMessage.getAsJsonArray("bids")) {
+                appendLevel(responseString.append("\nbid "), bid.getAsJsonObject());
+            }
+            return responseString.toString();
+        }
+
         // Se il responseCode non è tra i codici specificati, elabora normalmente la risposta
+        return convertResultToString(jsonMessage);
+
+    }
+
+    private void appendLevel(StringBuilder responseString, JsonObject level) {
+        responseString.append("price: ").append(level.get("price").getAsInt())
+                .append(" size: ").append(level.get("size").getAsLong())
+                .append(" orders: ").append(level.get("orders").getAsInt());
+    }
+
+    /**
+     * Converte la risposta a una singola richiesta in una stringa leggibile.
+     *
+     * @param jsonMessage La risposta JSON.
+     * @return L'ID dell'ordine, oppure il codice e il messaggio di errore.
+     */
+    private String convertResultToString(JsonObject jsonMessage) {
+        StringBuilder responseString = new StringBuilder();
+        int responseCode = jsonMessage.get("response").getAsInt();
         long orderId = jsonMessage.has("orderId") ? jsonMessage.get("orderId").getAsLong() : 0;
 
         if (orderId > 0 || orderId == -1){
             responseString.append("Order ID: ").append(orderId);
         } else {
-            String errorMessage = jsonMessage.get("errorMessage").getAsString();
+            String errorMessage = jsonMessage.has("errorMessage") && !jsonMessage.get("errorMessage").isJsonNull()
+                    ? jsonMessage.get("errorMessage").getAsString() : null;
             responseString.append("Response Code: ").append(responseCode);
             responseString.append(" Error Message: ").append(errorMessage);
         }
 
         return responseString.toString();
-
     }
 
     /**
@@ -182,16 +358,72 @@ public class JsonParsing {
                 values.addProperty("type", params[0]);
                 values.addProperty("size", Integer.parseInt(params[1]));
                 values.addProperty("price", Integer.parseInt(params[2]));
+                addInstrument(values, params, 3);
+                if ("insertLimitOrder".equals(operation)) {
+                    addTimeInForce(values, params, 4);
+                }
                 break;
             case "insertMarketOrder":
                 values.addProperty("type", params[0]);
                 values.addProperty("size", Integer.parseInt(params[1]));
+                addInstrument(values, params, 2);
+                addTimeInForce(values, params, 3);
+                break;
+            case "insertOrderBatch":
+                //params contiene, per ogni ordine, tipo di ordine, lato, quantità, prezzo e strumento
+                JsonArray orders = new JsonArray();
+                for (int i = 0; i + 4 < params.length; i += 5) {
+                    JsonObject order = new JsonObject();
+                    order.addProperty("orderType", params[i]);
+                    order.addProperty("type", params[i + 1]);
+                    order.addProperty("size", Integer.parseInt(params[i + 2]));
+                    if (!"market".equals(params[i])) {
+                        order.addProperty("price", Integer.parseInt(params[i + 3]));
+                    }
+                    addInstrument(order, params, i + 4);
+                    orders.add(order);
+                }
+                values.add("orders", orders);
                 break;
             case "cancelOrder":
                 values.addProperty("orderId", Integer.parseInt(params[0]));
                 break;
+            case "cancelAllOrders":
+                //Nessun parametro: vengono cancellati tutti gli ordini dell'utente loggato
+                break;
+            case "getOpenOrders":
+                addInstrument(values, params, 0);
+                break;
+            case "getOrderStatus":
+                values.addProperty("orderId", Long.parseLong(params[0]));
+                break;
+            case "quote":
+                values.addProperty("bidSize", Integer.parseInt(params[0]));
+                values.addProperty("bidPrice", Integer.parseInt(params[1]));
+                values.addProperty("askSize", Integer.parseInt(params[2]));
+                values.addProperty("askPrice", Integer.parseInt(params[3]));
+                addInstrument(values, params, 4);
+                break;
+            case "modifyOrder":
+                values.addProperty("orderId", Long.parseLong(params[0]));
+                //Quantità e prezzo sono facoltativi: se assenti restano invariati
+                if (!params[1].isEmpty()) {
+                    values.addProperty("size", Integer.parseInt(params[1]));
+                }
+                if (!params[2].isEmpty()) {
+                    values.addProperty("price", Integer.parseInt(params[2]));
+                }
+                break;
             case "getPriceHistory":
                 values.addProperty("month", params[0]);
+                addInstrument(values, params, 1);
+                if (params.length > 2 && params[2] != null && !params[2].isBlank()) {
+                    values.addProperty("interval", Integer.parseInt(params[2].trim()));
+                }
+                break;
+            case "getOrderBookDepth":
+                values.addProperty("levels", Integer.parseInt(params[0]));
+                addInstrument(values, params, 1);
                 break;
             default:
                 JsonObject unknownOperation = new JsonObject();
@@ -202,6 +434,34 @@ public class JsonParsing {
         return gson.toJson(jsonMessage);
     }
 
+    /**
+     * Aggiunge ai valori di un messaggio lo strumento su cui operare, se indicato.
+     * Se lo strumento è assente il server usa lo strumento predefinito.
+     *
+     * @param values Il JSON dei valori dell'operazione.
+     * @param params I parametri dell'operazione.
+     * @param index  La posizione facoltativa dello strumento tra i parametri.
+     */
+    private void addInstrument(JsonObject values, String[] params, int index) {
+        if (params.length > index && params[index] != null && !params[index].isBlank()) {
+            values.addProperty("instrument", params[index].trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Aggiunge ai valori di un ordine limit o di mercato la validità (time in force), se indicata.
+     * Se la validità è assente l'ordine è GTC e resta nel book fino all'esecuzione o alla cancellazione.
+     *
+     * @param values Il JSON dei valori dell'operazione.
+     * @param params I parametri dell'operazione.
+     * @param index  La posizione facoltativa della validità tra i parametri.
+     */
+    private void addTimeInForce(JsonObject values, String[] params, int index) {
+        if (params.length > index && params[index] != null && !params[index].isBlank()) {
+            values.addProperty("timeInForce", params[index].trim().toLowerCase());
+        }
+    }
+
     /**
      * Converte un messaggio JSON in una stringa leggibile.
      * Estrae l'operazione e i valori associati, costruendo una stringa in base ai dati forniti.
@@ -244,19 +504,73 @@ public class JsonParsing {
                 message.append(" ").append(values.get("type").getAsString());
                 message.append(" ").append(values.get("size").getAsInt());
                 message.append(" ").append(values.get("price").getAsInt());
+                appendInstrument(message, values);
+                if ("insertLimitOrder".equals(operation)) {
+                    appendTimeInForce(message, values);
+                }
                 break;
             case "insertMarketOrder":
                 //Aggiunge type e size al messaggio
                 message.append(" ").append(values.get("type").getAsString());
                 message.append(" ").append(values.get("size").getAsInt());
+                appendInstrument(message, values);
+                appendTimeInForce(message, values);
+                break;
+            case "insertOrderBatch":
+                //Aggiunge il numero di ordini e, per ciascuno, tipo di ordine, lato, quantità, prezzo e strumento
+                //(0 come prezzo degli ordini di mercato e "-" per lo strumento predefinito)
+                JsonArray orders = values.getAsJsonArray("orders");
+                message.append(" ").append(orders.size());
+                for (JsonElement element : orders) {
+                    JsonObject order = element.getAsJsonObject();
+                    message.append(" ").append(order.get("orderType").getAsString());
+                    message.append(" ").append(order.get("type").getAsString());
+                    message.append(" ").append(order.get("size").getAsInt());
+                    message.append(" ").append(order.has("price") ? order.get("price").getAsInt() : 0);
+                    message.append(" ").append(order.has("instrument") ? order.get("instrument").getAsString() : "-");
+                }
                 break;
             case "cancelOrder":
                 //Aggiunge orderId al messaggio
                 message.append(" ").append(values.get("orderId").getAsInt());
                 break;
+            case "cancelAllOrders":
+                break;
+            case "getOpenOrders":
+                appendInstrument(message, values);
+                break;
+            case "getOrderStatus":
+                message.append(" ").append(values.get("orderId").getAsLong());
+                break;
+            case "quote":
+                //Aggiunge quantità e prezzo di bid e ask al messaggio
+                message.append(" ").append(values.get("bidSize").getAsInt());
+                message.append(" ").append(values.has("bidPrice") ? values.get("bidPrice").getAsInt() : 0);
+                message.append(" ").append(values.get("askSize").getAsInt());
+                message.append(" ").append(values.has("askPrice") ? values.get("askPrice").getAsInt() : 0);
+                appendInstrument(message, values);
+                break;
+            case "modifyOrder":
+                //Aggiunge orderId, size e price al messaggio, 0 per i valori da lasciare invariati
+                message.append(" ").append(values.get("orderId").getAsLong());
+                message.append(" ").append(values.has("size") ? values.get("size").getAsInt() : 0);
+                message.append(" ").append(values.has("price") ? values.get("price").getAsInt() : 0);
+                break;
             case "getPriceHistory":
-                //Aggiunge month al messaggio
+                //Aggiunge month al messaggio e, se indicata, la durata delle candele in minuti dopo lo strumento
                 message.append(" ").append(values.get("month").getAsString());
+                appendInstrument(message, values);
+                if (values.has("interval")) {
+                    if (!values.has("instrument")) {
+                        message.append(" -");
+                    }
+                    message.append(" ").append(values.get("interval").getAsInt());
+                }
+                break;
+            case "getOrderBookDepth":
+                //Aggiunge il numero di livelli per lato al messaggio
+                message.append(" ").append(values.get("levels").getAsInt());
+                appendInstrument(message, values);
                 break;
             default:
                 return "Operazione sconosciuta: " + operation;
@@ -266,78 +580,82 @@ public class JsonParsing {
     }
 
     /**
-     * Aggiunge un ordine alla cronologia degli ordini salvata in un file JSON.
+     * Aggiunge in coda al messaggio lo strumento indicato dal client, se presente.
      *
-     * @param order L'ordine da aggiungere alla cronologia.
+     * @param message Il messaggio in costruzione.
+     * @param values  Il JSON dei valori dell'operazione.
      */
-    public synchronized void addOrderToHistory(Order order) {
-        try {
-            Path filePath = Path.of(ORDER_HISTORY_FILE);
-            JsonObject orderHistory;
-            // Leggi il file se esiste, altrimenti crea una nuova struttura
-            if (!Files.exists(filePath)) {
-                try {
-                    if (filePath.getParent() != null) {
-                        Files.createDirectories(filePath.getParent());
-                    }
-                    Files.createFile(filePath);
-                } catch (IOException e) {
-                    System.err.println("Errore nella creazione del file \"storico\" o directory: " + e.getMessage());
-                    return;
-                }
-
-                orderHistory = new JsonObject();
-                orderHistory.add("trades", new JsonArray());
-            } else {
-                try (Reader reader = new FileReader(ORDER_HISTORY_FILE)) {
-                    orderHistory = com.google.gson.JsonParser.parseReader(reader).getAsJsonObject();
-                } catch (IOException | IllegalStateException | JsonSyntaxException e) {
-                    System.err.println("Errore nella lettura del file \"storico\": " + e.getMessage());
-                    orderHistory = new JsonObject();
-                    orderHistory.add("trades", new JsonArray());
-                }
-            }
+    private void appendInstrument(StringBuilder message, JsonObject values) {
+        if (values.has("instrument")) {
+            message.append(" ").append(values.get("instrument").getAsString());
+        }
+    }
 
-            if (!orderHistory.has("trades") || orderHistory.get("trades").isJsonNull()) {
-                orderHistory.add("trades", new JsonArray());
+    /**
+     * Aggiunge in coda al messaggio la validità dell'ordine, se indicata dal client.
+     * La validità segue lo strumento: se lo strumento è assente viene indicato con "-" (strumento predefinito).
+     *
+     * @param message Il messaggio in costruzione.
+     * @param values  Il JSON dei valori dell'operazione.
+     */
+    private void appendTimeInForce(StringBuilder message, JsonObject values) {
+        if (values.has("timeInForce")) {
+            if (!values.has("instrument")) {
+                message.append(" -");
             }
+            message.append(" ").append(values.get("timeInForce").getAsString());
+        }
+    }
 
-            JsonArray trades = orderHistory.getAsJsonArray("trades");
-            JsonObject trade = new JsonObject();
-
-            trade.addProperty("orderId", order.getOrderId());
-            trade.addProperty("type", order.getType());
-            trade.addProperty("orderType", order.getClass().getSimpleName().toLowerCase());
-            trade.addProperty("size", order.getSize());
-            trade.addProperty("price", order.getPrice());
-            trade.addProperty("timestamp", System.currentTimeMillis() / 1000);
-
-            trades.add(trade);
+    /**
+     * Crea il record JSON compatto (su una sola riga) di uno scambio da aggiungere al giornale degli scambi.
+     *
+     * @param order     L'ordine (o la parte di ordine) eseguito.
+     * @param timestamp Il timestamp dello scambio in secondi.
+     * @return Una stringa JSON su una sola riga che rappresenta lo scambio.
+     */
+    public String createTradeRecord(Order order, long timestamp) {
+        return createTradeRecord(order.getOrderId(), order.getType(), order.getOrderTypeName(),
+                order.getSize(), order.getPrice(), timestamp);
+    }
 
-            // Scrivi il file aggiornato
-            try (Writer writer = new FileWriter(ORDER_HISTORY_FILE)) {
-                Gson gson = new GsonBuilder().setPrettyPrinting().create();
-                gson.toJson(orderHistory, writer);
-            } catch (IOException e) {
-                System.err.println("Errore nella scrittura del file \"storico\": " + e.getMessage());
-            }
-        } catch (Exception ex) {
-            System.err.println("Errore nella funzione storico: " + ex.getMessage());
+    /**
+     * Crea il record JSON compatto (su una sola riga) di uno scambio a partire dai suoi campi.
+     *
+     * @param orderId   L'ID dell'ordine eseguito.
+     * @param type      Il lato dell'ordine (bid/ask).
+     * @param orderType Il tipo di ordine, omesso se null.
+     * @param size      La quantità scambiata.
+     * @param price     Il prezzo dello scambio.
+     * @param timestamp Il timestamp dello scambio in secondi.
+     * @return Una stringa JSON su una sola riga che rappresenta lo scambio.
+     */
+    public String createTradeRecord(long orderId, String type, String orderType, int size, int price, long timestamp) {
+        JsonObject trade = new JsonObject();
+        trade.addProperty("orderId", orderId);
+        trade.addProperty("type", type);
+        if (orderType != null) {
+            trade.addProperty("orderType", orderType);
         }
+        trade.addProperty("size", size);
+        trade.addProperty("price", price);
+        trade.addProperty("timestamp", timestamp);
+        return gson.toJson(trade);
     }
 
     /**
      * Crea una notifica JSON per la chiusura di un'operazione di trading.
      * Include dettagli sull'operazione chiusa, come ID ordine, tipo, quantità e prezzo.
      *
-     * @param type      Il tipo di operazione eseguita (buy/sell).
-     * @param size      La quantità dell'operazione.
-     * @param price     Il prezzo al quale è stata chiusa l'operazione.
-     * @param orderId   L'ID dell'ordine chiuso.
-     * @param orderType Il tipo di ordine eseguito.
+     * @param instrument Lo strumento scambiato.
+     * @param type       Il tipo di operazione eseguita (buy/sell).
+     * @param size       La quantità dell'operazione.
+     * @param price      Il prezzo al quale è stata chiusa l'operazione.
+     * @param orderId    L'ID dell'ordine chiuso.
+     * @param orderType  Il tipo di ordine eseguito.
      * @return Una stringa JSON contenente i dettagli della notifica.
      */
-    public String createNotificationResponse(String type, int size, int price, long orderId, String orderType) {
+    public String createNotificationResponse(String instrument, String type, int size, int price, long orderId, String orderType) {
         JsonObject notificationJson = new JsonObject();
         notificationJson.addProperty("notification", "closedTrades");
 
@@ -345,6 +663,7 @@ public class JsonParsing {
 
         JsonObject trade = new JsonObject();
         trade.addProperty("orderId", orderId);
+        trade.addProperty("instrument", instrument);
         trade.addProperty("type", type);
         trade.addProperty("orderType", orderType);
         trade.addProperty("size", size);
@@ -357,22 +676,69 @@ public class JsonParsing {
     }
 
 
+    /**
+     * Crea la notifica JSON pubblica di uno scambio, diffusa in multicast a tutti i client.
+     * Contiene solo strumento, quantità, prezzo e tipo di ordine, senza informazioni sui partecipanti.
+     *
+     * @param instrument Lo strumento scambiato.
+     * @param size       La quantità scambiata.
+     * @param price      Il prezzo dello scambio.
+     * @param orderType  Il tipo di ordine che ha generato lo scambio.
+     * @return Una stringa JSON contenente i dettagli pubblici dello scambio.
+     */
+    public String createPublicTradeNotification(String instrument, int size, int price, String orderType) {
+        JsonObject notificationJson = new JsonObject();
+        notificationJson.addProperty("notification", "publicTrade");
+        notificationJson.addProperty("instrument", instrument);
+        notificationJson.addProperty("orderType", orderType);
+        notificationJson.addProperty("size", size);
+        notificationJson.addProperty("price", price);
+        return notificationJson.toString();
+    }
+
+    /**
+     * Crea la notifica JSON di un ordine scartato senza esecuzione, inviata al solo proprietario:
+     * uno stop attivato quando il lato opposto non ha liquidità sufficiente a eseguirlo per intero.
+     *
+     * @param instrument Lo strumento dell'ordine.
+     * @param type       Il lato dell'ordine (bid/ask).
+     * @param size       La quantità dell'ordine.
+     * @param price      Il prezzo dell'ultimo scambio al momento dello scarto.
+     * @param orderId    L'ID dell'ordine scartato.
+     * @param orderType  Il tipo di ordine scartato.
+     * @return Una stringa JSON contenente i dettagli della notifica.
+     */
+    public String createOrderRejectedNotification(String instrument, String type, int size, int price, long orderId, String orderType) {
+        JsonObject notificationJson = new JsonObject();
+        notificationJson.addProperty("notification", "orderRejected");
+        notificationJson.addProperty("orderId", orderId);
+        notificationJson.addProperty("instrument", instrument);
+        notificationJson.addProperty("type", type);
+        notificationJson.addProperty("orderType", orderType);
+        notificationJson.addProperty("size", size);
+        notificationJson.addProperty("price", price);
+        notificationJson.addProperty("reason", "insufficient liquidity");
+        return notificationJson.toString();
+    }
+
     /**
      * Crea una notifica JSON quando viene raggiunta una soglia di prezzo.
      * Include la soglia superata nel messaggio JSON.
      *
-     * @param threshold Il valore della soglia superata.
+     * @param instrument Lo strumento il cui prezzo ha raggiunto la soglia.
+     * @param threshold  Il valore della soglia superata.
      * @return Una stringa JSON rappresentante la notifica.
      */
-    public String createThresholdNotification(int threshold) {
+    public String createThresholdNotification(String instrument, int threshold) {
         JsonObject notificationJson = new JsonObject();
         notificationJson.addProperty("limitPriceThresholdReached", threshold);
+        notificationJson.addProperty("instrument", instrument);
         return notificationJson.toString();
     }
 
     /**
-     * Analizza una stringa JSON per estrarre la notifica della soglia di prezzo raggiunta.
-     * Include il valore della soglia nel messaggio di ritorno.
+     * Analizza una stringa JSON ricevuta in multicast: la notifica della soglia di prezzo raggiunta
+     * oppure l'informazione pubblica di uno scambio.
      *
      * @param jsonString La stringa JSON contenente la notifica.
      * @return Una stringa rappresentante la notifica della soglia di prezzo raggiunta.
@@ -380,9 +746,13 @@ public class JsonParsing {
     public String parseThresholdNotification(String jsonString) {
         try {
             JsonObject jsonObject = JsonParser.parseString(jsonString).getAsJsonObject();
+            if (jsonObject.has("notification") && "publicTrade".equals(jsonObject.get("notification").getAsString())) {
+                return "Trade: " + jsonObject.get("size").getAsInt() + " " + instrumentOf(jsonObject) + " at price " + jsonObject.get("price").getAsInt()
+                        + " USD (" + jsonObject.get("orderType").getAsString() + ")";
+            }
             if (jsonObject.has("limitPriceThresholdReached")) {
                 int threshold = jsonObject.get("limitPriceThresholdReached").getAsInt();
-                return "Threshold reached: " + threshold;
+                return "Threshold reached: " + threshold + " (" + instrumentOf(jsonObject) + ")";
             } else {
                 return "Property 'limitPriceThresholdReached' not found in JSON.";
             }
@@ -390,4 +760,14 @@ public class JsonParsing {
             return "Invalid JSON format.";
         }
     }
+
+    /**
+     * Restituisce lo strumento indicato in una notifica; le notifiche prive di strumento si riferiscono a BTC.
+     *
+     * @param jsonObject La notifica ricevuta.
+     * @return Il simbolo dello strumento.
+     */
+    private String instrumentOf(JsonObject jsonObject) {
+        return jsonObject.has("instrument") ? jsonObject.get("instrument").getAsString() : "BTC";
+    }
 }
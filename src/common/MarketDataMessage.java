@@ -0,0 +1,129 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Messaggio binario del canale multicast dei dati di mercato: uno scambio oppure il nuovo stato di un livello di prezzo.
+ * Ogni datagramma contiene un solo evento, con i campi in big endian:
+ * <pre>
+ *  0  long  numero di sequenza, consecutivo per strumento a partire da 1
+ *  8  byte  tipo di evento: {@link #TRADE} o {@link #LEVEL}
+ *  9  byte  lato: del livello per LEVEL, dell'ordine che ha generato lo scambio per TRADE (0 bid, 1 ask)
+ * 10  int   prezzo
+ * 14  long  quantità: scambiata per TRADE, totale del livello per LEVEL (0 se il livello è stato svuotato)
+ * 22  int   numero di ordini del livello (0 per TRADE)
+ * 26  long  istante dell'evento in millisecondi
+ * 34  byte  lunghezza del simbolo dello strumento, seguita dal simbolo in ASCII
+ * </pre>
+ * Un livello riporta sempre la quantità totale e non la variazione, quindi applicare due volte lo stesso messaggio
+ * non altera il book locale; un buco nella sequenza indica invece messaggi persi e richiede di riallineare il book
+ * con getOrderBookDepth, che restituisce anche il numero di sequenza a cui si riferisce.
+ */
+public class MarketDataMessage {
+    public static final byte TRADE = 'T';
+    public static final byte LEVEL = 'L';
+    public static final int HEADER_SIZE = 35; //byte che precedono il simbolo
+    public static final int MAX_SIZE = HEADER_SIZE + 255;
+
+    private final long sequence;
+    private final byte type;
+    private final byte side;
+    private final int price;
+    private final long quantity;
+    private final int orders;
+    private final long timestamp;
+    private final String instrument;
+
+    private MarketDataMessage(long sequence, byte type, byte side, int price, long quantity, int orders, long timestamp, String instrument) {
+        this.sequence = sequence;
+        this.type = type;
+        this.side = side;
+        this.price = price;
+        this.quantity = quantity;
+        this.orders = orders;
+        this.timestamp = timestamp;
+        this.instrument = instrument;
+    }
+
+    /**
+     * Scrive un messaggio all'inizio del buffer, senza creare oggetti. Al termine il buffer è pronto per l'invio.
+     *
+     * @param buffer     Il buffer di destinazione, di almeno {@link #MAX_SIZE} byte.
+     * @param instrument Il simbolo dello strumento in ASCII, al massimo 255 byte.
+     * @param sequence   Il numero di sequenza del messaggio.
+     * @param type       Il tipo di evento.
+     * @param side       Il lato.
+     * @param price      Il prezzo.
+     * @param quantity   La quantità scambiata o la quantità totale del livello.
+     * @param orders     Il numero di ordini del livello.
+     * @param timestamp  L'istante dell'evento in millisecondi.
+     */
+    public static void encode(ByteBuffer buffer, byte[] instrument, long sequence, byte type, byte side, int price,
+                              long quantity, int orders, long timestamp) {
+        buffer.clear();
+        buffer.putLong(sequence).put(type).put(side).putInt(price).putLong(quantity).putInt(orders).putLong(timestamp);
+        buffer.put((byte) instrument.length).put(instrument);
+        buffer.flip();
+    }
+
+    /**
+     * Legge un messaggio ricevuto.
+     *
+     * @param data   Il contenuto del datagramma.
+     * @param length La lunghezza del datagramma.
+     * @return Il messaggio letto.
+     * @throws IllegalArgumentException se il datagramma non è un messaggio valido.
+     */
+    public static MarketDataMessage decode(byte[] data, int length) {
+        if (length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Messaggio dei dati di mercato troppo corto: " + length + " byte");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        long sequence = buffer.getLong();
+        byte type = buffer.get();
+        byte side = buffer.get();
+        int price = buffer.getInt();
+        long quantity = buffer.getLong();
+        int orders = buffer.getInt();
+        long timestamp = buffer.getLong();
+        int symbolLength = buffer.get() & 0xFF;
+        if ((type != TRADE && type != LEVEL) || buffer.remaining() < symbolLength) {
+            throw new IllegalArgumentException("Messaggio dei dati di mercato non valido");
+        }
+        String instrument = new String(data, HEADER_SIZE, symbolLength, StandardCharsets.US_ASCII);
+        return new MarketDataMessage(sequence, type, side, price, quantity, orders, timestamp, instrument);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public byte getSide() {
+        return side;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public long getQuantity() {
+        return quantity;
+    }
+
+    public int getOrders() {
+        return orders;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getInstrument() {
+        return instrument;
+    }
+}
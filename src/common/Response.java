@@ -1,6 +1,8 @@
 package common;
 
 import order.DayPriceData;
+import order.DepthSnapshot;
+import order.OrderStatus;
 
 import java.io.Serializable;
 import java.util.List;
@@ -18,6 +20,20 @@ public class Response implements Serializable {
     private String errorMessage;
     private long orderId;
     private List<DayPriceData> dayPrices;
+    private List<Response> results;
+    private List<OrderStatus> orders;
+    private DepthSnapshot depth;
+    private int depthLevels;
+    private int matchedSize;
+    private int orderSize;
+
+    /**
+     * Costruisce una risposta vuota, da compilare con {@link #set(int, String, long)}.
+     * I thread che gestiscono i client la creano prima di pubblicare un ordine, così il matching
+     * la compila senza creare oggetti.
+     */
+    public Response() {
+    }
 
     /**
      * Costruisce un'istanza di {@code Response} con i dati specificati.
@@ -34,6 +50,80 @@ public class Response implements Serializable {
         this.dayPrices = dayPrices;
     }
 
+    /**
+     * Costruisce la risposta a un'operazione composta da più richieste, come l'inserimento di un batch di ordini.
+     *
+     * @param responseCode Il codice di risposta dell'operazione complessiva.
+     * @param errorMessage Il messaggio di errore (se presente).
+     * @param results      Le risposte alle singole richieste, nello stesso ordine della richiesta.
+     */
+    public Response(int responseCode, String errorMessage, List<Response> results) {
+        this(responseCode, errorMessage, 0, null);
+        this.results = results;
+    }
+
+    /**
+     * Costruisce la risposta a una richiesta sullo stato degli ordini.
+     *
+     * @param responseCode Il codice di risposta della richiesta.
+     * @param errorMessage Il messaggio di errore (se presente).
+     * @param orderId      L'ID dell'ordine richiesto, 0 se la richiesta riguarda tutti gli ordini dell'utente.
+     * @param dayPrices    Una lista di dati relativi ai prezzi giornalieri (null per le richieste sugli ordini).
+     * @param orders       Lo stato degli ordini in attesa richiesti.
+     */
+    public Response(int responseCode, String errorMessage, long orderId, List<DayPriceData> dayPrices, List<OrderStatus> orders) {
+        this(responseCode, errorMessage, orderId, dayPrices);
+        this.orders = orders;
+    }
+
+    /**
+     * Costruisce la risposta a una richiesta sulla profondità del book.
+     *
+     * @param responseCode Il codice di risposta della richiesta.
+     * @param errorMessage Il messaggio di errore (se presente).
+     * @param depth        La vista della profondità del book, condivisa con gli altri lettori.
+     * @param depthLevels  Il numero di livelli per lato da restituire al client.
+     */
+    public Response(int responseCode, String errorMessage, DepthSnapshot depth, int depthLevels) {
+        this(responseCode, errorMessage, 0, null);
+        this.depth = depth;
+        this.depthLevels = depthLevels;
+    }
+
+    /**
+     * Compila la risposta all'inserimento di un ordine.
+     *
+     * @param responseCode Il codice di risposta della richiesta.
+     * @param errorMessage Il messaggio di errore (se presente).
+     * @param orderId      L'ID dell'ordine associato alla risposta.
+     * @return Questa risposta.
+     */
+    public Response set(int responseCode, String errorMessage, long orderId) {
+        this.responseCode = responseCode;
+        this.errorMessage = errorMessage;
+        this.orderId = orderId;
+        this.matchedSize = 0;
+        this.orderSize = 0;
+        return this;
+    }
+
+    /**
+     * Compila la risposta a un ordine eseguito solo in parte. Il messaggio riporta la quantità eseguita
+     * e quella richiesta, ma viene composto solo quando viene letto, fuori dal matching.
+     *
+     * @param errorMessage Il messaggio di base.
+     * @param orderId      L'ID dell'ordine.
+     * @param matchedSize  La quantità eseguita.
+     * @param orderSize    La quantità richiesta.
+     * @return Questa risposta.
+     */
+    public Response setPartialFill(String errorMessage, long orderId, int matchedSize, int orderSize) {
+        set(100, errorMessage, orderId);
+        this.matchedSize = matchedSize;
+        this.orderSize = orderSize;
+        return this;
+    }
+
     /**
      * Restituisce il codice di risposta della richiesta.
      *
@@ -49,6 +139,9 @@ public class Response implements Serializable {
      * @return Il messaggio di errore, oppure {@code null} se non presente.
      */
     public String getErrorMessage() {
+        if (orderSize > 0) {
+            return errorMessage + ": " + matchedSize + " of " + orderSize;
+        }
         return errorMessage;
     }
 
@@ -69,4 +162,35 @@ public class Response implements Serializable {
     public List<DayPriceData> getDayPrices() {
         return dayPrices;
     }
+
+    /**
+     * Restituisce le risposte alle singole richieste di un'operazione composta.
+     *
+     * @return Le risposte, oppure {@code null} se la risposta non si riferisce a un'operazione composta.
+     */
+    public List<Response> getResults() {
+        return results;
+    }
+
+    /**
+     * Restituisce lo stato degli ordini richiesti.
+     *
+     * @return Gli ordini, oppure {@code null} se la risposta non si riferisce a una richiesta sullo stato degli ordini.
+     */
+    public List<OrderStatus> getOrders() {
+        return orders;
+    }
+
+    /**
+     * Restituisce la profondità del book richiesta.
+     *
+     * @return La vista del book, oppure {@code null} se la risposta non si riferisce a una richiesta sulla profondità.
+     */
+    public DepthSnapshot getDepth() {
+        return depth;
+    }
+
+    public int getDepthLevels() {
+        return depthLevels;
+    }
 }
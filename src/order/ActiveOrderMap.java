@@ -0,0 +1,168 @@
+package order;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Mappa degli ordini attivi di un book, indicizzata dall'ID dell'ordine.
+ * Le chiavi sono long primitivi in una tabella a indirizzamento aperto, quindi inserimenti e rimozioni
+ * non creano oggetti (niente Long né nodi della mappa) e l'esecuzione degli ordini non produce garbage.
+ * <p>
+ * Le modifiche avvengono solo sotto il lock del book (o dal thread del motore di matching).
+ * Le letture da altri thread non acquisiscono lock: ogni modifica incrementa un contatore di versione
+ * prima e dopo, e il lettore ripete la ricerca se la versione è cambiata nel frattempo.
+ */
+class ActiveOrderMap {
+    private static final int MIN_CAPACITY = 1024;
+
+    private long[] keys;
+    private Order[] values;
+    private int size;
+    private volatile long version;
+
+    ActiveOrderMap() {
+        keys = new long[MIN_CAPACITY];
+        values = new Order[MIN_CAPACITY];
+    }
+
+    /**
+     * Cerca un ordine attivo. Può essere invocato da qualsiasi thread.
+     *
+     * @param orderId L'ID dell'ordine (maggiore di zero).
+     * @return L'ordine, oppure null se non è attivo.
+     */
+    Order get(long orderId) {
+        while (true) {
+            long before = version;
+            if ((before & 1) == 0) {
+                long[] currentKeys = keys;
+                Order[] currentValues = values;
+                Order found = null;
+                //la lunghezza viene letta dall'array stesso, così un array vecchio resta consistente con la sua maschera
+                if (currentKeys.length == currentValues.length) {
+                    int mask = currentKeys.length - 1;
+                    int slot = slot(orderId, mask);
+                    for (int probes = 0; probes <= mask; probes++) {
+                        long key = currentKeys[slot];
+                        if (key == orderId) {
+                            found = currentValues[slot];
+                            break;
+                        }
+                        if (key == 0) {
+                            break;
+                        }
+                        slot = (slot + 1) & mask;
+                    }
+                }
+                VarHandle.acquireFence();
+                if (version == before) {
+                    return found;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    boolean containsKey(long orderId) {
+        return get(orderId) != null;
+    }
+
+    /**
+     * Registra un ordine attivo. Da invocare solo da chi modifica il book.
+     *
+     * @param orderId L'ID dell'ordine (maggiore di zero).
+     * @param order   L'ordine.
+     */
+    void put(long orderId, Order order) {
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        beginWrite();
+        int mask = keys.length - 1;
+        int slot = slot(orderId, mask);
+        while (keys[slot] != 0 && keys[slot] != orderId) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == 0) {
+            size++;
+        }
+        keys[slot] = orderId;
+        values[slot] = order;
+        version++;
+    }
+
+    /**
+     * Rimuove un ordine attivo. Da invocare solo da chi modifica il book.
+     * Le voci successive dello stesso gruppo vengono spostate indietro, così la tabella non accumula
+     * marcatori di cancellazione e non deve essere ricostruita.
+     *
+     * @param orderId L'ID dell'ordine.
+     * @return L'ordine rimosso, oppure null se non era attivo.
+     */
+    Order remove(long orderId) {
+        int mask = keys.length - 1;
+        int slot = slot(orderId, mask);
+        while (keys[slot] != orderId) {
+            if (keys[slot] == 0) {
+                return null;
+            }
+            slot = (slot + 1) & mask;
+        }
+        Order removed = values[slot];
+        beginWrite();
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != 0) {
+            int home = slot(keys[next], mask);
+            //la voce può occupare il buco solo se la sua posizione naturale non cade tra il buco e la voce stessa
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = 0;
+        values[hole] = null;
+        size--;
+        version++;
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+        long[] newKeys = new long[capacity];
+        Order[] newValues = new Order[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                int slot = slot(keys[i], mask);
+                while (newKeys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newKeys[slot] = keys[i];
+                newValues[slot] = values[i];
+            }
+        }
+        beginWrite();
+        keys = newKeys;
+        values = newValues;
+        version++;
+    }
+
+    /**
+     * Rende dispari la versione prima di una modifica: i lettori concorrenti ripeteranno la ricerca.
+     * La barriera impedisce che le scritture sulla tabella vengano anticipate rispetto alla versione.
+     */
+    private void beginWrite() {
+        version++;
+        VarHandle.releaseFence();
+    }
+
+    private static int slot(long orderId, int mask) {
+        long hash = orderId * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,527 @@
+package order;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rappresenta un lato del book (bid o ask) organizzato per livelli di prezzo.
+ * I livelli sono ordinati dal prezzo migliore al peggiore: decrescente per i bid, crescente per gli ask.
+ * Il livello migliore viene tenuto in cache, quindi la lettura del top of book costa O(1),
+ * mentre inserimenti e rimozioni di livelli costano O(log livelli).
+ * Se il lato è creato con una {@link PriceBand}, i livelli con prezzo nella banda sono invece in un array indicizzato
+ * per tick, con una bitmap dei livelli non vuoti: la ricerca di un livello costa O(1) e, quando il livello migliore
+ * si svuota, il successivo si trova scorrendo la bitmap a partire dalla sua posizione. I prezzi fuori dalla banda
+ * (o non multipli del tick) restano nella mappa ordinata.
+ * La quantità totale e il numero di ordini del lato sono aggiornati a ogni inserimento, esecuzione
+ * e cancellazione, così la verifica della liquidità disponibile costa O(1).
+ * Se il lato è creato con una {@link OffHeapOrderStore}, gli ordini inseriti vengono copiati fuori dall'heap
+ * e {@link #peek()} restituisce una vista riutilizzabile del primo ordine, valida fino alla lettura successiva.
+ * Se richiesto, il lato registra i prezzi dei livelli modificati, così il book può pubblicarne il nuovo stato
+ * una sola volta al termine di ogni operazione.
+ */
+public class BookSide {
+    private final boolean bid;
+    private final TreeMap<Integer, PriceLevel> levels;
+    private final OffHeapOrderStore store;
+    private final StoredOrder cursor;
+    private final PriceBand band; //null se tutti i livelli sono nella mappa ordinata
+    private final PriceLevel[] ladder; //livelli della banda, indicizzati per tick in ordine crescente di prezzo
+    private final long[] occupied; //un bit per ogni posizione non vuota di ladder
+    private PriceLevel bestLevel;
+    private long totalQuantity;
+    private int orderCount;
+    private final boolean trackChanges;
+    private PriceLevel[] changedLevels; //livelli modificati dall'ultima chiamata a clearChanges
+    private int changedCount;
+
+    /**
+     * Crea un lato del book vuoto.
+     *
+     * @param bid true per il lato degli acquisti (bid), false per quello delle vendite (ask).
+     */
+    public BookSide(boolean bid) {
+        this(bid, null, null);
+    }
+
+    /**
+     * Crea un lato del book vuoto, con memoria off-heap degli ordini e banda di prezzi opzionali.
+     *
+     * @param bid   true per il lato degli acquisti (bid), false per quello delle vendite (ask).
+     * @param store La memoria degli ordini, condivisa dai lati dello stesso book; null per tenere gli ordini sull'heap.
+     * @param band  La banda di prezzi da indicizzare in un array; null per tenere tutti i livelli nella mappa ordinata.
+     */
+    BookSide(boolean bid, OffHeapOrderStore store, PriceBand band) {
+        this(bid, store, band, false);
+    }
+
+    /**
+     * Crea un lato del book vuoto, registrando se richiesto i livelli modificati.
+     *
+     * @param bid          true per il lato degli acquisti (bid), false per quello delle vendite (ask).
+     * @param store        La memoria degli ordini, condivisa dai lati dello stesso book; null per tenere gli ordini sull'heap.
+     * @param band         La banda di prezzi da indicizzare in un array; null per tenere tutti i livelli nella mappa ordinata.
+     * @param trackChanges true per registrare i livelli modificati (vedi {@link #getChangedCount()}).
+     */
+    BookSide(boolean bid, OffHeapOrderStore store, PriceBand band, boolean trackChanges) {
+        this.bid = bid;
+        this.trackChanges = trackChanges;
+        this.changedLevels = trackChanges ? new PriceLevel[64] : null;
+        this.levels = bid ? new TreeMap<>(Collections.reverseOrder()) : new TreeMap<>();
+        this.store = store;
+        this.cursor = store == null ? null : new StoredOrder();
+        this.band = band;
+        this.ladder = band == null ? null : new PriceLevel[band.getTicks()];
+        this.occupied = band == null ? null : new long[(band.getTicks() + 63) >>> 6];
+    }
+
+    /**
+     * Inserisce un ordine in fondo alla coda del suo livello di prezzo, creando il livello se necessario.
+     *
+     * @param order L'ordine da inserire.
+     * @throws IllegalStateException se la memoria off-heap del lato è piena.
+     */
+    public void add(Order order) {
+        PriceLevel level = findLevel(order.getPrice());
+        if (level == null) {
+            level = new PriceLevel(order.getPrice());
+            putLevel(level);
+            if (bestLevel == null || isBetter(order.getPrice(), bestLevel.getPrice())) {
+                bestLevel = level;
+            }
+        }
+        if (store == null) {
+            level.append(order);
+        } else {
+            int slot = store.allocate(order);
+            if (slot < 0) {
+                //il livello eventualmente appena creato resta vuoto: lo rimuovo per non lasciare il lato incoerente
+                if (level.isEmpty()) {
+                    removeLevel(level);
+                }
+                throw new IllegalStateException("Memoria off-heap degli ordini piena");
+            }
+            level.append(store, slot);
+        }
+        totalQuantity += order.getSize();
+        orderCount++;
+        markChanged(level);
+    }
+
+    /**
+     * Rimuove un ordine dal book in tempo costante. Se il livello resta vuoto viene eliminato.
+     *
+     * @param order L'ordine da rimuovere.
+     * @return true se l'ordine era presente nel book, false altrimenti.
+     */
+    public boolean remove(Order order) {
+        if (store != null) {
+            return removeStored((StoredOrder) order);
+        }
+        PriceLevel level = order.level;
+        if (level == null || findLevel(level.getPrice()) != level) {
+            return false;
+        }
+        totalQuantity -= order.getSize();
+        orderCount--;
+        markChanged(level);
+        level.unlink(order);
+        if (level.isEmpty()) {
+            removeLevel(level);
+        }
+        return true;
+    }
+
+    /**
+     * Riduce la quantità di un ordine del book dopo un'esecuzione.
+     * Se l'ordine viene esaurito viene rimosso dal suo livello.
+     *
+     * @param order  L'ordine eseguito.
+     * @param amount La quantità eseguita.
+     */
+    public void fill(Order order, int amount) {
+        PriceLevel level = order.level;
+        if (store != null) {
+            fillStored((StoredOrder) order, level, amount);
+            return;
+        }
+        level.reduce(order, amount);
+        totalQuantity -= amount;
+        markChanged(level);
+        if (order.getSize() == 0) {
+            orderCount--;
+            level.unlink(order);
+            if (level.isEmpty()) {
+                removeLevel(level);
+            }
+        }
+    }
+
+    /**
+     * Riduce la quantità di un ordine del book senza cambiarne la posizione nella coda del livello.
+     * La riduzione deve essere minore della quantità dell'ordine, che quindi resta nel book.
+     *
+     * @param order  L'ordine da ridurre.
+     * @param amount La quantità da togliere.
+     */
+    public void reduce(Order order, int amount) {
+        PriceLevel level = store != null ? findLevel(order.getPrice()) : order.level;
+        if (store != null) {
+            level.reduce(store, ((StoredOrder) order).getSlot(), amount);
+            order.reduceSize(amount);
+        } else {
+            level.reduce(order, amount);
+        }
+        totalQuantity -= amount;
+        markChanged(level);
+    }
+
+    /**
+     * Restituisce l'ordine con priorità più alta (miglior prezzo e, a parità, il più vecchio).
+     *
+     * @return Il miglior ordine, oppure null se il lato è vuoto.
+     */
+    public Order peek() {
+        if (store != null) {
+            if (bestLevel == null) {
+                return null;
+            }
+            store.load(bestLevel.peekSlot(), cursor).level = bestLevel;
+            return cursor;
+        }
+        return bestLevel == null ? null : bestLevel.peek();
+    }
+
+    /**
+     * Restituisce il livello di prezzo migliore.
+     *
+     * @return Il miglior livello, oppure null se il lato è vuoto.
+     */
+    public PriceLevel getBestLevel() {
+        return bestLevel;
+    }
+
+    /**
+     * Restituisce la quantità eseguibile da un ordine con prezzo limite, cioè presente ai prezzi uguali
+     * o migliori del limite. La somma dei livelli si ferma appena raggiunge la quantità richiesta.
+     *
+     * @param limitPrice Il prezzo limite dell'ordine che colpisce questo lato.
+     * @param needed     La quantità oltre la quale non serve proseguire.
+     * @return La quantità disponibile entro il limite, al massimo di poco superiore a quella richiesta.
+     */
+    public long getQuantityUpTo(int limitPrice, long needed) {
+        long quantity = 0;
+        for (PriceLevel level : levels.headMap(limitPrice, true).values()) {
+            if (quantity >= needed) {
+                return quantity;
+            }
+            quantity += level.getTotalQuantity();
+        }
+        if (ladder != null) {
+            int index = bid ? previousOccupied(ladder.length - 1) : nextOccupied(0);
+            while (index >= 0 && quantity < needed && !isBetter(limitPrice, ladder[index].getPrice())) {
+                quantity += ladder[index].getTotalQuantity();
+                index = bid ? (index == 0 ? -1 : previousOccupied(index - 1)) : nextOccupied(index + 1);
+            }
+        }
+        return quantity;
+    }
+
+    /**
+     * Copia i primi livelli del lato, dal migliore al peggiore, unendo i livelli dell'array e quelli della mappa.
+     *
+     * @param maxLevels   Il numero massimo di livelli da copiare.
+     * @param prices      Gli array di destinazione, lunghi almeno maxLevels: prezzo,
+     * @param quantities  quantità aggregata
+     * @param orderCounts e numero di ordini di ogni livello.
+     * @return Il numero di livelli copiati.
+     */
+    int copyTop(int maxLevels, int[] prices, long[] quantities, int[] orderCounts) {
+        Iterator<PriceLevel> mapLevels = levels.values().iterator();
+        PriceLevel mapLevel = mapLevels.hasNext() ? mapLevels.next() : null;
+        int index = ladder == null ? -1 : bid ? previousOccupied(ladder.length - 1) : nextOccupied(0);
+        int count = 0;
+        while (count < maxLevels) {
+            PriceLevel level;
+            if (index >= 0 && (mapLevel == null || isBetter(ladder[index].getPrice(), mapLevel.getPrice()))) {
+                level = ladder[index];
+                index = bid ? (index == 0 ? -1 : previousOccupied(index - 1)) : nextOccupied(index + 1);
+            } else if (mapLevel != null) {
+                level = mapLevel;
+                mapLevel = mapLevels.hasNext() ? mapLevels.next() : null;
+            } else {
+                break;
+            }
+            prices[count] = level.getPrice();
+            quantities[count] = level.getTotalQuantity();
+            orderCounts[count] = level.getOrderCount();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Restituisce il numero di livelli modificati dall'ultima chiamata a {@link #clearChanges()}.
+     * Un livello svuotato viene rimosso dal lato ma resta registrato, con quantità e ordini a zero;
+     * se nella stessa operazione il prezzo viene ricreato, il nuovo livello è registrato dopo di lui.
+     *
+     * @return Il numero di livelli registrati, 0 se il lato non registra le modifiche.
+     */
+    int getChangedCount() {
+        return changedCount;
+    }
+
+    /**
+     * Restituisce un livello modificato, senza cercarlo per prezzo (la ricerca nella mappa ordinata
+     * creerebbe un oggetto per la chiave).
+     *
+     * @param index La posizione del livello tra quelli registrati, in ordine di modifica.
+     * @return Il livello modificato.
+     */
+    PriceLevel getChangedLevel(int index) {
+        return changedLevels[index];
+    }
+
+    /**
+     * Dimentica i livelli modificati registrati finora.
+     */
+    void clearChanges() {
+        for (int i = 0; i < changedCount; i++) {
+            changedLevels[i].changed = false;
+            changedLevels[i] = null;
+        }
+        changedCount = 0;
+    }
+
+    /**
+     * Restituisce la quantità totale degli ordini presenti sul lato.
+     *
+     * @return La quantità aggregata di tutti i livelli.
+     */
+    public long getTotalQuantity() {
+        return totalQuantity;
+    }
+
+    /**
+     * Restituisce il numero di ordini presenti sul lato.
+     *
+     * @return Il numero di ordini.
+     */
+    public int getOrderCount() {
+        return orderCount;
+    }
+
+    /**
+     * Restituisce una vista in sola lettura dei livelli, ordinati dal migliore al peggiore.
+     * Se il lato ha una banda di prezzi la vista è una copia, che unisce i livelli dell'array e quelli della mappa.
+     *
+     * @return I livelli di prezzo del lato.
+     */
+    public Map<Integer, PriceLevel> getLevels() {
+        if (ladder == null) {
+            return Collections.unmodifiableMap(levels);
+        }
+        TreeMap<Integer, PriceLevel> all = new TreeMap<>(levels);
+        for (int index = nextOccupied(0); index >= 0; index = nextOccupied(index + 1)) {
+            all.put(ladder[index].getPrice(), ladder[index]);
+        }
+        return Collections.unmodifiableMap(all);
+    }
+
+    /**
+     * Indica se il lato non contiene ordini.
+     *
+     * @return true se il lato è vuoto, false altrimenti.
+     */
+    public boolean isEmpty() {
+        return bestLevel == null;
+    }
+
+    /**
+     * Verifica che i totali mantenuti dal lato corrispondano al contenuto dei livelli, che ogni livello
+     * sia coerente e che il livello migliore in cache sia effettivamente il primo.
+     * Il costo è lineare nel numero di ordini: pensato per essere usato con {@code assert}.
+     *
+     * @return true se il lato è coerente.
+     * @throws IllegalStateException se viene trovata un'incoerenza.
+     */
+    boolean checkInvariants() {
+        long quantity = 0;
+        int count = 0;
+        if (ladder != null) {
+            for (int index = 0; index < ladder.length; index++) {
+                boolean bit = (occupied[index >>> 6] & (1L << index)) != 0;
+                if (bit != (ladder[index] != null) || (bit && band.indexOf(ladder[index].getPrice()) != index)) {
+                    throw new IllegalStateException("Bitmap dei livelli incoerente alla posizione " + index);
+                }
+            }
+        }
+        Map<Integer, PriceLevel> allLevels = getLevels();
+        for (Map.Entry<Integer, PriceLevel> entry : allLevels.entrySet()) {
+            PriceLevel level = entry.getValue();
+            if (level.isEmpty() || level.getPrice() != entry.getKey()) {
+                throw new IllegalStateException("Livello " + entry.getKey() + " vuoto o con prezzo errato");
+            }
+            if (store == null) {
+                level.checkInvariants();
+            } else {
+                level.checkInvariants(store);
+            }
+            quantity += level.getTotalQuantity();
+            count += level.getOrderCount();
+        }
+        PriceLevel first = allLevels.isEmpty() ? null : allLevels.values().iterator().next();
+        if (bestLevel != first) {
+            throw new IllegalStateException("Livello migliore in cache non aggiornato");
+        }
+        if (quantity != totalQuantity || count != orderCount) {
+            throw new IllegalStateException("Totali del lato incoerenti: quantità " + quantity + "/" + totalQuantity
+                    + ", ordini " + count + "/" + orderCount);
+        }
+        return true;
+    }
+
+    /**
+     * Rimuove un ordine conservato off-heap e ne libera lo slot.
+     *
+     * @param order La vista dell'ordine, letta dalla memoria del lato.
+     * @return true se l'ordine era presente nel lato, false altrimenti.
+     */
+    private boolean removeStored(StoredOrder order) {
+        int slot = order.getSlot();
+        PriceLevel level = findLevel(order.getPrice());
+        if (level == null || slot < 0 || store.find(order.getOrderId()) != slot) {
+            return false;
+        }
+        totalQuantity -= store.getSize(slot);
+        orderCount--;
+        markChanged(level);
+        level.unlink(store, slot);
+        store.free(slot);
+        if (level.isEmpty()) {
+            removeLevel(level);
+        }
+        return true;
+    }
+
+    private void fillStored(StoredOrder order, PriceLevel level, int amount) {
+        int slot = order.getSlot();
+        level.reduce(store, slot, amount);
+        order.reduceSize(amount);
+        totalQuantity -= amount;
+        markChanged(level);
+        if (order.getSize() == 0) {
+            orderCount--;
+            level.unlink(store, slot);
+            store.free(slot);
+            if (level.isEmpty()) {
+                removeLevel(level);
+            }
+        }
+    }
+
+    //Registra un livello modificato, una sola volta per livello fino a clearChanges
+    private void markChanged(PriceLevel level) {
+        if (!trackChanges || level.changed) {
+            return;
+        }
+        level.changed = true;
+        if (changedCount == changedLevels.length) {
+            changedLevels = Arrays.copyOf(changedLevels, changedCount * 2);
+        }
+        changedLevels[changedCount++] = level;
+    }
+
+    private PriceLevel findLevel(int price) {
+        if (ladder != null) {
+            int index = band.indexOf(price);
+            if (index >= 0) {
+                return ladder[index];
+            }
+        }
+        return levels.get(price);
+    }
+
+    private void putLevel(PriceLevel level) {
+        int index = ladder == null ? -1 : band.indexOf(level.getPrice());
+        if (index >= 0) {
+            ladder[index] = level;
+            occupied[index >>> 6] |= 1L << index;
+        } else {
+            level.key = level.getPrice();
+            levels.put(level.key, level);
+        }
+    }
+
+    private void removeLevel(PriceLevel level) {
+        int index = ladder == null ? -1 : band.indexOf(level.getPrice());
+        if (index >= 0) {
+            ladder[index] = null;
+            occupied[index >>> 6] &= ~(1L << index);
+        } else {
+            levels.remove(level.key);
+        }
+        if (level == bestLevel) {
+            bestLevel = findBestLevel(index);
+        }
+    }
+
+    /**
+     * Cerca il nuovo livello migliore dopo la rimozione di quello in cache.
+     * Nell'array, i livelli migliori di quello rimosso sono vuoti: la ricerca riparte dalla sua posizione.
+     *
+     * @param removedIndex La posizione nell'array del livello rimosso, -1 se era nella mappa ordinata.
+     * @return Il livello migliore, oppure null se il lato è vuoto.
+     */
+    private PriceLevel findBestLevel(int removedIndex) {
+        //firstEntry creerebbe una copia dell'elemento: il livello si legge con la chiave già presente nella mappa
+        PriceLevel best = levels.isEmpty() ? null : levels.get(levels.firstKey());
+        if (ladder != null) {
+            int index;
+            if (bid) {
+                index = previousOccupied(removedIndex < 0 ? ladder.length - 1 : removedIndex);
+            } else {
+                index = nextOccupied(removedIndex < 0 ? 0 : removedIndex);
+            }
+            if (index >= 0 && (best == null || isBetter(ladder[index].getPrice(), best.getPrice()))) {
+                best = ladder[index];
+            }
+        }
+        return best;
+    }
+
+    //Prima posizione non vuota dell'array a partire da from (incluso) verso i prezzi più alti, -1 se non esiste
+    private int nextOccupied(int from) {
+        int word = from >>> 6;
+        if (word >= occupied.length) {
+            return -1;
+        }
+        long bits = occupied[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == occupied.length) {
+                return -1;
+            }
+            bits = occupied[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    //Prima posizione non vuota dell'array a partire da from (incluso) verso i prezzi più bassi, -1 se non esiste
+    private int previousOccupied(int from) {
+        int word = from >>> 6;
+        long bits = occupied[word] & (-1L >>> (63 - (from & 63)));
+        while (bits == 0) {
+            if (--word < 0) {
+                return -1;
+            }
+            bits = occupied[word];
+        }
+        return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+    }
+
+    private boolean isBetter(int price, int other) {
+        return bid ? price > other : price < other;
+    }
+}
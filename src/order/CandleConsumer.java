@@ -0,0 +1,19 @@
+package order;
+
+/**
+ * Riceve le candele calcolate sugli scambi dello storico, come valori primitivi.
+ */
+@FunctionalInterface
+public interface CandleConsumer {
+    /**
+     * Elabora una candela.
+     *
+     * @param startTimestamp Inizio dell'intervallo della candela in secondi (UTC).
+     * @param openPrice      Prezzo del primo scambio dell'intervallo.
+     * @param closePrice     Prezzo dell'ultimo scambio dell'intervallo.
+     * @param maxPrice       Prezzo massimo dell'intervallo.
+     * @param minPrice       Prezzo minimo dell'intervallo.
+     * @param volume         Quantità totale scambiata nell'intervallo.
+     */
+    void accept(long startTimestamp, int openPrice, int closePrice, int maxPrice, int minPrice, long volume);
+}
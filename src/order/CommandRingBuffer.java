@@ -0,0 +1,119 @@
+package order;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ring buffer limitato e preallocato per i comandi del motore di matching.
+ * Supporta più produttori (i thread della pool che gestiscono i client) e un unico consumatore
+ * (il thread del motore). I produttori riservano uno slot con un contatore atomico e lo pubblicano
+ * scrivendo la sequenza nello slot; il consumatore legge gli slot in ordine senza alcun lock.
+ */
+public class CommandRingBuffer {
+    private static final long WAIT_NANOS = 1_000_000L;
+
+    private final OrderCommand[] slots;
+    private final int mask;
+    private final AtomicLong claimSequence = new AtomicLong(0);
+    private volatile long consumerSequence = 0;
+    private volatile Thread consumerThread;
+    private volatile boolean consumerWaiting;
+
+    /**
+     * Crea il ring buffer preallocando tutti gli slot.
+     *
+     * @param capacity La capacità richiesta, arrotondata alla potenza di due successiva.
+     */
+    public CommandRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new OrderCommand[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new OrderCommand();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Riserva il prossimo slot libero. Se il buffer è pieno il produttore attende
+     * che il consumatore liberi spazio (backpressure verso i thread della pool).
+     *
+     * @return La sequenza riservata; lo slot si ottiene con {@link #get(long)} e va pubblicato con {@link #publish(OrderCommand, long)}.
+     */
+    public long claim() {
+        long sequence = claimSequence.getAndIncrement();
+        while (sequence - consumerSequence >= slots.length) {
+            LockSupport.parkNanos(WAIT_NANOS);
+        }
+        return sequence;
+    }
+
+    /**
+     * Restituisce lo slot associato a una sequenza riservata.
+     *
+     * @param sequence La sequenza ottenuta da {@link #claim()}.
+     * @return Lo slot corrispondente.
+     */
+    public OrderCommand get(long sequence) {
+        return slots[(int) (sequence & mask)];
+    }
+
+    /**
+     * Rende visibile al consumatore lo slot compilato e lo risveglia se è in attesa.
+     *
+     * @param command  Lo slot compilato.
+     * @param sequence La sequenza riservata per lo slot.
+     */
+    public void publish(OrderCommand command, long sequence) {
+        command.publishedSequence = sequence;
+        if (consumerWaiting) {
+            Thread consumer = consumerThread;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+        }
+    }
+
+    /**
+     * Attende il prossimo comando pubblicato. Deve essere invocato solo dal thread consumatore.
+     *
+     * @param timeoutNanos Il tempo massimo di attesa.
+     * @return Il prossimo comando, oppure null se il tempo di attesa è scaduto.
+     */
+    public OrderCommand next(long timeoutNanos) {
+        long sequence = consumerSequence;
+        OrderCommand command = slots[(int) (sequence & mask)];
+        if (command.publishedSequence == sequence) {
+            return command;
+        }
+        consumerThread = Thread.currentThread();
+        consumerWaiting = true;
+        try {
+            if (command.publishedSequence != sequence) {
+                LockSupport.parkNanos(timeoutNanos);
+            }
+        } finally {
+            consumerWaiting = false;
+        }
+        return command.publishedSequence == sequence ? command : null;
+    }
+
+    /**
+     * Libera lo slot appena elaborato rendendolo disponibile ai produttori.
+     * Deve essere invocato solo dal thread consumatore.
+     *
+     * @param command Lo slot elaborato.
+     */
+    public void release(OrderCommand command) {
+        command.clear();
+        consumerSequence = consumerSequence + 1;
+    }
+
+    /**
+     * Restituisce la capacità effettiva del buffer.
+     *
+     * @return Il numero di slot.
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+}
@@ -1,13 +1,16 @@
 package order;
 
 import java.time.LocalDate;
+import java.time.LocalTime;
 
 public class DayPriceData {
     private LocalDate date;
+    private LocalTime time;
     private int openPrice;
     private int closePrice;
     private int maxPrice;
     private int minPrice;
+    private long volume;
 
     public DayPriceData(LocalDate date, int openPrice, int closePrice, int maxPrice, int minPrice) {
         this.date = date;
@@ -17,6 +20,23 @@ public class DayPriceData {
         this.minPrice = minPrice;
     }
 
+    /**
+     * Costruisce una candela di durata inferiore al giorno, che inizia all'ora indicata.
+     *
+     * @param date       La data della candela.
+     * @param time       L'ora di inizio della candela (UTC).
+     * @param openPrice  Il prezzo di apertura.
+     * @param closePrice Il prezzo di chiusura.
+     * @param maxPrice   Il prezzo massimo.
+     * @param minPrice   Il prezzo minimo.
+     * @param volume     La quantità totale scambiata.
+     */
+    public DayPriceData(LocalDate date, LocalTime time, int openPrice, int closePrice, int maxPrice, int minPrice, long volume) {
+        this(date, openPrice, closePrice, maxPrice, minPrice);
+        this.time = time;
+        this.volume = volume;
+    }
+
     /**
      * Restituisce la data corrispondente ai dati dei prezzi giornalieri.
      *
@@ -26,6 +46,24 @@ public class DayPriceData {
         return date;
     }
 
+    /**
+     * Restituisce l'ora di inizio di una candela di durata inferiore al giorno.
+     *
+     * @return L'ora di inizio, oppure null per le candele giornaliere.
+     */
+    public LocalTime getTime() {
+        return time;
+    }
+
+    /**
+     * Restituisce la quantità scambiata nell'intervallo della candela.
+     *
+     * @return Il volume, 0 per le candele giornaliere.
+     */
+    public long getVolume() {
+        return volume;
+    }
+
     /**
      * Restituisce il prezzo di apertura del giorno.
      *
@@ -0,0 +1,116 @@
+package order;
+
+/**
+ * Vista immutabile dei primi livelli di prezzo di un book (profondità di livello 2), con quantità aggregata
+ * e numero di ordini per livello. La vista è associata alla versione del book da cui è stata copiata:
+ * finché il book non cambia, la stessa istanza viene condivisa da tutti i lettori.
+ */
+public class DepthSnapshot {
+    private final String instrument;
+    private final long version;
+    private final long sequence;
+    private final int lastTradePrice;
+    private final int bidLevels;
+    private final int[] bidPrices;
+    private final long[] bidQuantities;
+    private final int[] bidOrders;
+    private final int askLevels;
+    private final int[] askPrices;
+    private final long[] askQuantities;
+    private final int[] askOrders;
+
+    /**
+     * Copia i primi livelli dei due lati di un book. Da invocare solo da chi detiene il lock del book.
+     *
+     * @param instrument     Il simbolo dello strumento.
+     * @param version        La versione del book al momento della copia.
+     * @param sequence       L'ultimo numero di sequenza pubblicato sul canale dei dati di mercato.
+     * @param lastTradePrice Il prezzo dell'ultimo scambio, 0 se non ci sono ancora stati scambi.
+     * @param bids           Il lato degli acquisti.
+     * @param asks           Il lato delle vendite.
+     * @param maxLevels      Il numero massimo di livelli copiati per lato.
+     */
+    DepthSnapshot(String instrument, long version, long sequence, int lastTradePrice, BookSide bids, BookSide asks, int maxLevels) {
+        this.instrument = instrument;
+        this.version = version;
+        this.sequence = sequence;
+        this.lastTradePrice = lastTradePrice;
+        bidPrices = new int[maxLevels];
+        bidQuantities = new long[maxLevels];
+        bidOrders = new int[maxLevels];
+        bidLevels = bids.copyTop(maxLevels, bidPrices, bidQuantities, bidOrders);
+        askPrices = new int[maxLevels];
+        askQuantities = new long[maxLevels];
+        askOrders = new int[maxLevels];
+        askLevels = asks.copyTop(maxLevels, askPrices, askQuantities, askOrders);
+    }
+
+    public String getInstrument() {
+        return instrument;
+    }
+
+    /**
+     * Restituisce la versione del book da cui è stata copiata la vista.
+     *
+     * @return La versione del book.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Restituisce il numero di sequenza del canale dei dati di mercato a cui corrisponde la vista:
+     * un client riallinea il proprio book locale con la vista e applica solo i messaggi successivi.
+     *
+     * @return L'ultimo numero di sequenza pubblicato, 0 se il canale è disattivato o non ha ancora pubblicato eventi.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getLastTradePrice() {
+        return lastTradePrice;
+    }
+
+    /**
+     * Restituisce il numero di livelli presenti sul lato degli acquisti.
+     *
+     * @return I livelli copiati, dal prezzo più alto.
+     */
+    public int getBidLevels() {
+        return bidLevels;
+    }
+
+    public int getBidPrice(int level) {
+        return bidPrices[level];
+    }
+
+    public long getBidQuantity(int level) {
+        return bidQuantities[level];
+    }
+
+    public int getBidOrders(int level) {
+        return bidOrders[level];
+    }
+
+    /**
+     * Restituisce il numero di livelli presenti sul lato delle vendite.
+     *
+     * @return I livelli copiati, dal prezzo più basso.
+     */
+    public int getAskLevels() {
+        return askLevels;
+    }
+
+    public int getAskPrice(int level) {
+        return askPrices[level];
+    }
+
+    public long getAskQuantity(int level) {
+        return askQuantities[level];
+    }
+
+    public int getAskOrders(int level) {
+        return askOrders[level];
+    }
+}
@@ -0,0 +1,141 @@
+package order;
+
+import common.Response;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Insieme degli strumenti negoziabili, ciascuno con il proprio {@link OrderBook}.
+ * Se il motore di matching è abilitato, ogni book ha un proprio {@link MatchingEngine} con un thread dedicato:
+ * strumenti indipendenti non condividono né lock né thread e scalano con il numero di core.
+ * Gli ID degli ordini sono generati da un contatore condiviso, quindi sono unici tra tutti gli strumenti
+ * e una cancellazione può essere instradata al book corretto a partire dal solo ID.
+ */
+public class Exchange {
+    private final Map<String, OrderBook> books;
+    private final Map<String, MatchingEngine> engines = new LinkedHashMap<>();
+    private final String defaultInstrument;
+
+    /**
+     * Crea l'insieme degli strumenti.
+     *
+     * @param books          I book degli strumenti, nell'ordine di configurazione; il primo è lo strumento predefinito.
+     * @param engineEnabled  true per assegnare a ogni book un motore di matching a scrittore singolo.
+     * @param ringBufferSize Dimensione del ring buffer dei comandi di ogni motore.
+     */
+    public Exchange(Map<String, OrderBook> books, boolean engineEnabled, int ringBufferSize) {
+        if (books.isEmpty()) {
+            throw new IllegalArgumentException("Nessuno strumento configurato");
+        }
+        this.books = Collections.unmodifiableMap(new LinkedHashMap<>(books));
+        this.defaultInstrument = books.keySet().iterator().next();
+        if (engineEnabled) {
+            for (Map.Entry<String, OrderBook> entry : books.entrySet()) {
+                engines.put(entry.getKey(), new MatchingEngine(entry.getValue(), ringBufferSize));
+            }
+        }
+    }
+
+    /**
+     * Avvia i thread dei motori di matching.
+     */
+    public void start() {
+        for (MatchingEngine engine : engines.values()) {
+            engine.start();
+        }
+    }
+
+    /**
+     * Restituisce il book di uno strumento.
+     *
+     * @param instrument Il simbolo dello strumento, null per lo strumento predefinito.
+     * @return Il book dello strumento, oppure null se lo strumento non esiste.
+     */
+    public OrderBook getBook(String instrument) {
+        return books.get(instrument == null ? defaultInstrument : instrument);
+    }
+
+    /**
+     * Restituisce il motore di matching di uno strumento.
+     *
+     * @param instrument Il simbolo dello strumento, null per lo strumento predefinito.
+     * @return Il motore dello strumento, oppure null se il motore non è abilitato o lo strumento non esiste.
+     */
+    public MatchingEngine getEngine(String instrument) {
+        return engines.get(instrument == null ? defaultInstrument : instrument);
+    }
+
+    /**
+     * Individua il book che contiene un ordine attivo.
+     * La ricerca non acquisisce lock: gli ordini attivi di ogni book sono in una mappa a lettura senza lock.
+     *
+     * @param orderId L'ID dell'ordine.
+     * @return Il simbolo dello strumento dell'ordine, oppure null se l'ordine non è attivo in nessun book.
+     */
+    public String findInstrument(long orderId) {
+        for (Map.Entry<String, OrderBook> entry : books.entrySet()) {
+            if (entry.getValue().hasActiveOrder(orderId)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cancella gli ordini in attesa di un utente in tutti i book.
+     * Le cancellazioni vengono pubblicate su tutti i motori di matching prima di attenderne l'esito,
+     * così i book degli strumenti vengono ripuliti in parallelo.
+     *
+     * @param username L'utente di cui cancellare gli ordini.
+     * @return Il numero totale di ordini cancellati.
+     */
+    public int cancelAllOrders(String username) {
+        List<CompletableFuture<Response>> pending = new ArrayList<>();
+        int cancelled = 0;
+        for (Map.Entry<String, OrderBook> entry : books.entrySet()) {
+            MatchingEngine engine = engines.get(entry.getKey());
+            if (engine != null) {
+                CompletableFuture<Response> result = new CompletableFuture<>();
+                engine.submitCancelAll(username, result::complete);
+                pending.add(result);
+            } else {
+                cancelled += entry.getValue().cancelAllOrders(username);
+            }
+        }
+        for (CompletableFuture<Response> result : pending) {
+            Response response = result.join();
+            if (response.getResponseCode() == 100) {
+                cancelled += (int) response.getOrderId();
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Restituisce i simboli degli strumenti configurati.
+     *
+     * @return I simboli, nell'ordine di configurazione.
+     */
+    public Set<String> getInstruments() {
+        return books.keySet();
+    }
+
+    public String getDefaultInstrument() {
+        return defaultInstrument;
+    }
+
+    /**
+     * Arresta i motori di matching di tutti gli strumenti.
+     */
+    public void shutdown() {
+        for (MatchingEngine engine : engines.values()) {
+            engine.shutdown();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package order;
+
+/**
+ * Evento di esecuzione (fill) prodotto dal matching.
+ * Contiene i soli dati necessari a notificare i client, così la costruzione del messaggio
+ * e l'invio avvengono fuori dalla sezione critica del book.
+ * Gli eventi sono preallocati e riutilizzati dal dispatcher delle notifiche: il matching ne compila uno libero
+ * e il thread che lo invia lo restituisce al pool, quindi la pubblicazione di un fill non crea oggetti.
+ */
+public class FillEvent {
+    /**
+     * Notifica privata al proprietario dell'ordine eseguito.
+     */
+    public static final byte PRIVATE_FILL = 0;
+    /**
+     * Informazione pubblica dello scambio, da diffondere in multicast.
+     */
+    public static final byte PUBLIC_TRADE = 1;
+    /**
+     * Soglia di prezzo raggiunta, da diffondere in multicast.
+     */
+    public static final byte THRESHOLD = 2;
+    /**
+     * Notifica privata al proprietario di un ordine scartato senza esecuzione (stop attivato senza liquidità).
+     */
+    public static final byte ORDER_REJECTED = 3;
+
+    private byte kind;
+    private byte side;
+    private int size;
+    private int price;
+    private long orderId;
+    private int userIndex;
+    private String orderType;
+    private String instrument;
+
+    /**
+     * Compila l'evento riutilizzabile.
+     *
+     * @param kind       Il tipo di evento ({@link #PRIVATE_FILL}, {@link #PUBLIC_TRADE}, {@link #THRESHOLD} o {@link #ORDER_REJECTED}).
+     * @param instrument Il simbolo dello strumento scambiato.
+     * @param orderType  Il tipo di ordine (es. "market", "limit", "stop").
+     * @param side       Il lato dell'ordine eseguito.
+     * @param size       La quantità eseguita.
+     * @param price      Il prezzo di esecuzione, o la soglia raggiunta per {@link #THRESHOLD}.
+     * @param orderId    L'ID dell'ordine eseguito.
+     * @param userIndex  L'indice dell'utente proprietario, -1 per gli eventi pubblici.
+     */
+    public void set(byte kind, String instrument, String orderType, byte side, int size, int price, long orderId, int userIndex) {
+        this.kind = kind;
+        this.instrument = instrument;
+        this.orderType = orderType;
+        this.side = side;
+        this.size = size;
+        this.price = price;
+        this.orderId = orderId;
+        this.userIndex = userIndex;
+    }
+
+    public byte getKind() {
+        return kind;
+    }
+
+    public String getType() {
+        return Order.sideName(side);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public long getOrderId() {
+        return orderId;
+    }
+
+    public String getOrderType() {
+        return orderType;
+    }
+
+    public String getInstrument() {
+        return instrument;
+    }
+
+    /**
+     * Restituisce l'indice dell'utente proprietario dell'ordine eseguito.
+     *
+     * @return L'indice dell'utente, -1 per le informazioni pubbliche dello scambio.
+     */
+    public int getUserIndex() {
+        return userIndex;
+    }
+}
@@ -0,0 +1,106 @@
+package order;
+
+import common.Response;
+import server.MarketDataFeed;
+import server.NotificationDispatcher;
+import server.NotificationSender;
+import user.UserDatabase;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Conta i byte allocati dal thread del matching durante l'esecuzione degli ordini.
+ * Ogni giro inserisce ordini ask a prezzi già presenti nel book e li esegue con ordini di mercato bid:
+ * una volta con un'esecuzione per ordine di mercato e una volta con {@value #FILLS_PER_ORDER} esecuzioni per ordine.
+ * La differenza tra i due giri, divisa per le esecuzioni aggiuntive, è l'allocazione per singolo fill
+ * (storico, notifiche private, canale dei dati di mercato), che deve essere zero;
+ * deve essere zero anche l'allocazione per ordine di mercato con una sola esecuzione (risposta, livelli svuotati).
+ * I dati di mercato vengono inviati in unicast a una porta locale. Gli ordini in ingresso e le relative risposte
+ * vengono creati prima della misura, come farebbero i thread che gestiscono i client.
+ * <p>
+ * Esecuzione: {@code java -cp out:lib/gson-2.8.9.jar order.MatchingAllocationTest}
+ */
+public class MatchingAllocationTest {
+    private static final int MARKET_ORDERS = 200;
+    private static final int FILLS_PER_ORDER = 20;
+    private static final int LEVELS = 10;
+    private static final int BASE_PRICE = 1_000;
+    private static final int ROUNDS = 60;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("cross-allocation");
+        UserDatabase userDatabase = new UserDatabase(directory.resolve("users.json").toString());
+        TradeJournal tradeJournal = new TradeJournal(directory.resolve("trades").toString(), List.of(),
+                TradeJournal.Durability.NONE, 4096, 1000, 1 << 18, false);
+        NotificationDispatcher dispatcher = new NotificationDispatcher(userDatabase, new NotificationSender(0, 1), 1 << 18, 1);
+        MarketDataFeed marketDataFeed = new MarketDataFeed("127.0.0.1", 6790, 1 << 16);
+        OrderBook orderBook = new OrderBook("BTC", userDatabase, tradeJournal, dispatcher, new AtomicLong(1), 0, null, marketDataFeed);
+
+        //Un ordine ask di base per livello tiene i livelli sempre presenti nel book
+        for (int level = 0; level < LEVELS; level++) {
+            orderBook.insertLimitOrder(new LimitOrder(Order.ASK, Integer.MAX_VALUE / 2, BASE_PRICE + LEVELS + level, 0, -1), new Response());
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long singleFill = 0;
+        long multipleFills = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean measured = round >= ROUNDS / 2;
+            long single = runRound(orderBook, threads, 1);
+            long multiple = runRound(orderBook, threads, FILLS_PER_ORDER);
+            if (measured) {
+                singleFill += single;
+                multipleFills += multiple;
+            }
+            //attendo che i thread di notifica restituiscano gli eventi al pool, per non scartarne
+            while (dispatcher.getQueuedEvents() > 0 || marketDataFeed.getQueuedEvents() > 0) {
+                Thread.sleep(10);
+            }
+        }
+        int measuredRounds = ROUNDS - ROUNDS / 2;
+        double perOrderSingle = (double) singleFill / (measuredRounds * MARKET_ORDERS);
+        double perOrderMultiple = (double) multipleFills / (measuredRounds * MARKET_ORDERS);
+        double perFill = (perOrderMultiple - perOrderSingle) / (FILLS_PER_ORDER - 1);
+        System.out.printf("Byte allocati per ordine di mercato con 1 esecuzione: %.1f%n", perOrderSingle);
+        System.out.printf("Byte allocati per ordine di mercato con %d esecuzioni: %.1f%n", FILLS_PER_ORDER, perOrderMultiple);
+        System.out.printf("Byte allocati per singola esecuzione: %.2f%n", perFill);
+        boolean passed = perOrderSingle < 1 && perFill < 1;
+        System.out.println(passed ? "OK: ordini ed esecuzioni non allocano memoria" : "ERRORE: ordini o esecuzioni allocano memoria");
+
+        tradeJournal.close();
+        dispatcher.shutDown();
+        marketDataFeed.shutDown();
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Inserisce ordini ask da un'unità sui livelli esistenti e li esegue con ordini di mercato bid.
+     *
+     * @param orderBook      Il book su cui operare.
+     * @param threads        Il bean da cui leggere i byte allocati dal thread corrente.
+     * @param fillsPerOrder  Il numero di esecuzioni di ciascun ordine di mercato.
+     * @return I byte allocati dal thread corrente durante l'esecuzione degli ordini di mercato.
+     */
+    private static long runRound(OrderBook orderBook, com.sun.management.ThreadMXBean threads, int fillsPerOrder) {
+        int restingOrders = MARKET_ORDERS * fillsPerOrder;
+        //Gli ordini ask occupano un livello inferiore a quelli di base, che quindi non vengono toccati
+        for (int i = 0; i < restingOrders; i++) {
+            orderBook.insertLimitOrder(new LimitOrder(Order.ASK, 1, BASE_PRICE + i % LEVELS, 0, -1), new Response());
+        }
+        MarketOrder[] marketOrders = new MarketOrder[MARKET_ORDERS];
+        Response[] results = new Response[MARKET_ORDERS];
+        for (int i = 0; i < MARKET_ORDERS; i++) {
+            marketOrders[i] = new MarketOrder(Order.BID, fillsPerOrder, 0, 0, -1);
+            results[i] = new Response();
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MARKET_ORDERS; i++) {
+            orderBook.insertMarketOrder(marketOrders[i], results[i]);
+        }
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+}
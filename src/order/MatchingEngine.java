@@ -0,0 +1,194 @@
+package order;
+
+import common.Response;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Motore di matching a scrittore singolo.
+ * I thread che gestiscono i client si limitano a decodificare e validare le richieste e a pubblicarle
+ * nel {@link CommandRingBuffer}; un unico thread dedicato consuma i comandi in ordine, li applica
+ * all'{@link OrderBook} e restituisce la {@link Response} tramite la callback di completamento.
+ * In questo modo il book non è mai conteso tra più thread: i metodi sincronizzati dell'{@link OrderBook}
+ * acquisiscono comunque il monitor, senza contesa salvo le letture degli altri thread.
+ * Il motore è opzionale e disattivato di default (chiave {@code server.matchingEngine}).
+ */
+public class MatchingEngine implements Runnable {
+    private static final long IDLE_WAIT_NANOS = 100_000_000L;
+
+    private final OrderBook orderBook;
+    private final CommandRingBuffer ringBuffer;
+    private final Thread engineThread;
+    private volatile boolean running = true;
+
+    /**
+     * Costruttore del motore di matching.
+     *
+     * @param orderBook      L'order book gestito in modo esclusivo dal motore.
+     * @param ringBufferSize La capacità del ring buffer dei comandi in ingresso.
+     */
+    public MatchingEngine(OrderBook orderBook, int ringBufferSize) {
+        this.orderBook = orderBook;
+        this.ringBuffer = new CommandRingBuffer(ringBufferSize);
+        //Un thread per book: gli strumenti indipendenti non condividono né lock né thread
+        this.engineThread = new Thread(this, "matching-engine-" + orderBook.getInstrument());
+    }
+
+    /**
+     * Avvia il thread del motore.
+     */
+    public void start() {
+        engineThread.start();
+    }
+
+    /**
+     * Pubblica l'inserimento di un ordine.
+     *
+     * @param order    L'ordine da inserire.
+     * @param result   La risposta, creata dal chiamante, che il motore compila con l'esito senza creare oggetti.
+     * @param callback La callback invocata con l'esito dell'operazione.
+     */
+    public void submitOrder(Order order, Response result, Consumer<Response> callback) {
+        long sequence = ringBuffer.claim();
+        OrderCommand command = ringBuffer.get(sequence);
+        command.setAddOrder(order, result, callback);
+        ringBuffer.publish(command, sequence);
+    }
+
+    /**
+     * Pubblica l'inserimento di un batch di ordini, applicati dal motore uno dopo l'altro senza interruzioni.
+     *
+     * @param orders   Gli ordini da inserire.
+     * @param callback La callback invocata con la risposta che contiene l'esito di ogni ordine.
+     */
+    public void submitOrderBatch(List<Order> orders, Consumer<Response> callback) {
+        long sequence = ringBuffer.claim();
+        OrderCommand command = ringBuffer.get(sequence);
+        command.setAddOrderBatch(orders, callback);
+        ringBuffer.publish(command, sequence);
+    }
+
+    /**
+     * Pubblica la cancellazione di un ordine.
+     *
+     * @param orderId  L'ID dell'ordine da cancellare.
+     * @param username L'utente che richiede la cancellazione.
+     * @param callback La callback invocata con l'esito dell'operazione.
+     */
+    public void submitCancel(long orderId, String username, Consumer<Response> callback) {
+        long sequence = ringBuffer.claim();
+        OrderCommand command = ringBuffer.get(sequence);
+        command.setCancelOrder(orderId, username, callback);
+        ringBuffer.publish(command, sequence);
+    }
+
+    /**
+     * Accoda la cancellazione di tutti gli ordini in attesa di un utente.
+     * La risposta riporta nel campo orderId il numero di ordini cancellati.
+     *
+     * @param username L'utente di cui cancellare gli ordini.
+     * @param callback La callback invocata con l'esito dell'operazione.
+     */
+    public void submitCancelAll(String username, Consumer<Response> callback) {
+        long sequence = ringBuffer.claim();
+        OrderCommand command = ringBuffer.get(sequence);
+        command.setCancelAllOrders(username, callback);
+        ringBuffer.publish(command, sequence);
+    }
+
+    /**
+     * Accoda la modifica di un ordine in attesa.
+     *
+     * @param orderId  L'ID dell'ordine da modificare.
+     * @param size     La nuova quantità, 0 per lasciarla invariata.
+     * @param price    Il nuovo prezzo, 0 per lasciarlo invariato.
+     * @param username L'utente che richiede la modifica.
+     * @param callback La callback invocata con l'esito dell'operazione.
+     */
+    public void submitModify(long orderId, int size, int price, String username, Consumer<Response> callback) {
+        long sequence = ringBuffer.claim();
+        OrderCommand command = ringBuffer.get(sequence);
+        command.setModifyOrder(orderId, size, price, username, callback);
+        ringBuffer.publish(command, sequence);
+    }
+
+    /**
+     * Accoda la sostituzione della quotazione a due lati di un utente.
+     *
+     * @param bidSize  La quantità in acquisto, 0 per ritirare il bid.
+     * @param bidPrice Il prezzo del bid.
+     * @param askSize  La quantità in vendita, 0 per ritirare l'ask.
+     * @param askPrice Il prezzo dell'ask.
+     * @param username L'utente che quota.
+     * @param callback La callback invocata con l'esito dell'operazione.
+     */
+    public void submitQuote(int bidSize, int bidPrice, int askSize, int askPrice, String username, Consumer<Response> callback) {
+        long sequence = ringBuffer.claim();
+        OrderCommand command = ringBuffer.get(sequence);
+        command.setQuote(bidSize, bidPrice, askSize, askPrice, username, callback);
+        ringBuffer.publish(command, sequence);
+    }
+
+    /**
+     * Ciclo del thread del motore: consuma i comandi in ordine di pubblicazione finché non viene arrestato.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            OrderCommand command = ringBuffer.next(IDLE_WAIT_NANOS);
+            if (command == null) {
+                continue;
+            }
+            Consumer<Response> callback = command.getCallback();
+            Response response;
+            try {
+                response = process(command);
+            } catch (RuntimeException e) {
+                System.err.println("Errore nel motore di matching: " + e.getMessage());
+                response = new Response(103, "internal matching error", 0, null);
+            }
+            ringBuffer.release(command);
+            if (callback != null) {
+                callback.accept(response);
+            }
+        }
+    }
+
+    /**
+     * Applica un comando all'order book.
+     *
+     * @param command Il comando da eseguire.
+     * @return La risposta prodotta dall'order book.
+     */
+    private Response process(OrderCommand command) {
+        switch (command.getType()) {
+            case ADD_ORDER:
+                return orderBook.addOrder(command.getOrder(), command.getResult());
+            case ADD_ORDER_BATCH:
+                return orderBook.addOrderBatch(command.getOrders());
+            case CANCEL_ORDER:
+                return orderBook.cancelOrder(command.getOrderId(), command.getUsername());
+            case MODIFY_ORDER:
+                return orderBook.modifyOrder(command.getOrderId(), command.getSize(), command.getPrice(), command.getUsername());
+            case CANCEL_ALL_ORDERS:
+                return new Response(100, "OK", orderBook.cancelAllOrders(command.getUsername()), null);
+            case QUOTE:
+                return orderBook.quote(command.getSize(), command.getPrice(), command.getAskSize(), command.getAskPrice(), command.getUsername());
+            default:
+                return new Response(103, "Unknown command: " + command.getType(), 0, null);
+        }
+    }
+
+    /**
+     * Arresta il thread del motore attendendone la terminazione.
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            engineThread.join(5000);
+        } catch (InterruptedException e) {
+            System.err.println("Errore nell'arresto del motore di matching: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package order;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Memoria off-heap per gli ordini in attesa di un book.
+ * Ogni ordine occupa un record di {@value #RECORD_SIZE} byte in un {@link ByteBuffer} diretto, identificato dal suo slot;
+ * i collegamenti della coda FIFO del livello di prezzo sono indici di slot, e anche l'indice per ID dell'ordine
+ * (tabella a indirizzamento aperto di slot) è fuori dall'heap. Ogni record è anche collegato alla lista degli
+ * ordini in attesa del suo utente, di cui sull'heap resta solo la testa per indice utente, insieme ai livelli di prezzo:
+ * quindi l'occupazione dell'heap e i tempi del garbage collector non dipendono dalla profondità del book.
+ * <p>
+ * La capacità è fissata alla creazione: quando tutti gli slot sono occupati il book rifiuta i nuovi ordini in attesa.
+ * Le modifiche avvengono solo sotto il lock del book (o dal thread del motore di matching); la ricerca per ID
+ * da altri thread ({@link #contains(long)}) non acquisisce lock e usa un contatore di versione come {@link ActiveOrderMap}.
+ */
+class OffHeapOrderStore {
+    static final int RECORD_SIZE = 48;
+    static final int MAX_CAPACITY = Integer.MAX_VALUE / RECORD_SIZE;
+
+    //Posizioni dei campi all'interno del record
+    private static final int ORDER_ID = 0;
+    private static final int SEQUENCE = 8;
+    private static final int SIZE = 16;
+    private static final int PRICE = 20;
+    private static final int USER_INDEX = 24;
+    private static final int PREV = 28;
+    private static final int NEXT = 32; //per gli slot liberi è il collegamento della lista libera
+    private static final int SIDE = 36;
+    private static final int ORDER_TYPE = 37;
+    private static final int USER_PREV = 40;
+    private static final int USER_NEXT = 44;
+
+    private final ByteBuffer records;
+    private final ByteBuffer index; //slot + 1 per ogni posizione della tabella, 0 se la posizione è libera
+    private final int capacity;
+    private final int indexMask;
+    private int freeSlot; //testa della lista degli slot liberi, -1 se la memoria è piena
+    private int usedSlots;
+    private int[] userHeads = new int[16]; //primo slot degli ordini di ogni utente, -1 se l'utente non ha ordini in attesa
+    private volatile long version;
+
+    /**
+     * Alloca la memoria off-heap per un numero massimo di ordini in attesa.
+     *
+     * @param capacity Il numero massimo di ordini in attesa (stop inclusi) contemporaneamente nel book.
+     * @throws IllegalArgumentException se la capacità non è positiva o supera {@link #MAX_CAPACITY}.
+     */
+    OffHeapOrderStore(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacità off-heap non valida: " + capacity + " (massimo " + MAX_CAPACITY + ")");
+        }
+        this.capacity = capacity;
+        //la tabella ha almeno il doppio delle posizioni degli slot, così le sequenze di ricerca restano brevi
+        int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.indexMask = indexSize - 1;
+        this.records = ByteBuffer.allocateDirect(capacity * RECORD_SIZE).order(ByteOrder.nativeOrder());
+        this.index = ByteBuffer.allocateDirect(indexSize * 4).order(ByteOrder.nativeOrder());
+        for (int slot = 0; slot < capacity; slot++) {
+            setNext(slot, slot + 1 < capacity ? slot + 1 : -1);
+        }
+        freeSlot = 0;
+        Arrays.fill(userHeads, -1);
+    }
+
+    /**
+     * Copia un ordine accettato dal book in uno slot libero e lo registra nell'indice per ID.
+     *
+     * @param order L'ordine, con ID e numero di sequenza già assegnati.
+     * @return Lo slot assegnato, oppure -1 se la memoria è piena.
+     */
+    int allocate(Order order) {
+        int slot = freeSlot;
+        if (slot < 0) {
+            return -1;
+        }
+        freeSlot = getNext(slot);
+        int base = slot * RECORD_SIZE;
+        records.putLong(base + ORDER_ID, order.getOrderId());
+        records.putLong(base + SEQUENCE, order.getSequence());
+        records.putInt(base + SIZE, order.getSize());
+        records.putInt(base + PRICE, order.getPrice());
+        records.putInt(base + USER_INDEX, order.getUserIndex());
+        records.putInt(base + PREV, -1);
+        records.putInt(base + NEXT, -1);
+        records.put(base + SIDE, order.getSide());
+        records.put(base + ORDER_TYPE, order.getOrderType());
+        usedSlots++;
+        linkUser(slot, order.getUserIndex());
+
+        beginWrite();
+        int position = position(order.getOrderId());
+        while (index.getInt(position * 4) != 0) {
+            position = (position + 1) & indexMask;
+        }
+        index.putInt(position * 4, slot + 1);
+        version++;
+        return slot;
+    }
+
+    /**
+     * Rimuove un ordine dall'indice e restituisce il suo slot alla lista libera.
+     * Le voci successive dell'indice vengono spostate indietro, così la tabella non accumula marcatori di cancellazione.
+     *
+     * @param slot Lo slot dell'ordine.
+     */
+    void free(int slot) {
+        long orderId = getOrderId(slot);
+        int position = position(orderId);
+        while (index.getInt(position * 4) != slot + 1) {
+            position = (position + 1) & indexMask;
+        }
+        beginWrite();
+        int hole = position;
+        int next = (hole + 1) & indexMask;
+        int entry;
+        while ((entry = index.getInt(next * 4)) != 0) {
+            int home = position(getOrderId(entry - 1));
+            if (((next - home) & indexMask) >= ((next - hole) & indexMask)) {
+                index.putInt(hole * 4, entry);
+                hole = next;
+            }
+            next = (next + 1) & indexMask;
+        }
+        index.putInt(hole * 4, 0);
+        version++;
+
+        unlinkUser(slot);
+        setNext(slot, freeSlot);
+        freeSlot = slot;
+        usedSlots--;
+    }
+
+    /**
+     * Cerca lo slot di un ordine. Da invocare solo da chi modifica il book.
+     *
+     * @param orderId L'ID dell'ordine.
+     * @return Lo slot dell'ordine, oppure -1 se l'ordine non è in memoria.
+     */
+    int find(long orderId) {
+        int position = position(orderId);
+        int entry;
+        while ((entry = index.getInt(position * 4)) != 0) {
+            if (getOrderId(entry - 1) == orderId) {
+                return entry - 1;
+            }
+            position = (position + 1) & indexMask;
+        }
+        return -1;
+    }
+
+    /**
+     * Indica se un ordine è in memoria. Può essere invocato da qualsiasi thread senza acquisire lock.
+     *
+     * @param orderId L'ID dell'ordine.
+     * @return true se l'ordine è in attesa nel book.
+     */
+    boolean contains(long orderId) {
+        while (true) {
+            long before = version;
+            if ((before & 1) == 0) {
+                boolean found = probe(orderId) >= 0;
+                VarHandle.acquireFence();
+                if (version == before) {
+                    return found;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Cerca lo slot di un ordine senza presupporre che l'indice sia stabile: la ricerca termina sempre
+     * e non restituisce slot fuori intervallo, ma durante una modifica il risultato va validato dal chiamante
+     * con un contatore di versione.
+     *
+     * @param orderId L'ID dell'ordine.
+     * @return Lo slot dell'ordine, oppure -1 se l'ordine non è stato trovato.
+     */
+    int probe(long orderId) {
+        int position = position(orderId);
+        for (int probes = 0; probes <= indexMask; probes++) {
+            int entry = index.getInt(position * 4);
+            //uno slot fuori intervallo può essere letto solo durante una modifica: la versione lo scarta
+            if (entry <= 0 || entry > capacity) {
+                return -1;
+            }
+            if (getOrderId(entry - 1) == orderId) {
+                return entry - 1;
+            }
+            position = (position + 1) & indexMask;
+        }
+        return -1;
+    }
+
+    /**
+     * Copia il contenuto di uno slot in un ordine riutilizzabile.
+     *
+     * @param slot   Lo slot da leggere.
+     * @param cursor L'ordine in cui copiare i campi.
+     * @return Il cursore aggiornato.
+     */
+    StoredOrder load(int slot, StoredOrder cursor) {
+        int base = slot * RECORD_SIZE;
+        cursor.load(slot, records.getLong(base + ORDER_ID), records.getLong(base + SEQUENCE), records.get(base + ORDER_TYPE),
+                records.get(base + SIDE), records.getInt(base + SIZE), records.getInt(base + PRICE), records.getInt(base + USER_INDEX));
+        return cursor;
+    }
+
+    long getOrderId(int slot) {
+        return records.getLong(slot * RECORD_SIZE + ORDER_ID);
+    }
+
+    int getSize(int slot) {
+        return records.getInt(slot * RECORD_SIZE + SIZE);
+    }
+
+    void setSize(int slot, int size) {
+        records.putInt(slot * RECORD_SIZE + SIZE, size);
+    }
+
+    int getPrice(int slot) {
+        return records.getInt(slot * RECORD_SIZE + PRICE);
+    }
+
+    int getPrev(int slot) {
+        return records.getInt(slot * RECORD_SIZE + PREV);
+    }
+
+    void setPrev(int slot, int prev) {
+        records.putInt(slot * RECORD_SIZE + PREV, prev);
+    }
+
+    int getNext(int slot) {
+        return records.getInt(slot * RECORD_SIZE + NEXT);
+    }
+
+    void setNext(int slot, int next) {
+        records.putInt(slot * RECORD_SIZE + NEXT, next);
+    }
+
+    /**
+     * Restituisce il primo ordine in attesa di un utente; gli altri si ottengono con {@link #getUserNext(int)}.
+     *
+     * @param userIndex L'indice dell'utente.
+     * @return Lo slot del primo ordine dell'utente, oppure -1 se l'utente non ha ordini in attesa.
+     */
+    int firstOrderOf(int userIndex) {
+        return userIndex >= 0 && userIndex < userHeads.length ? userHeads[userIndex] : -1;
+    }
+
+    /**
+     * Restituisce il numero di utenti per cui è allocata la testa della lista degli ordini.
+     *
+     * @return Un limite superiore agli indici degli utenti con ordini in attesa.
+     */
+    int getUserCapacity() {
+        return userHeads.length;
+    }
+
+    int getUserNext(int slot) {
+        return records.getInt(slot * RECORD_SIZE + USER_NEXT);
+    }
+
+    int getUserIndex(int slot) {
+        return records.getInt(slot * RECORD_SIZE + USER_INDEX);
+    }
+
+    boolean isFull() {
+        return freeSlot < 0;
+    }
+
+    int getUsedSlots() {
+        return usedSlots;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Restituisce i byte di memoria diretta occupati, record e indice.
+     *
+     * @return La dimensione della memoria off-heap.
+     */
+    long getAllocatedBytes() {
+        return (long) records.capacity() + index.capacity();
+    }
+
+    //Inserisce lo slot in testa alla lista degli ordini dell'utente; gli ordini senza utente non sono collegati
+    private void linkUser(int slot, int userIndex) {
+        int base = slot * RECORD_SIZE;
+        records.putInt(base + USER_PREV, -1);
+        records.putInt(base + USER_NEXT, -1);
+        if (userIndex < 0) {
+            return;
+        }
+        if (userIndex >= userHeads.length) {
+            int oldLength = userHeads.length;
+            userHeads = Arrays.copyOf(userHeads, Math.max(oldLength * 2, userIndex + 1));
+            Arrays.fill(userHeads, oldLength, userHeads.length, -1);
+        }
+        int head = userHeads[userIndex];
+        records.putInt(base + USER_NEXT, head);
+        if (head >= 0) {
+            records.putInt(head * RECORD_SIZE + USER_PREV, slot);
+        }
+        userHeads[userIndex] = slot;
+    }
+
+    private void unlinkUser(int slot) {
+        int base = slot * RECORD_SIZE;
+        int userIndex = records.getInt(base + USER_INDEX);
+        if (userIndex < 0) {
+            return;
+        }
+        int prev = records.getInt(base + USER_PREV);
+        int next = records.getInt(base + USER_NEXT);
+        if (prev >= 0) {
+            records.putInt(prev * RECORD_SIZE + USER_NEXT, next);
+        } else {
+            userHeads[userIndex] = next;
+        }
+        if (next >= 0) {
+            records.putInt(next * RECORD_SIZE + USER_PREV, prev);
+        }
+    }
+
+    private void beginWrite() {
+        version++;
+        VarHandle.releaseFence();
+    }
+
+    private int position(long orderId) {
+        long hash = orderId * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & indexMask;
+    }
+}
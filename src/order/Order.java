@@ -1,45 +1,188 @@
 package order;
 
+/**
+ * Rappresenta un ordine generico nel sistema di trading.
+ * La rappresentazione è compatta: lato e tipo di ordine sono codificati in un byte, il proprietario
+ * è l'indice intero dell'utente nel {@link user.UserDatabase} e la priorità temporale è data da un
+ * numero di sequenza assegnato dal book all'accettazione dell'ordine, invece che dal timestamp in millisecondi.
+ * Un ordine in attesa nel book non fa quindi riferimento a stringhe o sessioni.
+ */
+public class Order{
+    public static final byte BID = 0;
+    public static final byte ASK = 1;
+    public static final byte LIMIT = 1;
+    public static final byte MARKET = 2;
+    public static final byte STOP = 3;
+    //Validità dell'ordine (time in force): gli ordini GTC restano nel book, IOC e FOK vengono eseguiti subito o scartati
+    public static final byte GTC = 0;
+    public static final byte IOC = 1;
+    public static final byte FOK = 2;
 
-import user.UserSession;
+    private static final String[] SIDE_NAMES = {"bid", "ask"};
+    private static final String[] TYPE_NAMES = {null, "limitorder", "marketorder", "stoporder"};
 
-public class Order{
-    private long OrderId;
-    private final String type;
+    private long orderId;
+    private long sequence;
     private int size;
-    private final int price;
-    private final long timestamp;
-    private UserSession session;
-    private String userPropertyName;
+    private int price;
+    private int userIndex;
+    private byte side;
+    private byte orderType;
+    private byte timeInForce;
+
+    //Collegamenti intrusivi usati da PriceLevel per mantenere la coda FIFO del livello di prezzo
+    PriceLevel level;
+    Order prev;
+    Order next;
+    //Collegamenti della lista degli ordini in attesa dello stesso utente, mantenuta da OrderBook
+    Order userPrev;
+    Order userNext;
 
     /**
      * Rappresenta un ordine generico nel sistema di trading.
-     * Contiene informazioni come ID ordine, tipo, dimensione, prezzo, timestamp e sessione utente.
      *
-     * @param type      Il tipo di ordine (buy/sell).
+     * @param orderType Il tipo di ordine ({@link #LIMIT}, {@link #MARKET} o {@link #STOP}).
+     * @param side      Il lato dell'ordine ({@link #BID} o {@link #ASK}).
      * @param size      La quantità dell'ordine.
      * @param price     Il prezzo dell'ordine.
      * @param orderId   L'identificatore univoco dell'ordine.
-     * @param timestamp Il timestamp dell'ordine.
-     * @param session   La sessione utente associata all'ordine.
+     * @param userIndex L'indice dell'utente proprietario, -1 se non associato a un utente.
      */
-    public Order(String type, int size, int price, long orderId, long timestamp, UserSession session,String userPropertyName) {
-        this.OrderId = orderId;
-        this.type = type;
+    public Order(byte orderType, byte side, int size, int price, long orderId, int userIndex) {
+        this.orderId = orderId;
+        this.orderType = orderType;
+        this.side = side;
         this.size = size;
         this.price = price;
-        this.timestamp = timestamp;
-        this.session = session;
-        this.userPropertyName = userPropertyName;
+        this.userIndex = userIndex;
+    }
+
+    /**
+     * Converte il lato di un ordine ricevuto dal client nel codice corrispondente.
+     *
+     * @param type Il lato dell'ordine ("bid" o "ask").
+     * @return {@link #BID} o {@link #ASK}, oppure -1 se il lato non è valido.
+     */
+    public static byte parseSide(String type) {
+        if ("bid".equals(type)) {
+            return BID;
+        }
+        if ("ask".equals(type)) {
+            return ASK;
+        }
+        return -1;
     }
 
     /**
-     * Restituisce il tipo di ordine (buy/sell).
+     * Converte la validità di un ordine ricevuta dal client nel codice corrispondente.
      *
-     * @return Il tipo di ordine.
+     * @param timeInForce La validità dell'ordine ("gtc", "ioc" o "fok"); null o vuota per {@link #GTC}.
+     * @return {@link #GTC}, {@link #IOC} o {@link #FOK}, oppure -1 se la validità non è riconosciuta.
+     */
+    public static byte parseTimeInForce(String timeInForce) {
+        if (timeInForce == null || timeInForce.isEmpty() || "gtc".equals(timeInForce)) {
+            return GTC;
+        }
+        if ("ioc".equals(timeInForce)) {
+            return IOC;
+        }
+        if ("fok".equals(timeInForce)) {
+            return FOK;
+        }
+        return -1;
+    }
+
+    /**
+     * Restituisce il nome del lato dell'ordine (bid/ask).
+     *
+     * @return Il lato dell'ordine.
      */
     public String getType() {
-        return type;
+        return sideName(side);
+    }
+
+    /**
+     * Restituisce il nome di un lato.
+     *
+     * @param side Il codice del lato ({@link #BID} o {@link #ASK}).
+     * @return "bid" o "ask".
+     */
+    public static String sideName(byte side) {
+        return SIDE_NAMES[side];
+    }
+
+    /**
+     * Restituisce il nome di un tipo di ordine, come registrato nello storico degli scambi.
+     *
+     * @param orderType Il codice del tipo di ordine.
+     * @return "limitorder", "marketorder" o "stoporder".
+     */
+    public static String typeName(byte orderType) {
+        return TYPE_NAMES[orderType];
+    }
+
+    /**
+     * Restituisce il codice di un tipo di ordine a partire dal nome registrato nello storico degli scambi.
+     *
+     * @param typeName Il nome del tipo di ordine, può essere null.
+     * @return {@link #LIMIT}, {@link #MARKET} o {@link #STOP}; 0 se il nome è null o non riconosciuto.
+     */
+    public static byte parseTypeName(String typeName) {
+        for (byte code = LIMIT; code < TYPE_NAMES.length; code++) {
+            if (TYPE_NAMES[code].equals(typeName)) {
+                return code;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Restituisce il codice del lato dell'ordine.
+     *
+     * @return {@link #BID} o {@link #ASK}.
+     */
+    public byte getSide() {
+        return side;
+    }
+
+    public boolean isBid() {
+        return side == BID;
+    }
+
+    /**
+     * Restituisce il codice del tipo di ordine.
+     *
+     * @return {@link #LIMIT}, {@link #MARKET} o {@link #STOP}.
+     */
+    public byte getOrderType() {
+        return orderType;
+    }
+
+    /**
+     * Restituisce il nome del tipo di ordine, come registrato nello storico degli scambi.
+     *
+     * @return "limitorder", "marketorder" o "stoporder".
+     */
+    public String getOrderTypeName() {
+        return typeName(orderType);
+    }
+
+    /**
+     * Restituisce la validità dell'ordine.
+     *
+     * @return {@link #GTC}, {@link #IOC} (esegue quanto possibile e scarta il resto) o {@link #FOK} (tutto o niente).
+     */
+    public byte getTimeInForce() {
+        return timeInForce;
+    }
+
+    /**
+     * Imposta la validità di un ordine limit o di mercato prima del suo inserimento.
+     *
+     * @param timeInForce {@link #GTC}, {@link #IOC} o {@link #FOK}.
+     */
+    public void setTimeInForce(byte timeInForce) {
+        this.timeInForce = timeInForce;
     }
 
     /**
@@ -66,7 +209,7 @@ public class Order{
      * @param orderId Il nuovo identificatore univoco dell'ordine.
      */
     public void setOrderId(long orderId){
-        this.OrderId = orderId;
+        this.orderId = orderId;
     }
 
     /**
@@ -75,7 +218,7 @@ public class Order{
      * @return L'identificatore univoco dell'ordine.
      */
     public long getOrderId() {
-        return OrderId;
+        return orderId;
     }
 
     /**
@@ -88,56 +231,49 @@ public class Order{
     }
 
     /**
-     * Restituisce il timestamp dell'ordine.
+     * Restituisce il numero di sequenza dell'ordine: a parità di prezzo, un numero minore ha la precedenza.
      *
-     * @return Il timestamp dell'ordine.
+     * @return Il numero di sequenza assegnato dal book, 0 se l'ordine non è ancora stato accettato.
      */
-    public long getTimestamp() {
-        return timestamp;
+    public long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
     }
 
     /**
-     * Restituisce la sessione utente associata all'ordine.
+     * Aggiorna quantità e prezzo di un ordine già rimosso dal book, prima di reinserirlo con una nuova priorità.
      *
-     * @return La sessione utente.
+     * @param size  La nuova quantità.
+     * @param price Il nuovo prezzo (limite o di attivazione).
      */
-    public UserSession getSession() {
-        return session;
+    void replace(int size, int price) {
+        this.size = size;
+        this.price = price;
     }
 
-
-    public String getUserPropertyName() {
-        return userPropertyName;
-    }
     /**
-     * Confronta due ordini per la coda Ask.
-     * Ordina gli ordini in ordine crescente di prezzo e, in caso di parità, per timestamp.
-     *
-     * @param other L'altro ordine da confrontare.
-     * @return Un valore negativo se l'ordine corrente ha un prezzo inferiore,
-     *         positivo se ha un prezzo maggiore, 0 se i prezzi sono uguali (ordinati per timestamp).
+     * Sovrascrive tutti i campi dell'ordine. Usato dalle viste riutilizzabili degli ordini conservati off-heap.
      */
-    public int compareAsk(Order other) {
-        int comparedValue = Integer.compare(this.price, other.price);
-        if (comparedValue != 0) {
-            return comparedValue; //Ordine crescente
-        }
-        return Long.compare(this.timestamp, other.timestamp);
+    void load(long orderId, long sequence, byte orderType, byte side, int size, int price, int userIndex) {
+        this.orderId = orderId;
+        this.sequence = sequence;
+        this.orderType = orderType;
+        this.side = side;
+        this.size = size;
+        this.price = price;
+        this.userIndex = userIndex;
     }
+
     /**
-     * Confronta due ordini per la coda Bid.
-     * Ordina gli ordini in ordine decrescente di prezzo e, in caso di parità, per timestamp.
+     * Restituisce l'indice dell'utente proprietario dell'ordine.
      *
-     * @param other L'altro ordine da confrontare.
-     * @return Un valore positivo se l'ordine corrente ha un prezzo inferiore,
-     *         negativo se ha un prezzo maggiore, 0 se i prezzi sono uguali (ordinati per timestamp).
+     * @return L'indice dell'utente nel database degli utenti, -1 se l'ordine non appartiene a un utente.
      */
-    public int compareBid(Order other) {
-        int comparedValue = Integer.compare(other.price,this.price);
-        if (comparedValue != 0) {
-            return comparedValue; //Ordine crescente
-        }
-        return Long.compare(this.timestamp, other.timestamp);
+    public int getUserIndex() {
+        return userIndex;
     }
 
 }
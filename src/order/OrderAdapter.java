@@ -35,18 +35,13 @@ public class OrderAdapter implements JsonSerializer<Order>, JsonDeserializer<Ord
         if (!jsonObject.has("price") || jsonObject.get("price").isJsonNull()) {
             throw new JsonParseException("ERRORE: Campo 'price' assente o nullo nel JSON!");
         }
-        if (!jsonObject.has("timestamp") || jsonObject.get("timestamp").isJsonNull()) {
-            throw new JsonParseException("ERRORE: Campo 'timestamp' assente o nullo nel JSON!");
-        }
-
         return new Order(
-                jsonObject.get("type").getAsString(),
+                Order.LIMIT,
+                Order.parseSide(jsonObject.get("type").getAsString()),
                 jsonObject.get("size").getAsInt(),
                 jsonObject.get("price").getAsInt(),
                 jsonObject.get("orderId").getAsLong(),
-                jsonObject.get("timestamp").getAsLong(),
-                null ,// Non deserializziamo `UserSession`
-                null // Non deserializziamo `userPropertyName`
+                -1 // L'utente proprietario non viene deserializzato
         );
     }
 
@@ -65,8 +60,8 @@ public class OrderAdapter implements JsonSerializer<Order>, JsonDeserializer<Ord
         jsonObject.addProperty("type", order.getType());
         jsonObject.addProperty("size", order.getSize());
         jsonObject.addProperty("price", order.getPrice());
-        jsonObject.addProperty("timestamp", order.getTimestamp());
-        // NOTA: Non serializziamo `session`
+        jsonObject.addProperty("sequence", order.getSequence());
+        // NOTA: Non serializziamo l'utente proprietario
         return jsonObject;
     }
 }
@@ -1,221 +1,637 @@
 package order;
 
-import com.google.gson.*;
-import com.google.gson.JsonParser;
-import com.google.gson.reflect.TypeToken;
-import common.JsonParsing;
 import common.Response;
-import server.NotificationSender;
+import server.MarketDataFeed;
+import server.NotificationDispatcher;
 import user.UserDatabase;
-import user.UserSession;
 
-import java.io.*;
-import java.net.InetSocketAddress;
-import java.net.SocketException;
-import java.time.*;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Classe OrderBook - Gestisce gli ordini di acquisto e vendita, il matching e l'invio delle notifiche.
  */
 public class OrderBook {
-    private NotificationSender notificationSender;
+    private final NotificationDispatcher notificationDispatcher;
+    private final MarketDataFeed marketDataFeed; //null se il canale dei dati di mercato è disattivato
   
     private static int THRESHOLD = 40000;
-    private final Queue<Order> bidOrders = new PriorityQueue<Order>(Order::compareBid); // da negare
-    private final Queue<Order> askOrders = new PriorityQueue<Order>(Order::compareAsk); // ordinamento normale
-    private final Queue<StopOrder> stopBuyOrders = new PriorityQueue<>(new Comparator<StopOrder>() {
-        @Override
-        public int compare(StopOrder o1, StopOrder o2) {
-            return Integer.compare(o1.getTriggerPrice(), o2.getTriggerPrice());
-        }
-    });
-    private final Queue<StopOrder> stopSellOrders = new PriorityQueue<>(new Comparator<StopOrder>() {
-        @Override
-        public int compare(StopOrder o1, StopOrder o2) {
-            return Integer.compare(o2.getTriggerPrice(), o1.getTriggerPrice());
-        }
-    });
-    private final Map<Long, Order> activeOrders;
-    private final AtomicLong orderIdGenerator = new AtomicLong(1);
+    private static final int SNAPSHOT_RETRIES = 64; //letture senza lock ripetute prima di acquisire il lock del book
+    public static final int MAX_DEPTH_LEVELS = 50; //livelli per lato copiati nelle viste della profondità del book
+    //Risposte senza dati variabili, condivise per non crearne una nuova a ogni richiesta
+    private static final Response MARKET_ORDER_REJECTED = new Response(0, null, -1, null);
+    private static final Response IMMEDIATE_ORDER_REJECTED = new Response(0, null, -1, null); //IOC o FOK non eseguibile
+    private static final Response ORDER_STORE_FULL = new Response(0, null, -1, null); //memoria off-heap degli ordini esaurita
+    private static final Response CANCEL_REJECTED = new Response(101, "order does not exist or belongs to different user or has already been finalized or other error cases", 0, null);
+    private static final Response CANCEL_OK = new Response(100, "OK", 0, null);
+    private static final Response MODIFY_INVALID = new Response(103, "invalid size or price", 0, null);
+    private static final Response QUOTE_INVALID = new Response(103, "invalid quote, bid price must be lower than ask price", 0, null);
+    private final BookSide bidOrders; //livelli in ordine decrescente di prezzo
+    private final BookSide askOrders; //livelli in ordine crescente di prezzo
+    //Indice degli ordini stop per prezzo di attivazione: crescente per gli acquisti, decrescente per le vendite,
+    //così gli stop da attivare sono sempre in testa e vengono estratti in O(stop attivati)
+    private final BookSide stopBuyOrders;
+    private final BookSide stopSellOrders;
+    private int lastTradePrice; //prezzo dell'ultimo scambio, 0 se non ci sono ancora stati scambi
+    private final ActiveOrderMap activeOrders; //usata solo se gli ordini sono sull'heap
+    private Order[] userOrders = new Order[16]; //primo ordine in attesa di ogni utente, solo se gli ordini sono sull'heap
+    private final OffHeapOrderStore orderStore; //null se gli ordini sono sull'heap
+    private final StoredOrder lookupCursor; //vista riutilizzabile per le ricerche per ID nella memoria off-heap
+    private final AtomicLong orderIdGenerator;
+    private final String instrument;
+    private long sequenceNumber; //ultimo numero di sequenza assegnato, definisce la priorità temporale degli ordini
+    private final byte[] instrumentSymbol; //simbolo in ASCII, scritto in ogni messaggio dei dati di mercato
+    private long marketDataSequence; //ultimo numero di sequenza pubblicato sul canale dei dati di mercato
+    //Versione del book per le letture senza lock: dispari mentre un'operazione modifica il book
+    private volatile long snapshotVersion;
+    private int writeDepth; //operazioni annidate in corso (ad esempio gli ordini di un batch)
+    private volatile DepthSnapshot depthSnapshot; //ultima vista pubblicata della profondità, null se mai richiesta
+    private volatile boolean depthRequested; //un lettore ha chiesto la profondità dall'ultima pubblicazione
+    private final Map<Integer, long[]> quotes = new HashMap<>(); //per ogni utente gli ID della quotazione in vigore {bid, ask}, 0 se assente
 
     private final UserDatabase userDatabase;
-    private JsonParsing jsonParsing;
-	private static String filePathOrders;
+    private final TradeJournal tradeJournal;
 
     /**
      * Costruttore della classe OrderBook.
-     * Inizializza le code di priorità e il gestore delle notifiche.
+     * Inizializza i lati del book e il collegamento con la coda asincrona delle notifiche.
      *
-     * @throws IOException se la creazione del NotificationSender fallisce.
+     * @param instrument             Il simbolo dello strumento negoziato nel book.
+     * @param userDatabase           Database degli utenti.
+     * @param tradeJournal           Giornale append-only su cui registrare gli scambi eseguiti.
+     * @param notificationDispatcher Coda asincrona su cui pubblicare le notifiche di esecuzione.
+     * @param orderIdGenerator       Contatore degli ID degli ordini, condiviso tra i book di tutti gli strumenti.
      */
-    public OrderBook(UserDatabase userDatabase, String filePathOrders) {
-        activeOrders = new ConcurrentHashMap<>();
-        this.jsonParsing = new JsonParsing();
-        this.filePathOrders = filePathOrders;
+    public OrderBook(String instrument, UserDatabase userDatabase, TradeJournal tradeJournal,
+                     NotificationDispatcher notificationDispatcher, AtomicLong orderIdGenerator) {
+        this(instrument, userDatabase, tradeJournal, notificationDispatcher, orderIdGenerator, 0, null);
+    }
+
+    /**
+     * Costruttore della classe OrderBook con memoria off-heap e banda di prezzi opzionali.
+     * Con una capacità positiva ordini limit e stop in attesa, con il relativo indice per ID, vengono conservati
+     * in un buffer diretto allocato subito per intero: l'heap occupato dal book non dipende più dalla sua profondità,
+     * ma il book non accetta nuovi ordini in attesa oltre la capacità.
+     * Con una banda di prezzi, i livelli nella banda sono indicizzati per tick in un array (vedi {@link BookSide}).
+     *
+     * @param instrument             Il simbolo dello strumento negoziato nel book.
+     * @param userDatabase           Database degli utenti.
+     * @param tradeJournal           Giornale append-only su cui registrare gli scambi eseguiti.
+     * @param notificationDispatcher Coda asincrona su cui pubblicare le notifiche di esecuzione.
+     * @param orderIdGenerator       Contatore degli ID degli ordini, condiviso tra i book di tutti gli strumenti.
+     * @param offHeapCapacity        Numero massimo di ordini in attesa conservati off-heap, 0 per tenerli sull'heap.
+     * @param priceBand              Banda di prezzi indicizzata ad array, null per usare solo mappe ordinate.
+     */
+    public OrderBook(String instrument, UserDatabase userDatabase, TradeJournal tradeJournal,
+                     NotificationDispatcher notificationDispatcher, AtomicLong orderIdGenerator, int offHeapCapacity,
+                     PriceBand priceBand) {
+        this(instrument, userDatabase, tradeJournal, notificationDispatcher, orderIdGenerator, offHeapCapacity, priceBand, null);
+    }
+
+    /**
+     * Costruttore della classe OrderBook con canale multicast dei dati di mercato.
+     * Ogni scambio e, al termine di ogni operazione, ogni livello di prezzo modificato vengono pubblicati sul canale
+     * con un numero di sequenza consecutivo per il book, così i client possono mantenere un book locale.
+     *
+     * @param instrument             Il simbolo dello strumento negoziato nel book.
+     * @param userDatabase           Database degli utenti.
+     * @param tradeJournal           Giornale append-only su cui registrare gli scambi eseguiti.
+     * @param notificationDispatcher Coda asincrona su cui pubblicare le notifiche di esecuzione.
+     * @param orderIdGenerator       Contatore degli ID degli ordini, condiviso tra i book di tutti gli strumenti.
+     * @param offHeapCapacity        Numero massimo di ordini in attesa conservati off-heap, 0 per tenerli sull'heap.
+     * @param priceBand              Banda di prezzi indicizzata ad array, null per usare solo mappe ordinate.
+     * @param marketDataFeed         Canale dei dati di mercato, null per non pubblicare scambi e livelli.
+     */
+    public OrderBook(String instrument, UserDatabase userDatabase, TradeJournal tradeJournal,
+                     NotificationDispatcher notificationDispatcher, AtomicLong orderIdGenerator, int offHeapCapacity,
+                     PriceBand priceBand, MarketDataFeed marketDataFeed) {
+        orderStore = offHeapCapacity > 0 ? new OffHeapOrderStore(offHeapCapacity) : null;
+        lookupCursor = orderStore == null ? null : new StoredOrder();
+        activeOrders = orderStore == null ? new ActiveOrderMap() : null;
+        //gli stop non sono visibili nel book, quindi solo i lati bid e ask registrano i livelli modificati
+        bidOrders = new BookSide(true, orderStore, priceBand, marketDataFeed != null);
+        askOrders = new BookSide(false, orderStore, priceBand, marketDataFeed != null);
+        //Gli stop in attesa sono pochi e si consultano solo alla soglia: restano nella mappa ordinata,
+        //così la banda di prezzi occupa memoria solo per i due lati del book
+        stopBuyOrders = new BookSide(false, orderStore, null);
+        stopSellOrders = new BookSide(true, orderStore, null);
+        this.instrument = instrument;
+        this.orderIdGenerator = orderIdGenerator;
+        this.tradeJournal = tradeJournal;
         this.userDatabase = userDatabase;
-        try {
-            this.notificationSender = new NotificationSender();
-        } catch (SocketException e) {
-            System.err.println("Errore nella creazione di NotificationSender");
+        this.notificationDispatcher = notificationDispatcher;
+        this.marketDataFeed = marketDataFeed;
+        this.instrumentSymbol = instrument.getBytes(StandardCharsets.US_ASCII);
+    }
+
+
+    public String getInstrument() {
+        return instrument;
+    }
+
+    /**
+     * Indica se un ordine è attivo (nel book o in attesa di attivazione) in questo book.
+     * Non acquisisce il lock del book.
+     *
+     * @param orderId L'ID dell'ordine.
+     * @return true se l'ordine è attivo.
+     */
+    public boolean hasActiveOrder(long orderId) {
+        return orderStore == null ? activeOrders.containsKey(orderId) : orderStore.contains(orderId);
+    }
+
+    /**
+     * Cerca un ordine attivo del book. Con la memoria off-heap restituisce una vista riutilizzabile,
+     * valida fino alla ricerca successiva.
+     *
+     * @param orderId L'ID dell'ordine.
+     * @return L'ordine, oppure null se non è attivo.
+     */
+    private Order findActiveOrder(long orderId) {
+        if (orderStore == null) {
+            return activeOrders.get(orderId);
+        }
+        int slot = orderStore.find(orderId);
+        return slot < 0 ? null : orderStore.load(slot, lookupCursor);
+    }
+
+    /**
+     * Restituisce la memoria diretta allocata per gli ordini in attesa.
+     *
+     * @return I byte fuori dall'heap occupati da ordini e indice, 0 se gli ordini sono sull'heap.
+     */
+    long getOffHeapBytes() {
+        return orderStore == null ? 0 : orderStore.getAllocatedBytes();
+    }
+
+    //Con la memoria off-heap l'indice per ID e le liste per utente sono mantenuti dai lati del book,
+    //che vi copiano e liberano gli ordini
+    private void trackActiveOrder(Order order) {
+        if (orderStore == null) {
+            activeOrders.put(order.getOrderId(), order);
+            linkUserOrder(order);
+        }
+    }
+
+    private void untrackActiveOrder(Order order) {
+        if (orderStore == null && activeOrders.remove(order.getOrderId()) != null) {
+            unlinkUserOrder(order);
+        }
+    }
+
+    //Inserisce l'ordine in testa alla lista degli ordini in attesa del suo utente
+    private void linkUserOrder(Order order) {
+        int userIndex = order.getUserIndex();
+        if (userIndex < 0) {
+            return;
+        }
+        if (userIndex >= userOrders.length) {
+            userOrders = Arrays.copyOf(userOrders, Math.max(userOrders.length * 2, userIndex + 1));
+        }
+        Order head = userOrders[userIndex];
+        order.userPrev = null;
+        order.userNext = head;
+        if (head != null) {
+            head.userPrev = order;
         }
+        userOrders[userIndex] = order;
     }
 
+    private void unlinkUserOrder(Order order) {
+        int userIndex = order.getUserIndex();
+        if (userIndex < 0) {
+            return;
+        }
+        if (order.userPrev != null) {
+            order.userPrev.userNext = order.userNext;
+        } else {
+            userOrders[userIndex] = order.userNext;
+        }
+        if (order.userNext != null) {
+            order.userNext.userPrev = order.userPrev;
+        }
+        order.userPrev = null;
+        order.userNext = null;
+    }
 
     /**
-     * Carica e restituisce una lista di ordini (Order) da un file JSON.
+     * Restituisce il primo ordine in attesa di un utente. Con la memoria off-heap restituisce una vista riutilizzabile.
      *
-     * @return Una lista di oggetti Order caricati dal file "storicoOrdini.json".
-     *         Se si verifica un errore o il file non è nel formato corretto,
-     *         restituisce una lista vuota.
+     * @param userIndex L'indice dell'utente.
+     * @return L'ordine, oppure null se l'utente non ha ordini in attesa nel book.
      */
-    public synchronized static List<Order> loadOrders() {
-        Gson gson = new GsonBuilder()
-                .registerTypeAdapter(Order.class, new OrderAdapter())//Registra l'adapter personalizzato
-                .create();
-        try (FileReader reader = new FileReader(filePathOrders)) {
-            JsonElement jsonElement = JsonParser.parseReader(reader);
-            if (jsonElement.isJsonObject()) {
-                JsonObject jsonObject = jsonElement.getAsJsonObject();
+    private Order firstUserOrder(int userIndex) {
+        if (orderStore != null) {
+            int slot = orderStore.firstOrderOf(userIndex);
+            return slot < 0 ? null : orderStore.load(slot, lookupCursor);
+        }
+        return userIndex >= 0 && userIndex < userOrders.length ? userOrders[userIndex] : null;
+    }
 
-                if (jsonObject.has("trades")) {
-                    JsonArray tradesArray = jsonObject.getAsJsonArray(("trades"));
-                    return gson.fromJson(tradesArray, new TypeToken<ArrayList<Order>>() {
-                    }.getType());
-                } else {
-                    System.err.println("ERRORE: Il JSON non contiene il campo 'trades'!");
-                }
-            } else {
-                System.err.println("ERRORE: Il file JSON non è nel formato corretto!");
+    /**
+     * Rende dispari la versione del book all'inizio dell'operazione più esterna: le letture concorrenti
+     * senza lock vengono ripetute finché l'operazione non termina.
+     */
+    private void beginWrite() {
+        if (writeDepth++ == 0) {
+            snapshotVersion++;
+            VarHandle.releaseFence();
+        }
+    }
+
+    private void endWrite() {
+        if (--writeDepth == 0) {
+            if (marketDataFeed != null) {
+                publishLevelChanges(bidOrders, Order.BID);
+                publishLevelChanges(askOrders, Order.ASK);
+            }
+            snapshotVersion++;
+            //la vista della profondità viene ricopiata solo se qualcuno la legge, così senza lettori il matching non alloca
+            if (depthRequested) {
+                depthRequested = false;
+                depthSnapshot = copyDepth();
             }
-        } catch (IOException e) {
-            System.err.println("Errore nella restituzione della lista di ordini per getHistoryPrice" + e.getMessage());
         }
-        return new ArrayList<>();
     }
 
     /**
-     * Aggiunge un nuovo ordine al book e tenta di eseguirlo se possibile.
+     * Pubblica sul canale dei dati di mercato lo stato finale dei livelli modificati dall'operazione appena conclusa.
+     * Un livello toccato da più esecuzioni della stessa operazione produce un solo messaggio;
+     * un livello svuotato viene pubblicato con quantità zero.
      *
-     * @param order L'ordine da aggiungere.
+     * @param side     Il lato del book.
+     * @param sideCode Il lato ({@link Order#BID} o {@link Order#ASK}) riportato nei messaggi.
      */
-    public synchronized Response addOrder(Order order) {
-        if (order instanceof MarketOrder) {
-            return insertMarketOrder((MarketOrder) order);
-        } else if (order instanceof LimitOrder) {
-            return insertLimitOrder((LimitOrder) order);
-        } else if (order instanceof StopOrder) {
-            return insertStopOrder((StopOrder) order);
+    private void publishLevelChanges(BookSide side, byte sideCode) {
+        for (int i = 0; i < side.getChangedCount(); i++) {
+            PriceLevel level = side.getChangedLevel(i);
+            marketDataFeed.publishLevel(instrumentSymbol, ++marketDataSequence, sideCode, level.getPrice(), level.getTotalQuantity(), level.getOrderCount());
         }
-        return new Response(400, "ordine non riconosciuto", 0, null);//Ordine non riconosciuto
+        side.clearChanges();
+    }
+
+    private DepthSnapshot copyDepth() {
+        return new DepthSnapshot(instrument, snapshotVersion, marketDataSequence, lastTradePrice, bidOrders, askOrders, MAX_DEPTH_LEVELS);
     }
 
     /**
-     * Inserisce un ordine stop nel book e lo monitora fino a quando il prezzo raggiunge la soglia stabilita.
-     * Se il tipo di ordine è "bid", viene aggiunto alla coda degli ordini di acquisto stop;
-     * altrimenti, viene aggiunto alla coda degli ordini di vendita stop.
+     * Restituisce la vista immutabile dei primi {@value #MAX_DEPTH_LEVELS} livelli di prezzo di ogni lato.
+     * Se il book non è cambiato dall'ultima pubblicazione la vista in cache viene restituita senza lock;
+     * la richiesta fa sì che la prossima modifica del book pubblichi una nuova vista. Se invece la vista è superata
+     * e nessuna modifica l'ha ancora ripubblicata, il primo lettore la ricopia sotto il lock e gli altri la condividono.
      *
-     * @param order L'ordine stop da inserire.
-     * @return Un oggetto Response contenente l'ID del nuovo ordine.
+     * @return La profondità del book, condivisa tra i lettori.
      */
-    public synchronized Response insertStopOrder(StopOrder order) {
-        order.getSession().getUser().updateLastActiveTime();
-        //Gli order.StopOrder vengono monitorati ma attivati solo quando il prezzo raggiunge la soglia
-        long newOrderId = orderIdGenerator.getAndIncrement();
-        order.setOrderId(newOrderId);
-        activeOrders.put(newOrderId, order);
-        if (order.getType().equals("bid")) {
+    public DepthSnapshot getDepth() {
+        depthRequested = true;
+        DepthSnapshot snapshot = depthSnapshot;
+        if (snapshot != null && snapshot.getVersion() == snapshotVersion) {
+            return snapshot;
+        }
+        synchronized (this) {
+            snapshot = depthSnapshot;
+            if (snapshot == null || snapshot.getVersion() != snapshotVersion) {
+                snapshot = copyDepth();
+                depthSnapshot = snapshot;
+            }
+            return snapshot;
+        }
+    }
 
-            stopBuyOrders.offer(order);
-            processBidStopOrders();
-        } else {
-            stopSellOrders.offer(order);
-            processAskStopOrder();
+    /**
+     * Restituisce gli ordini in attesa (limit e stop) di un utente, seguendo la sua lista degli ordini.
+     * La lettura non acquisisce il lock del book: viene ripetuta se nel frattempo il book è stato modificato
+     * e, solo se le modifiche sono continue, eseguita sotto il lock.
+     *
+     * @param currentUser L'utente di cui leggere gli ordini.
+     * @return Lo stato degli ordini in attesa dell'utente, in una lista nuova.
+     */
+    public List<OrderStatus> getOpenOrders(String currentUser) {
+        int userIndex = userDatabase.getUserIndex(currentUser);
+        List<OrderStatus> orders = new ArrayList<>();
+        if (userIndex < 0) {
+            return orders;
         }
-        return new Response(0, null, order.getOrderId(), null);
+        StoredOrder cursor = orderStore == null ? null : new StoredOrder();
+        for (int attempt = 0; attempt < SNAPSHOT_RETRIES; attempt++) {
+            long before = snapshotVersion;
+            if ((before & 1) == 0) {
+                try {
+                    boolean complete = readOpenOrders(userIndex, cursor, orders);
+                    VarHandle.acquireFence();
+                    if (complete && snapshotVersion == before) {
+                        return orders;
+                    }
+                } catch (RuntimeException e) {
+                    //collegamenti letti a metà di una modifica: la lettura viene ripetuta
+                }
+                orders.clear();
+            }
+            Thread.onSpinWait();
+        }
+        synchronized (this) {
+            readOpenOrders(userIndex, cursor, orders);
+        }
+        return orders;
     }
 
     /**
-     * Elabora gli ordini di vendita stop (stop sell orders).
-     * Se il miglior prezzo di acquisto corrente è maggiore o uguale al prezzo dell'ordine stop di vendita,
-     * viene eseguito il matching degli ordini.
-     * L'operazione riduce la quantità disponibile in entrambi gli ordini e li registra nella cronologia.
-     * Se un ordine viene completamente esaurito, viene rimosso dal book.
+     * Restituisce lo stato di un ordine in attesa di un utente.
+     * Come {@link #getOpenOrders(String)}, non acquisisce il lock del book se non in caso di modifiche continue.
+     *
+     * @param orderId     L'ID dell'ordine.
+     * @param currentUser L'utente che richiede lo stato.
+     * @return Lo stato dell'ordine, oppure null se l'ordine non è in attesa nel book o appartiene a un altro utente.
+     */
+    public OrderStatus getOrderStatus(long orderId, String currentUser) {
+        int userIndex = userDatabase.getUserIndex(currentUser);
+        if (userIndex < 0) {
+            return null;
+        }
+        StoredOrder cursor = orderStore == null ? null : new StoredOrder();
+        for (int attempt = 0; attempt < SNAPSHOT_RETRIES; attempt++) {
+            long before = snapshotVersion;
+            if ((before & 1) == 0) {
+                try {
+                    OrderStatus status = readOrderStatus(orderId, userIndex, cursor);
+                    VarHandle.acquireFence();
+                    if (snapshotVersion == before) {
+                        return status;
+                    }
+                } catch (RuntimeException e) {
+                    //record letto a metà di una modifica: la lettura viene ripetuta
+                }
+            }
+            Thread.onSpinWait();
+        }
+        synchronized (this) {
+            return readOrderStatus(orderId, userIndex, cursor);
+        }
+    }
+
+    /**
+     * Copia gli ordini di un utente dalla sua lista. La lista può essere modificata durante la lettura:
+     * il numero di passi è limitato, così un collegamento letto a metà non fa girare la lettura all'infinito.
+     *
+     * @return false se la lettura è stata interrotta e va ripetuta.
      */
-    private void processAskStopOrder() {
-        Order bestBid = bidOrders.peek();
-        Order bestAskStopOrder = stopSellOrders.peek();
+    private boolean readOpenOrders(int userIndex, StoredOrder cursor, List<OrderStatus> orders) {
+        if (orderStore != null) {
+            int capacity = orderStore.getCapacity();
+            int steps = capacity;
+            for (int slot = orderStore.firstOrderOf(userIndex); slot >= 0; slot = orderStore.getUserNext(slot)) {
+                if (slot >= capacity || --steps < 0) {
+                    return false;
+                }
+                orders.add(toStatus(orderStore.load(slot, cursor)));
+            }
+            return true;
+        }
+        Order[] heads = userOrders;
+        int steps = activeOrders.size() + 1;
+        for (Order order = userIndex < heads.length ? heads[userIndex] : null; order != null; order = order.userNext) {
+            if (--steps < 0) {
+                return false;
+            }
+            orders.add(toStatus(order));
+        }
+        return true;
+    }
+
+    private OrderStatus readOrderStatus(long orderId, int userIndex, StoredOrder cursor) {
+        Order order;
+        if (orderStore != null) {
+            int slot = orderStore.probe(orderId);
+            order = slot < 0 ? null : orderStore.load(slot, cursor);
+        } else {
+            order = activeOrders.get(orderId);
+        }
+        if (order == null || order.getOrderId() != orderId || order.getUserIndex() != userIndex) {
+            return null;
+        }
+        return toStatus(order);
+    }
 
+    private OrderStatus toStatus(Order order) {
+        return new OrderStatus(order.getOrderId(), instrument, order.getOrderType() == Order.STOP ? "stop" : "limit",
+                order.getType(), order.getSize(), order.getPrice());
+    }
 
-        if (bestAskStopOrder == null) {
-            return;
+    /**
+     * Verifica che ci sia spazio per un nuovo ordine in attesa nella memoria off-heap.
+     *
+     * @return true se l'ordine può essere inserito nel book.
+     */
+    private boolean hasRestingCapacity() {
+        if (orderStore != null && orderStore.isFull()) {
+            System.err.printf("Memoria off-heap degli ordini del book %s piena (%d ordini): ordine rifiutato\n",
+                    instrument, orderStore.getCapacity());
+            return false;
         }
-        if ((bestBid != null) && (bestBid.getPrice() >= bestAskStopOrder.getPrice())) {
-            int matchedSize = getMatchedSize(bestBid, bestAskStopOrder);
-            bestBid.reduceSize(matchedSize);
-            bestAskStopOrder.reduceSize(matchedSize);
+        return true;
+    }
 
-            System.out.printf("Matched %d BTC at price %d USD\n", matchedSize, bestAskStopOrder.getPrice());
-            Order orderBid = new StopOrder(bestBid.getType(), matchedSize, bestBid.getPrice(), bestAskStopOrder.getOrderId(), System.currentTimeMillis(), bestBid.getSession(),null);
-            Order orderAsk = new StopOrder(bestAskStopOrder.getType(), matchedSize, bestAskStopOrder.getPrice(), bestAskStopOrder.getOrderId(), System.currentTimeMillis(), bestAskStopOrder.getSession(),null);
-            jsonParsing.addOrderToHistory(orderBid);
-            jsonParsing.addOrderToHistory(orderAsk);
-            notifyClient(orderBid, "stop");
-            notifyClient(orderAsk, "stop");
-            sendNotificationMulticast(orderAsk, THRESHOLD);
+    /**
+     * Aggiunge un nuovo ordine al book e tenta di eseguirlo se possibile.
+     *
+     * @param order L'ordine da aggiungere.
+     * @return La risposta all'inserimento, in una nuova istanza o in una risposta condivisa di rifiuto.
+     */
+    public synchronized Response addOrder(Order order) {
+        return addOrder(order, new Response());
+    }
 
-            if (bestBid.getSize() == 0) {
-                activeOrders.remove(bestBid.getOrderId());
-                bidOrders.poll();
+    /**
+     * Aggiunge un nuovo ordine al book e tenta di eseguirlo se possibile, compilando una risposta preallocata
+     * dal chiamante: l'inserimento di un ordine accettato non crea oggetti.
+     *
+     * @param order  L'ordine da aggiungere.
+     * @param result La risposta da compilare.
+     * @return La risposta compilata, oppure una risposta condivisa se l'ordine è stato rifiutato.
+     */
+    public synchronized Response addOrder(Order order, Response result) {
+        beginWrite();
+        try {
+            Response response;
+            if (order.getTimeInForce() != Order.GTC && order.getOrderType() != Order.STOP) {
+                response = insertImmediateOrder(order, result);
+                assert checkInvariants();
+                return response;
             }
-            if (bestAskStopOrder.getSize() == 0) {
-                activeOrders.remove(bestAskStopOrder.getOrderId());
-                stopSellOrders.poll();
+            switch (order.getOrderType()) {
+                case Order.MARKET:
+                    response = insertMarketOrder(order, result);
+                    break;
+                case Order.LIMIT:
+                    response = insertLimitOrder(order, result);
+                    break;
+                case Order.STOP:
+                    response = insertStopOrder(order, result);
+                    break;
+                default:
+                    response = result.set(400, "ordine non riconosciuto", 0);//Ordine non riconosciuto
             }
+            assert checkInvariants();
+            return response;
+        } finally {
+            endWrite();
         }
     }
 
     /**
-     * Elabora gli ordini di acquisto stop (stop buy orders).
-     * Se il miglior prezzo di vendita corrente è minore o uguale al prezzo dell'ordine stop di acquisto,
-     * viene eseguito il matching degli ordini.
-     * L'operazione riduce la quantità disponibile in entrambi gli ordini e li registra nella cronologia.
-     * Se un ordine viene completamente esaurito, viene rimosso dal book.
+     * Aggiunge al book un batch di ordini in un'unica passata, con una sola acquisizione del lock.
+     * Gli ordini vengono applicati nell'ordine ricevuto, esattamente come se fossero inviati uno alla volta,
+     * ma nessun altro ordine può inserirsi tra loro.
+     *
+     * @param orders Gli ordini da aggiungere.
+     * @return Una risposta che contiene, per ogni ordine e nello stesso ordine, la risposta di {@link #addOrder(Order)}.
      */
-    private void processBidStopOrders() {
-        Order bestAsk = askOrders.peek();
-        Order bestBidStopOrder = stopBuyOrders.peek();
-
-        if (bestBidStopOrder == null) {
-            return;
+    public synchronized Response addOrderBatch(List<Order> orders) {
+        beginWrite();
+        try {
+            List<Response> results = new ArrayList<>(orders.size());
+            for (Order order : orders) {
+                results.add(addOrder(order));
+            }
+            return new Response(100, "OK", results);
+        } finally {
+            endWrite();
         }
-        if (bestAsk != null && bestBidStopOrder.getPrice() >= bestAsk.getPrice()) {
+    }
 
-            int matchedSize = getMatchedSize(bestBidStopOrder, bestAsk);
-            bestBidStopOrder.reduceSize(matchedSize);
-            bestAsk.reduceSize(matchedSize);
+    /**
+     * Assegna a un ordine accettato dal book l'ID univoco e il numero di sequenza che ne stabilisce la priorità temporale.
+     *
+     * @param order L'ordine accettato.
+     * @return L'ID assegnato all'ordine.
+     */
+    private long acceptOrder(Order order) {
+        long newOrderId = orderIdGenerator.getAndIncrement();
+        order.setOrderId(newOrderId);
+        order.setSequence(++sequenceNumber);
+        return newOrderId;
+    }
 
-            System.out.printf("Matched %d BTC at price %d USD\n", matchedSize, bestAsk.getPrice());
-            Order orderAsk = new StopOrder(bestAsk.getType(), matchedSize, bestAsk.getPrice(), bestAsk.getOrderId(), System.currentTimeMillis(), bestAsk.getSession(),null);
-            Order orderBid = new StopOrder(bestBidStopOrder.getType(), matchedSize, bestBidStopOrder.getPrice(), bestBidStopOrder.getOrderId(), System.currentTimeMillis(), bestBidStopOrder.getSession(),null);
-            jsonParsing.addOrderToHistory(orderBid);
-            jsonParsing.addOrderToHistory(orderAsk);
-            notifyClient(orderBid, "stop");
-            notifyClient(orderAsk, "stop");
-            sendNotificationMulticast(orderAsk, THRESHOLD);
+    /**
+     * Verifica la coerenza dei due lati del book: i totali mantenuti incrementalmente
+     * devono corrispondere al contenuto dei livelli. Il costo è lineare nel numero di ordini,
+     * per questo nel server viene invocato solo tramite {@code assert} (JVM avviata con -ea);
+     * {@link OrderBookInvariantTest} lo invoca dopo ogni operazione di una sequenza casuale.
+     *
+     * @return true se il book è coerente.
+     * @throws IllegalStateException se viene trovata un'incoerenza.
+     */
+    public synchronized boolean checkInvariants() {
+        return bidOrders.checkInvariants() && askOrders.checkInvariants()
+                && stopBuyOrders.checkInvariants() && stopSellOrders.checkInvariants() && checkUserOrders();
+    }
 
-            if (bestBidStopOrder.getSize() == 0) {
-                activeOrders.remove(bestBidStopOrder.getOrderId());
-                stopBuyOrders.poll();
+    //Ogni ordine delle liste per utente deve essere attivo e appartenere all'utente della lista
+    private boolean checkUserOrders() {
+        int linked = 0;
+        if (orderStore != null) {
+            for (int userIndex = 0; userIndex < orderStore.getUserCapacity(); userIndex++) {
+                for (int slot = orderStore.firstOrderOf(userIndex); slot >= 0; slot = orderStore.getUserNext(slot)) {
+                    if (orderStore.getUserIndex(slot) != userIndex || orderStore.find(orderStore.getOrderId(slot)) != slot) {
+                        throw new IllegalStateException("Lista degli ordini dell'utente " + userIndex + " incoerente");
+                    }
+                    linked++;
+                }
             }
-            if (bestAsk.getSize() == 0) {
-                activeOrders.remove(bestAsk.getOrderId());
-                askOrders.poll();
+            if (linked > orderStore.getUsedSlots()) {
+                throw new IllegalStateException("Liste per utente con " + linked + " ordini su " + orderStore.getUsedSlots() + " in memoria");
             }
+            return true;
         }
+        for (int userIndex = 0; userIndex < userOrders.length; userIndex++) {
+            for (Order order = userOrders[userIndex]; order != null; order = order.userNext) {
+                if (order.getUserIndex() != userIndex || activeOrders.get(order.getOrderId()) != order
+                        || (order.userNext != null && order.userNext.userPrev != order)) {
+                    throw new IllegalStateException("Lista degli ordini dell'utente " + userIndex + " incoerente");
+                }
+                linked++;
+            }
+        }
+        if (linked > activeOrders.size()) {
+            throw new IllegalStateException("Liste per utente con " + linked + " ordini su " + activeOrders.size() + " attivi");
+        }
+        return true;
+    }
+
+    /**
+     * Inserisce un ordine stop e lo monitora fino a quando il prezzo dell'ultimo scambio raggiunge la soglia stabilita.
+     * Un ordine stop di acquisto si attiva quando l'ultimo prezzo è maggiore o uguale alla soglia,
+     * uno di vendita quando è minore o uguale. Se la soglia è già stata raggiunta l'ordine viene attivato subito.
+     *
+     * @param order  L'ordine stop da inserire.
+     * @param result La risposta da compilare.
+     * @return Un oggetto Response contenente l'ID del nuovo ordine.
+     */
+    public synchronized Response insertStopOrder(Order order, Response result) {
+        beginWrite();
+        try {
+            //Gli order.StopOrder vengono monitorati ma attivati solo quando il prezzo raggiunge la soglia
+            if (!hasRestingCapacity()) {
+                return ORDER_STORE_FULL;
+            }
+            acceptOrder(order);
+            trackActiveOrder(order);
+            if (order.isBid()) {
+                stopBuyOrders.add(order);
+            } else {
+                stopSellOrders.add(order);
+            }
+            processTriggeredStops();
+            return result.set(0, null, order.getOrderId());
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Attiva gli ordini stop la cui soglia è stata raggiunta dal prezzo dell'ultimo scambio e li esegue
+     * come ordini di mercato. Ogni esecuzione aggiorna l'ultimo prezzo e può attivare altri stop:
+     * il ciclo prosegue finché nessuna nuova soglia viene raggiunta.
+     * Il costo è proporzionale al numero di stop attivati, mai a quello degli stop in attesa.
+     */
+    private void processTriggeredStops() {
+        while (lastTradePrice > 0) {
+            //Per gli ordini stop il prezzo dell'ordine è il prezzo di attivazione
+            Order triggered = stopBuyOrders.peek();
+            if (triggered != null && triggered.getPrice() <= lastTradePrice) {
+                stopBuyOrders.remove(triggered);
+            } else {
+                triggered = stopSellOrders.peek();
+                if (triggered == null || triggered.getPrice() < lastTradePrice) {
+                    return;
+                }
+                stopSellOrders.remove(triggered);
+            }
+            executeTriggeredStop(triggered);
+        }
+    }
+
+    /**
+     * Esegue un ordine stop attivato come ordine di mercato.
+     * Come per gli ordini di mercato, se la liquidità del lato opposto non basta a eseguirlo completamente
+     * l'ordine viene scartato e il proprietario riceve una notifica di rifiuto.
+     *
+     * @param stopOrder L'ordine stop attivato.
+     */
+    private void executeTriggeredStop(Order stopOrder) {
+        BookSide targetQueue = stopOrder.isBid() ? askOrders : bidOrders;
+        untrackActiveOrder(stopOrder);
+        if (targetQueue.isEmpty() || targetQueue.getTotalQuantity() < stopOrder.getSize()) {
+            notificationDispatcher.publishRejection(instrument, "stop", stopOrder.getSide(), stopOrder.getSize(), lastTradePrice,
+                    stopOrder.getOrderId(), stopOrder.getUserIndex());
+            return;
+        }
+        executeMarketOrder(stopOrder, targetQueue, stopOrder.getSize());
     }
 
     /**
@@ -224,47 +640,55 @@ public class OrderBook {
      * Se il nuovo ordine diventa il migliore nel book, si tenta di eseguire il matching
      * e di processare eventuali ordini stop corrispondenti.
      *
-     * @param order L'ordine limit da inserire.
+     * @param order  L'ordine limit da inserire.
+     * @param result La risposta da compilare.
      * @return Un oggetto Response contenente l'ID dell'ordine appena inserito.
      */
 
-    public synchronized Response insertLimitOrder(LimitOrder order) {
-        long newOrderId = orderIdGenerator.getAndIncrement();
-        order.setOrderId(newOrderId);
+    public synchronized Response insertLimitOrder(Order order, Response result) {
+        beginWrite();
+        try {
+            if (!hasRestingCapacity()) {
+                return ORDER_STORE_FULL;
+            }
+            acceptOrder(order);
 
-        activeOrders.put(newOrderId, order);
-        if (order.getType().equals("bid")) {
+            trackActiveOrder(order);
+            if (order.isBid()) {
 
-            if (bidOrders.isEmpty()) {
-                bidOrders.offer(order);
-                processMatching(order);
-                processAskStopOrder();
-                return new Response(0, null, order.getOrderId(), null);
-            }
-            long id = bidOrders.peek().getOrderId();
-            bidOrders.offer(order);
-            if (bidOrders.peek().getOrderId() != id) {
-                processMatching(order);
-                //Controllo se ci sono degli ordini StopBid da evadere con stopPrice conveniente
-                processAskStopOrder();
-            }
-        } else if (order.getType().equals("ask")) {
-            if (askOrders.isEmpty()) {
-                askOrders.offer(order);
-                processMatching(order);
-                processBidStopOrders();
-                return new Response(0, null, order.getOrderId(), null);
-            }
+                if (bidOrders.isEmpty()) {
+                    bidOrders.add(order);
+                    processMatching(order);
+                    processTriggeredStops();
+                    return result.set(0, null, order.getOrderId());
+                }
+                long id = bidOrders.peek().getOrderId();
+                bidOrders.add(order);
+                if (bidOrders.peek().getOrderId() != id) {
+                    processMatching(order);
+                    //Controllo se l'ultimo scambio ha attivato degli ordini stop
+                    processTriggeredStops();
+                }
+            } else {
+                if (askOrders.isEmpty()) {
+                    askOrders.add(order);
+                    processMatching(order);
+                    processTriggeredStops();
+                    return result.set(0, null, order.getOrderId());
+                }
 
-            long id = askOrders.peek().getOrderId();
-            askOrders.offer(order);
-            if (askOrders.peek().getOrderId() != id) {
-                processMatching(order);
-                //Controllo se ci sono degli ordini StopAsk da evadere con stopPrice conveniente
-                processBidStopOrders();
+                long id = askOrders.peek().getOrderId();
+                askOrders.add(order);
+                if (askOrders.peek().getOrderId() != id) {
+                    processMatching(order);
+                    //Controllo se l'ultimo scambio ha attivato degli ordini stop
+                    processTriggeredStops();
+                }
             }
+            return result.set(0, null, order.getOrderId());
+        } finally {
+            endWrite();
         }
-        return new Response(0, null, order.getOrderId(), null);
     }
 
     /**
@@ -274,64 +698,95 @@ public class OrderBook {
      * Gli ordini vengono ridotti man mano che vengono abbinati e salvati nello storico.
      * Se un ordine viene completamente esaurito, viene rimosso dal book.
      *
-     * @param order L'ordine di mercato da eseguire.
+     * @param order  L'ordine di mercato da eseguire.
+     * @param result La risposta da compilare.
      * @return Un oggetto Response che indica se l'ordine è stato completamente abbinato o meno.
      */
 
-    public synchronized Response insertMarketOrder(MarketOrder order) {
-        order.getSession().getUser().updateLastActiveTime();
-        Queue<Order> targetQueue;
-        if (order.getType().equals("bid")) {
-            targetQueue = askOrders;
-        } else {
-            targetQueue = bidOrders;
-        }
-        int sum = 0;
-        if (targetQueue.isEmpty()) {
-            return new Response(0, null, -1, null);
+    public synchronized Response insertMarketOrder(Order order, Response result) {
+        beginWrite();
+        try {
+            BookSide targetQueue;
+            if (order.isBid()) {
+                targetQueue = askOrders;
+            } else {
+                targetQueue = bidOrders;
+            }
+            //controllo in O(1) se la quantità totale del lato opposto basta per eseguire il marketOrder
+            if (targetQueue.isEmpty() || targetQueue.getTotalQuantity() < order.getSize()) {
+                return MARKET_ORDER_REJECTED;
+            }
+            acceptOrder(order); // Generazione dell'ID prima del matching
+            executeMarketOrder(order, targetQueue, order.getSize());
+            processTriggeredStops();
+            return result.set(100, "Market order fully matched", order.getOrderId());
+
+        } finally {
+            endWrite();
         }
-        //controllo se è possibile fare un marketOrder con tutti gli elementi nella coda
-        for (Order order_ : targetQueue) {
-            sum += order_.getSize();
+    }
+
+    /**
+     * Esegue subito un ordine limit o di mercato con validità IOC o FOK, in un'unica passata e senza mai
+     * lasciarlo nel book. Per un ordine limit la liquidità utile è solo quella ai prezzi uguali o migliori del limite.
+     * Un ordine IOC esegue quanto possibile e scarta il resto; un ordine FOK viene scartato se non può
+     * essere eseguito per intero. Se non è eseguibile nulla l'ordine non riceve un ID.
+     *
+     * @param order  L'ordine da eseguire.
+     * @param result La risposta da compilare.
+     * @return Un oggetto Response con l'ID dell'ordine e la quantità eseguita, oppure ID -1 se l'ordine è stato scartato.
+     */
+    private Response insertImmediateOrder(Order order, Response result) {
+        BookSide targetQueue = order.isBid() ? askOrders : bidOrders;
+        long available = order.getOrderType() == Order.MARKET ? targetQueue.getTotalQuantity()
+                : targetQueue.getQuantityUpTo(order.getPrice(), order.getSize());
+        if (available == 0 || (order.getTimeInForce() == Order.FOK && available < order.getSize())) {
+            return IMMEDIATE_ORDER_REJECTED;
         }
-        if (sum < order.getSize()) {
-            return new Response(0, null, -1, null);
+        int matchedSize = (int) Math.min(order.getSize(), available);
+        acceptOrder(order);
+        executeMarketOrder(order, targetQueue, matchedSize);
+        processTriggeredStops();
+        if (matchedSize == order.getSize()) {
+            return result.set(100, "Order fully matched", order.getOrderId());
         }
-        int remainingSize = order.getSize();
-        long newOrderId = orderIdGenerator.getAndIncrement(); // Generazione dell'ID prima del matching
-        order.setOrderId(newOrderId);
-        //timestamp = System.currentTimeMillis()
+        return result.setPartialFill("Order partially matched", order.getOrderId(), matchedSize, order.getSize());
+    }
+
+    /**
+     * Esegue un ordine al meglio contro i livelli del lato opposto, dal prezzo migliore in poi.
+     * La liquidità disponibile (entro il limite di prezzo, per un ordine limit) deve essere già stata verificata dal chiamante.
+     *
+     * @param order       L'ordine da eseguire (di mercato, stop attivato o limit IOC/FOK), con ID già assegnato.
+     * @param targetQueue Il lato opposto del book.
+     * @param size        La quantità da eseguire.
+     */
+    private void executeMarketOrder(Order order, BookSide targetQueue, int size) {
+        byte type = order.getOrderType();
+        String orderType = type == Order.STOP ? "stop" : type == Order.LIMIT ? "limit" : "market";
+        int remainingSize = size;
         while (remainingSize > 0) {
             Order bestOrder = targetQueue.peek();
 
-
             int matchedSize = Math.min(remainingSize, bestOrder.getSize());
             remainingSize -= matchedSize;
-            bestOrder.reduceSize(matchedSize);
+            targetQueue.fill(bestOrder, matchedSize);
+            lastTradePrice = bestOrder.getPrice();
 
-            //inserisco ordine market order nello storico
-            System.out.printf("order.Order %d matched with %d BTC at price %d USD\n", order.getOrderId(), matchedSize, bestOrder.getPrice());
-            Order orderToSave = new MarketOrder(order.getType(), matchedSize, bestOrder.getPrice(), newOrderId, System.currentTimeMillis(), order.getSession());
-            Order orderToSend = new MarketOrder(order.getType(), matchedSize, bestOrder.getPrice(), newOrderId, System.currentTimeMillis(), bestOrder.getSession());
-            jsonParsing.addOrderToHistory(orderToSave);
+            //inserisco nello storico la parte eseguita dell'ordine di mercato (o stop)
+            int price = bestOrder.getPrice();
+            tradeJournal.append(order.getOrderId(), order.getSide(), type, matchedSize, price);
 
-            notifyClient(orderToSave, "market");
-            notifyClient(orderToSend, "market");
-            if (orderToSave.getType().equals("ask")) {
-                sendNotificationMulticast(orderToSave, THRESHOLD);
-            } else if (orderToSend.getType().equals("ask")) {
-                sendNotificationMulticast(orderToSend, THRESHOLD);
-            }
+            notifyClient(order, orderType, matchedSize, price);
+            notifyClient(bestOrder, orderType, matchedSize, price);
+            notifyPublicTrade(order, order.getSide(), orderType, matchedSize, price);
+            //la soglia si riferisce alla parte ask dello scambio
+            sendNotificationMulticast(order.isBid() ? bestOrder : order, price, THRESHOLD);
 
             if (bestOrder.getSize() == 0) {
-                activeOrders.remove(bestOrder.getOrderId());
-                targetQueue.poll();
+                untrackActiveOrder(bestOrder);
             }
-
-
         }
-        return new Response(100, "Market order fully matched", order.getOrderId(), null);
-
     }
 
     /**
@@ -342,47 +797,51 @@ public class OrderBook {
      * @param orderToProcess L'ordine che ha innescato il processo di matching.
      */
     public synchronized void processMatching(Order orderToProcess) {
-        while (!bidOrders.isEmpty() && !askOrders.isEmpty()) {
-            Order bestBid = bidOrders.peek();
-            Order bestAsk = askOrders.peek();
-
-            if (bestBid.getPrice() >= bestAsk.getPrice()) {
-                int matchedSize = getMatchedSize(bestBid, bestAsk);
-                bestBid.reduceSize(matchedSize);
-                bestAsk.reduceSize(matchedSize);
-
-                System.out.printf("Matched %d BTC at price %d USD\n", matchedSize, bestAsk.getPrice());
-
-                Order orderAsk = new LimitOrder("ask", matchedSize, bestAsk.getPrice(), orderToProcess.getOrderId(), System.currentTimeMillis(), bestAsk.getSession(),null);
-                Order orderBid = new LimitOrder("bid", matchedSize, bestBid.getPrice(), orderToProcess.getOrderId(), System.currentTimeMillis(), bestBid.getSession(),null);
-                jsonParsing.addOrderToHistory(orderAsk);
-                jsonParsing.addOrderToHistory(orderBid);
-                //Notifico l'avvenuta finalizzazione al client se interessato
-                notifyClient(orderAsk, "limit");
-                notifyClient(orderBid, "limit");
-                sendNotificationMulticast(orderAsk, THRESHOLD);
-
-                if (bestBid.getSize() == 0) {
-                    activeOrders.remove(bestBid.getOrderId());
-                    bidOrders.poll();
-                }
-                if (bestAsk.getSize() == 0) {
-                    activeOrders.remove(bestAsk.getOrderId());
-                    askOrders.poll();
+        beginWrite();
+        try {
+            while (!bidOrders.isEmpty() && !askOrders.isEmpty()) {
+                Order bestBid = bidOrders.peek();
+                Order bestAsk = askOrders.peek();
+
+                if (bestBid.getPrice() >= bestAsk.getPrice()) {
+                    int matchedSize = getMatchedSize(bestBid, bestAsk);
+                    bidOrders.fill(bestBid, matchedSize);
+                    askOrders.fill(bestAsk, matchedSize);
+                    lastTradePrice = bestAsk.getPrice();
+
+                    //Le due parti vengono scritte direttamente nei record preallocati di storico e notifiche
+                    tradeJournal.append(bestAsk.getOrderId(), Order.ASK, Order.LIMIT, matchedSize, bestAsk.getPrice());
+                    tradeJournal.append(bestBid.getOrderId(), Order.BID, Order.LIMIT, matchedSize, bestBid.getPrice());
+                    //Notifico l'avvenuta finalizzazione al client se interessato
+                    notifyClient(bestAsk, "limit", matchedSize, bestAsk.getPrice());
+                    notifyClient(bestBid, "limit", matchedSize, bestBid.getPrice());
+                    //l'ordine arrivato per ultimo è quello che ha attraversato il book
+                    byte aggressorSide = bestBid.getSequence() > bestAsk.getSequence() ? Order.BID : Order.ASK;
+                    notifyPublicTrade(bestAsk, aggressorSide, "limit", matchedSize, bestAsk.getPrice());
+                    sendNotificationMulticast(bestAsk, bestAsk.getPrice(), THRESHOLD);
+
+                    if (bestBid.getSize() == 0) {
+                        untrackActiveOrder(bestBid);
+                    }
+                    if (bestAsk.getSize() == 0) {
+                        untrackActiveOrder(bestAsk);
+                    }
+                } else {
+                    break;
                 }
-            } else {
-                break;
             }
+        } finally {
+            endWrite();
         }
     }
 
     /**
-     * Determina la quantità di BTC che può essere scambiata tra il miglior bid e il miglior ask.
+     * Determina la quantità dello strumento che può essere scambiata tra il miglior bid e il miglior ask.
      * Il valore restituito è il minimo tra la quantità disponibile nei due ordini.
      *
      * @param bestBid Il miglior ordine di acquisto attuale.
      * @param bestAsk Il miglior ordine di vendita attuale.
-     * @return La quantità di BTC che può essere scambiata.
+     * @return La quantità dello strumento che può essere scambiata.
      */
     private int getMatchedSize(Order bestBid, Order bestAsk) {
         int matchedSize = Math.min(bestBid.getSize(), bestAsk.getSize());
@@ -398,136 +857,293 @@ public class OrderBook {
      * @return Un oggetto Response che indica l'esito della cancellazione.
      */
     public synchronized Response cancelOrder(long orderId, String currentUser) {
-        Order order = activeOrders.get(orderId);
-        //Order order = activeOrders.remove(orderId);
-        if (order == null) {
-            return new Response(101, "order does not exist or belongs to different user or has already been finalized or other error cases", 0, null); //Ordine non trovato
+        beginWrite();
+        try {
+            Order order = findActiveOrder(orderId);
+            //Order order = activeOrders.remove(orderId);
+            if (order == null) {
+                return CANCEL_REJECTED; //Ordine non trovato
+            }
+            if (order.getUserIndex() < 0 || order.getUserIndex() != userDatabase.getUserIndex(currentUser)) {
+                return CANCEL_REJECTED; //Ordine non trovato
+            }
+
+            untrackActiveOrder(order);
+            //Gli stop non ancora attivati vanno rimossi dall'indice, altrimenti verrebbero eseguiti comunque
+            sideOf(order).remove(order);
+            assert checkInvariants();
+            System.out.printf("order.Order %d cancelled successfully\n", orderId);
+            return CANCEL_OK;
+        } finally {
+            endWrite();
         }
-        if(!order.getUserPropertyName().equals(currentUser)){
-            return new Response(101, "order does not exist or belongs to different user or has already been finalized or other error cases", 0, null); //Ordine non trovato
+    }
+
+    /**
+     * Cancella tutti gli ordini in attesa (limit e stop) di un utente, inclusa l'eventuale quotazione.
+     * Gli ordini vengono letti dalla lista per utente, quindi il costo è proporzionale al numero di ordini
+     * dell'utente e non alla profondità del book.
+     *
+     * @param currentUser L'utente di cui cancellare gli ordini.
+     * @return Il numero di ordini cancellati.
+     */
+    public synchronized int cancelAllOrders(String currentUser) {
+        beginWrite();
+        try {
+            int userIndex = userDatabase.getUserIndex(currentUser);
+            if (userIndex < 0) {
+                return 0;
+            }
+            int cancelled = 0;
+            Order order;
+            while ((order = firstUserOrder(userIndex)) != null) {
+                untrackActiveOrder(order);
+                sideOf(order).remove(order);
+                cancelled++;
+            }
+            quotes.remove(userIndex);
+            assert checkInvariants();
+            if (cancelled > 0) {
+                System.out.printf("%d ordini di %s cancellati dal book %s\n", cancelled, currentUser, instrument);
+            }
+            return cancelled;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Modifica in modo atomico quantità e/o prezzo di un ordine limit o stop in attesa, senza che nessun altro
+     * ordine possa inserirsi tra la cancellazione e il reinserimento.
+     * Una riduzione della quantità allo stesso prezzo mantiene la posizione dell'ordine nella coda del livello;
+     * un cambio di prezzo o un aumento della quantità equivalgono a un nuovo inserimento con lo stesso ID,
+     * quindi l'ordine perde la priorità e può essere eseguito subito se incrocia il lato opposto.
+     *
+     * @param orderId     L'ID dell'ordine da modificare.
+     * @param size        La nuova quantità, 0 per lasciarla invariata.
+     * @param price       Il nuovo prezzo (limite o di attivazione), 0 per lasciarlo invariato.
+     * @param currentUser L'utente che richiede la modifica.
+     * @return Un oggetto Response con l'ID dell'ordine modificato, oppure un codice di errore.
+     */
+    public synchronized Response modifyOrder(long orderId, int size, int price, String currentUser) {
+        beginWrite();
+        try {
+            if (size < 0 || price < 0) {
+                return MODIFY_INVALID;
+            }
+            Order order = findActiveOrder(orderId);
+            if (order == null || order.getUserIndex() < 0 || order.getUserIndex() != userDatabase.getUserIndex(currentUser)) {
+                return CANCEL_REJECTED; //Ordine non trovato
+            }
+            int newSize = size == 0 ? order.getSize() : size;
+            int newPrice = price == 0 ? order.getPrice() : price;
+            BookSide side = sideOf(order);
+            if (newPrice == order.getPrice() && newSize <= order.getSize()) {
+                if (newSize < order.getSize()) {
+                    side.reduce(order, order.getSize() - newSize);
+                }
+            } else {
+                side.remove(order);
+                order.replace(newSize, newPrice);
+                order.setSequence(++sequenceNumber);
+                side.add(order);
+                if (order.getOrderType() == Order.LIMIT) {
+                    processMatching(order);
+                }
+                processTriggeredStops();
+            }
+            assert checkInvariants();
+            return new Response(100, "OK", orderId, null);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Sostituisce in un unico passo la quotazione a due lati (bid e ask) di un utente.
+     * Ogni lato della quotazione precedente ancora in attesa viene modificato come con {@link #modifyOrder},
+     * quindi una riduzione della quantità allo stesso prezzo mantiene la priorità; un lato già eseguito o assente
+     * viene reinserito come nuovo ordine limit. Una quantità 0 ritira il lato corrispondente.
+     * Se il nuovo bid incrocerebbe l'ask precedente dello stesso utente, viene aggiornato prima l'ask.
+     *
+     * @param bidSize     La quantità in acquisto, 0 per ritirare il bid.
+     * @param bidPrice    Il prezzo del bid.
+     * @param askSize     La quantità in vendita, 0 per ritirare l'ask.
+     * @param askPrice    Il prezzo dell'ask.
+     * @param currentUser L'utente che quota.
+     * @return Una risposta che contiene gli esiti del bid e dell'ask, in quest'ordine; 101 se l'utente non esiste,
+     *         103 se una quantità è negativa, un prezzo non è positivo o il bid incrocia l'ask.
+     */
+    public synchronized Response quote(int bidSize, int bidPrice, int askSize, int askPrice, String currentUser) {
+        beginWrite();
+        try {
+            int userIndex = userDatabase.getUserIndex(currentUser);
+            if (userIndex < 0) {
+                return CANCEL_REJECTED;
+            }
+            if (bidSize < 0 || askSize < 0 || (bidSize > 0 && bidPrice <= 0) || (askSize > 0 && askPrice <= 0)) {
+                return MODIFY_INVALID;
+            }
+            if (bidSize > 0 && askSize > 0 && bidPrice >= askPrice) {
+                return QUOTE_INVALID;
+            }
+            long[] quote = quotes.computeIfAbsent(userIndex, k -> new long[2]);
+            Order previousAsk = quote[1] == 0 ? null : findActiveOrder(quote[1]);
+            Response bidResult;
+            Response askResult;
+            if (previousAsk != null && bidSize > 0 && bidPrice >= previousAsk.getPrice()) {
+                askResult = replaceQuote(quote, 1, Order.ASK, askSize, askPrice, userIndex, currentUser);
+                bidResult = replaceQuote(quote, 0, Order.BID, bidSize, bidPrice, userIndex, currentUser);
+            } else {
+                bidResult = replaceQuote(quote, 0, Order.BID, bidSize, bidPrice, userIndex, currentUser);
+                askResult = replaceQuote(quote, 1, Order.ASK, askSize, askPrice, userIndex, currentUser);
+            }
+            if (quote[0] == 0 && quote[1] == 0) {
+                quotes.remove(userIndex);
+            }
+            List<Response> results = new ArrayList<>(2);
+            results.add(bidResult);
+            results.add(askResult);
+            return new Response(100, "OK", results);
+        } finally {
+            endWrite();
         }
+    }
 
-        activeOrders.remove(orderId);
-        if (order.getType().equals("bid")) {
-            bidOrders.remove(order);
+    /**
+     * Sostituisce un lato della quotazione di un utente e ne aggiorna l'ID registrato.
+     *
+     * @param quote     Gli ID della quotazione in vigore {bid, ask}.
+     * @param index     0 per il bid, 1 per l'ask.
+     * @param side      Il lato dell'ordine.
+     * @param size      La nuova quantità, 0 per ritirare il lato.
+     * @param price     Il nuovo prezzo.
+     * @param userIndex L'indice dell'utente che quota.
+     * @param username  L'utente che quota.
+     * @return L'esito della modifica, della cancellazione o dell'inserimento.
+     */
+    private Response replaceQuote(long[] quote, int index, byte side, int size, int price, int userIndex, String username) {
+        long previousId = quote[index];
+        quote[index] = 0;
+        Response response;
+        if (previousId != 0 && findActiveOrder(previousId) != null) {
+            response = size == 0 ? cancelOrder(previousId, username) : modifyOrder(previousId, size, price, username);
+        } else if (size == 0) {
+            return CANCEL_OK;
         } else {
-            askOrders.remove(order);
+            response = insertLimitOrder(new LimitOrder(side, size, price, 0, userIndex), new Response());
+        }
+        long orderId = size == 0 ? 0 : response.getOrderId();
+        //un lato eseguito per intero non fa più parte della quotazione
+        if (orderId > 0 && findActiveOrder(orderId) != null) {
+            quote[index] = orderId;
         }
-        System.out.printf("order.Order %d cancelled successfully\n", orderId);
-        return new Response(100, "OK", 0, null);
+        return response;
+    }
+
+    /**
+     * Restituisce il lato del book (o l'indice degli stop) che contiene un ordine in attesa.
+     *
+     * @param order L'ordine in attesa.
+     * @return Il lato del book dell'ordine.
+     */
+    private BookSide sideOf(Order order) {
+        if (order.getOrderType() == Order.STOP) {
+            return order.isBid() ? stopBuyOrders : stopSellOrders;
+        }
+        return order.isBid() ? bidOrders : askOrders;
     }
 
     /**
      * Restituisce la cronologia dei prezzi per un determinato mese e anno.
-     * Gli ordini vengono raggruppati per giorno e analizzati per ottenere i dati di prezzo giornalieri.
-     * Se non ci sono ordini disponibili per il mese richiesto, viene restituito un codice di errore.
+     * Le candele giornaliere sono aggiornate in memoria a ogni scambio, quindi la richiesta non legge
+     * gli scambi e non acquisisce il lock del book: il costo dipende solo dai giorni del mese.
+     * Se non ci sono scambi nel mese richiesto, viene restituito un codice di errore.
      *
      * @param month Il mese di riferimento (1-12).
      * @param year  L'anno di riferimento.
      * @return Un oggetto Response contenente i dati della cronologia dei prezzi giornalieri o un codice di errore.
      */
-    public synchronized Response getPriceHistory(int month, int year) {
-        List<DayPriceData> dayPrices = new ArrayList<>();
-        Map<LocalDate, List<Order>> ordersByDay = new HashMap<>();
-
-        List<Order> orders = loadOrders();
-        for (Order order : orders) {
-            ZonedDateTime orderDate = Instant.ofEpochSecond(order.getTimestamp()).atZone(ZoneOffset.UTC);
-
-            if (orderDate.getMonthValue() == month && orderDate.getYear() == year) {
-                LocalDate orderDay = orderDate.toLocalDate();
-                if (!ordersByDay.containsKey(orderDay)) {
-                    ordersByDay.put(orderDay, new ArrayList<>()); //mette alla chiave del giorno un array degli ordini evasi quel giorno
-                }
-                ordersByDay.get(orderDay).add(order);
-            }
-        }
-        if (ordersByDay.isEmpty()) {
+    public Response getPriceHistory(int month, int year) {
+        List<DayPriceData> dayPrices = tradeJournal.getPriceHistory(month, year);
+        if (dayPrices.isEmpty()) {
             return new Response(202, "no price history found for the given month", 0, null);
         }
-
-        for (Map.Entry<LocalDate, List<Order>> entry : ordersByDay.entrySet()) {
-            DayPriceData data = getDayPriceData(entry);
-            dayPrices.add(data);
-
-        }
         return new Response(0, null, 0, dayPrices);
     }
 
-
     /**
-     * Calcola i dati giornalieri di prezzo per un determinato giorno, basandosi sugli ordini disponibili.
-     * Determina il prezzo di apertura, chiusura, massimo e minimo della giornata.
+     * Restituisce le candele di durata inferiore al giorno degli scambi di un mese.
+     * Le candele vengono calcolate scorrendo gli scambi del mese nel segmento binario della partizione
+     * (o, se non disponibile, nel file JSON), senza acquisire il lock del book.
+     * Se non ci sono scambi nel mese richiesto, viene restituito un codice di errore.
      *
-     * @param entry Una coppia chiave-valore contenente la data e la lista degli ordini eseguiti in quel giorno.
-     * @return Un oggetto DayPriceData che rappresenta il riepilogo dei prezzi per il giorno specificato.
+     * @param month           Il mese di riferimento (1-12).
+     * @param year            L'anno di riferimento.
+     * @param intervalMinutes La durata di ogni candela in minuti, divisore di un giorno.
+     * @return Un oggetto Response contenente le candele in ordine di tempo o un codice di errore.
      */
-    private DayPriceData getDayPriceData(Map.Entry<LocalDate, List<Order>> entry) {
-        LocalDate day = entry.getKey();
-        List<Order> dayOrders = entry.getValue();
-
-        int openPrice = dayOrders.get(0).getPrice();
-        int closePrice = dayOrders.get(dayOrders.size() - 1).getPrice();
-
-        int maxPrice = Integer.MIN_VALUE;
-        int minPrice = Integer.MAX_VALUE;
-
-        for (Order order : dayOrders) {
-            int price = order.getPrice();
-            if (price > maxPrice) {
-                maxPrice = price;
-            }
-            if (price < minPrice) {
-                minPrice = price;
-            }
+    public Response getPriceHistory(int month, int year, int intervalMinutes) {
+        YearMonth yearMonth = YearMonth.of(year, month);
+        long monthStart = yearMonth.atDay(1).toEpochDay() * 86400L;
+        long monthEnd = yearMonth.plusMonths(1).atDay(1).toEpochDay() * 86400L - 1;
+        List<DayPriceData> candles = new ArrayList<>();
+        tradeJournal.forEachCandle(monthStart, monthEnd, intervalMinutes * 60L, (startTimestamp, openPrice, closePrice, maxPrice, minPrice, volume) -> {
+            LocalDateTime start = LocalDateTime.ofEpochSecond(startTimestamp, 0, ZoneOffset.UTC);
+            candles.add(new DayPriceData(start.toLocalDate(), start.toLocalTime(), openPrice, closePrice, maxPrice, minPrice, volume));
+        });
+        if (candles.isEmpty()) {
+            return new Response(202, "no price history found for the given month", 0, null);
         }
-
-        //Creo un oggetto order.DayPriceData per rappresentare il "candelstick" del giorno
-        DayPriceData data = new DayPriceData(day, openPrice, closePrice, maxPrice, minPrice);
-        return data;
+        return new Response(0, null, 0, candles);
     }
 
     /**
-     * Notifica tutti gli utenti attivi riguardo a un ordine eseguito.
-     * Il messaggio di notifica viene generato e inviato via UDP agli utenti attualmente loggati.
-     * Viene introdotta una breve pausa per evitare sovraccarico nella trasmissione delle notifiche.
+     * Notifica il proprietario di un ordine eseguito.
+     * L'evento viene solo pubblicato sulla coda asincrona delle notifiche e verrà inviato
+     * esclusivamente alla sessione che possiede l'ordine, fuori dalla sezione critica del book.
      *
-     * @param order     L'ordine per cui notificare i client.
+     * @param order     L'ordine per cui notificare il client proprietario.
      * @param orderType Il tipo di ordine (es. "market", "limit").
+     * @param size      La quantità eseguita.
+     * @param price     Il prezzo di esecuzione.
      */
-    private void notifyClient(Order order, String orderType) {
-        String message = jsonParsing.createNotificationResponse(order.getType(), order.getSize(), order.getPrice(), order.getOrderId(), orderType);
-
-        ConcurrentMap<String, UserSession> activeUsers = userDatabase.getLoggedInUsers();
-        for (Map.Entry<String, UserSession> entry : activeUsers.entrySet()) {
-            UserSession session = entry.getValue();
-            if (session.getAddressUDP() != null) {
-                InetSocketAddress addressUDP = session.getAddressUDP();
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    System.err.println("Errore nella sleep di notifyClient");
-                }
-                notificationSender.sendNotification(message, addressUDP);
+    private void notifyClient(Order order, String orderType, int size, int price) {
+        notificationDispatcher.publishFill(instrument, orderType, order.getSide(), size, price, order.getOrderId(), order.getUserIndex());
+    }
 
-            }
+    /**
+     * Pubblica le informazioni pubbliche di uno scambio (quantità e prezzo, senza dati dei partecipanti),
+     * inviate una sola volta: sul canale dei dati di mercato se attivo, altrimenti come notifica JSON multicast.
+     * I client ricevono entrambi i canali, quindi pubblicare su tutti e due duplicherebbe ogni scambio.
+     *
+     * @param order         Una delle due parti dello scambio.
+     * @param aggressorSide Il lato dell'ordine che ha generato lo scambio.
+     * @param orderType     Il tipo di ordine che ha generato lo scambio.
+     * @param size          La quantità scambiata.
+     * @param price         Il prezzo dello scambio.
+     */
+    private void notifyPublicTrade(Order order, byte aggressorSide, String orderType, int size, int price) {
+        if (marketDataFeed != null) {
+            marketDataFeed.publishTrade(instrumentSymbol, ++marketDataSequence, aggressorSide, size, price);
+        } else {
+            notificationDispatcher.publishPublicTrade(instrument, orderType, size, price, order.getOrderId());
         }
-
     }
 
     /**
      * Invia una notifica multicast agli utenti quando il prezzo di un ordine "ask" supera una soglia specificata.
-     * Se il prezzo di vendita raggiunge o supera il valore di soglia, viene generato e inviato un messaggio di notifica.
+     * Se il prezzo di vendita raggiunge o supera il valore di soglia, viene pubblicata la notifica;
+     * il messaggio viene costruito dal thread delle notifiche.
      *
      * @param order     L'ordine da valutare per l'invio della notifica.
+     * @param price     Il prezzo dello scambio.
      * @param threshold La soglia di prezzo oltre la quale inviare la notifica.
      */
-    private void sendNotificationMulticast(Order order, int threshold) {
-        if (order.getType().equals("ask")) {
-            if (order.getPrice() >= threshold) {
-
-                String message = jsonParsing.createThresholdNotification(threshold);
-                notificationSender.sendNotificationMulticast(message);
+    private void sendNotificationMulticast(Order order, int price, int threshold) {
+        if (!order.isBid()) {
+            if (price >= threshold) {
+                notificationDispatcher.publishThreshold(instrument, threshold, order.getOrderId());
             }
         }
     }
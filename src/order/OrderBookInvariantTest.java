@@ -0,0 +1,149 @@
+package order;
+
+import common.Response;
+import server.NotificationDispatcher;
+import server.NotificationSender;
+import user.UserDatabase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Esegue sequenze casuali di operazioni sul book e dopo ogni passo verifica con {@link OrderBook#checkInvariants()}
+ * che i totali di ciascun lato, usati dal controllo di liquidità degli ordini di mercato, corrispondano ai livelli.
+ * Le operazioni comprendono ordini limit e di mercato GTC, IOC e FOK (eseguiti, eseguiti in parte o rifiutati),
+ * ordini stop attivati dagli scambi, cancellazioni, modifiche, quotazioni e cancellazione di tutti gli ordini di un utente.
+ * La stessa sequenza viene ripetuta su un book con ordini sull'heap, su uno con ordini off-heap
+ * e su uno con banda di prezzi, i cui prezzi cadono sia dentro sia fuori dalla banda.
+ * <p>
+ * Esecuzione: {@code java -cp out:lib/gson-2.8.9.jar order.OrderBookInvariantTest}
+ */
+public class OrderBookInvariantTest {
+    private static final int STEPS = 20_000;
+    private static final int USERS = 4;
+    private static final int MID_PRICE = 100;
+    private static final int PRICE_SPREAD = 30; //prezzi tra 70 e 130, la banda copre 80-120
+    private static final long SEED = 20240501L;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("book-invariants");
+        UserDatabase userDatabase = new UserDatabase(directory.resolve("users.json").toString());
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            users.add("user" + i);
+            userDatabase.registerUser("user" + i, "Password" + i + "!");
+        }
+        TradeJournal tradeJournal = new TradeJournal(directory.resolve("trades").toString(), List.of(),
+                TradeJournal.Durability.NONE, 4096, 1000, 1 << 16, false);
+        NotificationDispatcher dispatcher = new NotificationDispatcher(userDatabase, new NotificationSender(0, 1), 1 << 16, 1);
+        AtomicLong orderIdGenerator = new AtomicLong(1);
+
+        boolean passed = run("heap", new OrderBook("HEAP", userDatabase, tradeJournal, dispatcher, orderIdGenerator, 0, null, null), users, userDatabase);
+        passed &= run("off-heap", new OrderBook("OFFHEAP", userDatabase, tradeJournal, dispatcher, orderIdGenerator, 1 << 14, null, null), users, userDatabase);
+        passed &= run("banda di prezzi", new OrderBook("BAND", userDatabase, tradeJournal, dispatcher, orderIdGenerator, 0,
+                new PriceBand(1, MID_PRICE - 20, MID_PRICE + 20), null), users, userDatabase);
+
+        tradeJournal.close();
+        dispatcher.shutDown();
+        System.out.println(passed ? "OK: i totali dei lati corrispondono ai livelli dopo ogni operazione"
+                : "ERRORE: totali dei lati incoerenti");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean run(String label, OrderBook book, List<String> users, UserDatabase userDatabase) {
+        Random random = new Random(SEED);
+        List<Long> orderIds = new ArrayList<>();
+        int[] operations = new int[9];
+        for (int step = 0; step < STEPS; step++) {
+            String user = users.get(random.nextInt(users.size()));
+            int userIndex = userDatabase.getUserIndex(user);
+            byte side = random.nextBoolean() ? Order.BID : Order.ASK;
+            int size = 1 + random.nextInt(20);
+            int price = MID_PRICE - PRICE_SPREAD + random.nextInt(2 * PRICE_SPREAD + 1);
+            int operation = random.nextInt(100);
+            String description;
+            Response response = null;
+            if (operation < 35) {
+                Order order = new LimitOrder(side, size, price, 0, userIndex);
+                order.setTimeInForce(timeInForce(random));
+                response = book.addOrder(order);
+                description = "limit " + Order.sideName(side) + " " + size + "@" + price + " tif " + order.getTimeInForce();
+                operations[0]++;
+            } else if (operation < 45) {
+                Order order = new MarketOrder(side, size, 0, 0, userIndex);
+                order.setTimeInForce(timeInForce(random));
+                response = book.addOrder(order);
+                description = "market " + Order.sideName(side) + " " + size + " tif " + order.getTimeInForce();
+                operations[1]++;
+            } else if (operation < 55) {
+                response = book.addOrder(new StopOrder(side, size, price, 0, userIndex));
+                description = "stop " + Order.sideName(side) + " " + size + "@" + price;
+                operations[2]++;
+            } else if (operation < 75) {
+                long orderId = pick(random, orderIds);
+                book.cancelOrder(orderId, user);
+                description = "cancel " + orderId;
+                operations[3]++;
+            } else if (operation < 90) {
+                long orderId = pick(random, orderIds);
+                int newSize = random.nextInt(3) == 0 ? 0 : size;
+                int newPrice = random.nextInt(3) == 0 ? 0 : price;
+                response = book.modifyOrder(orderId, newSize, newPrice, user);
+                description = "modify " + orderId + " " + newSize + "@" + newPrice;
+                operations[4]++;
+            } else if (operation < 97) {
+                int bidPrice = MID_PRICE - 1 - random.nextInt(PRICE_SPREAD);
+                int askPrice = MID_PRICE + 1 + random.nextInt(PRICE_SPREAD);
+                response = book.quote(size, bidPrice, 1 + random.nextInt(20), askPrice, user);
+                description = "quote " + size + "@" + bidPrice + "/" + askPrice;
+                operations[5]++;
+            } else {
+                book.cancelAllOrders(user);
+                description = "cancelAll " + user;
+                operations[6]++;
+            }
+            if (response != null && response.getOrderId() > 0) {
+                orderIds.add(response.getOrderId());
+            }
+            if (!check(book, label, step, description)) {
+                return false;
+            }
+        }
+        //Alla fine ogni utente cancella i propri ordini: i lati devono tornare vuoti e coerenti
+        for (String user : users) {
+            book.cancelAllOrders(user);
+        }
+        if (!check(book, label, STEPS, "cancelAll di tutti gli utenti")) {
+            return false;
+        }
+        System.out.printf("Book %s: %d passi verificati (limit %d, market %d, stop %d, cancel %d, modify %d, quote %d, cancelAll %d)%n",
+                label, STEPS, operations[0], operations[1], operations[2], operations[3], operations[4], operations[5], operations[6]);
+        return true;
+    }
+
+    private static boolean check(OrderBook book, String label, int step, String description) {
+        try {
+            if (book.checkInvariants()) {
+                return true;
+            }
+            System.out.println("Book " + label + ", passo " + step + " (" + description + "): invarianti non rispettati");
+        } catch (IllegalStateException e) {
+            System.out.println("Book " + label + ", passo " + step + " (" + description + "): " + e.getMessage());
+        }
+        return false;
+    }
+
+    private static byte timeInForce(Random random) {
+        int choice = random.nextInt(10);
+        return choice < 6 ? Order.GTC : choice < 8 ? Order.IOC : Order.FOK;
+    }
+
+    //Un ordine inserito in precedenza, che può essere ancora attivo, già eseguito o cancellato
+    private static long pick(Random random, List<Long> orderIds) {
+        return orderIds.isEmpty() ? 1 : orderIds.get(orderIds.size() - 1 - random.nextInt(Math.min(orderIds.size(), 200)));
+    }
+}
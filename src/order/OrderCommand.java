@@ -0,0 +1,185 @@
+package order;
+
+import common.Response;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Slot preallocato del ring buffer dei comandi diretti al motore di matching.
+ * I campi vengono scritti dal thread che pubblica il comando e letti dal thread del motore;
+ * la visibilità è garantita dalla scrittura volatile della sequenza in fase di pubblicazione.
+ */
+public class OrderCommand {
+    /**
+     * Tipi di comando gestiti dal motore di matching.
+     */
+    public enum Type {
+        ADD_ORDER,
+        ADD_ORDER_BATCH,
+        CANCEL_ORDER,
+        MODIFY_ORDER,
+        QUOTE,
+        CANCEL_ALL_ORDERS
+    }
+
+    volatile long publishedSequence = -1;
+
+    private Type type;
+    private Order order;
+    private List<Order> orders;
+    private long orderId;
+    private int size;
+    private int price;
+    private int askSize;
+    private int askPrice;
+    private String username;
+    private Response result;
+    private Consumer<Response> callback;
+
+    /**
+     * Prepara lo slot per l'inserimento di un nuovo ordine.
+     *
+     * @param order    L'ordine da inserire.
+     * @param result   La risposta preallocata che il motore compila con l'esito.
+     * @param callback La callback che riceverà la risposta.
+     */
+    void setAddOrder(Order order, Response result, Consumer<Response> callback) {
+        this.type = Type.ADD_ORDER;
+        this.order = order;
+        this.result = result;
+        this.callback = callback;
+    }
+
+    /**
+     * Prepara lo slot per l'inserimento di un batch di ordini, applicati in un'unica passata sul book.
+     *
+     * @param orders   Gli ordini da inserire, nell'ordine in cui applicarli.
+     * @param callback La callback che riceverà la risposta con l'esito di ogni ordine.
+     */
+    void setAddOrderBatch(List<Order> orders, Consumer<Response> callback) {
+        this.type = Type.ADD_ORDER_BATCH;
+        this.orders = orders;
+        this.callback = callback;
+    }
+
+    /**
+     * Prepara lo slot per la cancellazione di un ordine.
+     *
+     * @param orderId  L'ID dell'ordine da cancellare.
+     * @param username L'utente che richiede la cancellazione.
+     * @param callback La callback che riceverà la risposta.
+     */
+    void setCancelOrder(long orderId, String username, Consumer<Response> callback) {
+        this.type = Type.CANCEL_ORDER;
+        this.orderId = orderId;
+        this.username = username;
+        this.callback = callback;
+    }
+
+    /**
+     * Prepara lo slot per la cancellazione di tutti gli ordini in attesa di un utente.
+     *
+     * @param username L'utente di cui cancellare gli ordini.
+     * @param callback La callback che riceverà la risposta.
+     */
+    void setCancelAllOrders(String username, Consumer<Response> callback) {
+        this.type = Type.CANCEL_ALL_ORDERS;
+        this.username = username;
+        this.callback = callback;
+    }
+
+    /**
+     * Prepara lo slot per la modifica di quantità e/o prezzo di un ordine.
+     *
+     * @param orderId  L'ID dell'ordine da modificare.
+     * @param size     La nuova quantità, 0 per lasciarla invariata.
+     * @param price    Il nuovo prezzo, 0 per lasciarlo invariato.
+     * @param username L'utente che richiede la modifica.
+     * @param callback La callback che riceverà la risposta.
+     */
+    void setModifyOrder(long orderId, int size, int price, String username, Consumer<Response> callback) {
+        this.type = Type.MODIFY_ORDER;
+        this.orderId = orderId;
+        this.size = size;
+        this.price = price;
+        this.username = username;
+        this.callback = callback;
+    }
+
+    /**
+     * Prepara lo slot per la sostituzione della quotazione a due lati di un utente.
+     *
+     * @param bidSize  La quantità in acquisto, 0 per ritirare il bid.
+     * @param bidPrice Il prezzo del bid.
+     * @param askSize  La quantità in vendita, 0 per ritirare l'ask.
+     * @param askPrice Il prezzo dell'ask.
+     * @param username L'utente che quota.
+     * @param callback La callback che riceverà la risposta.
+     */
+    void setQuote(int bidSize, int bidPrice, int askSize, int askPrice, String username, Consumer<Response> callback) {
+        this.type = Type.QUOTE;
+        this.size = bidSize;
+        this.price = bidPrice;
+        this.askSize = askSize;
+        this.askPrice = askPrice;
+        this.username = username;
+        this.callback = callback;
+    }
+
+    /**
+     * Azzera i riferimenti dello slot per non trattenere oggetti dopo l'elaborazione.
+     */
+    void clear() {
+        type = null;
+        order = null;
+        orders = null;
+        username = null;
+        result = null;
+        callback = null;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public List<Order> getOrders() {
+        return orders;
+    }
+
+    public long getOrderId() {
+        return orderId;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public int getAskSize() {
+        return askSize;
+    }
+
+    public int getAskPrice() {
+        return askPrice;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Response getResult() {
+        return result;
+    }
+
+    public Consumer<Response> getCallback() {
+        return callback;
+    }
+}
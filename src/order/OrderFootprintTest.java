@@ -0,0 +1,89 @@
+package order;
+
+import common.Response;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Misura l'occupazione di memoria degli ordini in attesa nel book.
+ * Inserisce un numero elevato di ordini limit che non si incrociano, distribuiti su un intervallo di prezzi,
+ * e riporta i byte di heap occupati per ordine: prima dai soli lati del book (ordini e livelli di prezzo),
+ * poi da un {@link OrderBook} completo, che include anche la mappa degli ordini attivi, e infine da un book
+ * con gli ordini in memoria off-heap, di cui viene riportata anche la memoria diretta allocata.
+ * <p>
+ * Esecuzione: {@code java -cp out:lib/gson-2.8.9.jar order.OrderFootprintTest [ordini] [livelli]}
+ */
+public class OrderFootprintTest {
+    private static final int DEFAULT_ORDERS = 1_000_000;
+    private static final int DEFAULT_LEVELS = 1_000;
+    private static final int BASE_PRICE = 50_000;
+
+    public static void main(String[] args) {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ORDERS;
+        int levels = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LEVELS;
+
+        long before = usedHeap();
+        BookSide bids = new BookSide(true);
+        BookSide asks = new BookSide(false);
+        for (int i = 0; i < orders; i++) {
+            boolean bid = (i & 1) == 0;
+            int offset = 1 + (i >> 1) % levels;
+            Order order = new LimitOrder(bid ? Order.BID : Order.ASK, 1 + i % 10, bid ? BASE_PRICE - offset : BASE_PRICE + offset, i + 1, i % 1000);
+            order.setSequence(i + 1);
+            (bid ? bids : asks).add(order);
+        }
+        long sidesBytes = usedHeap() - before;
+        report("lati del book", sidesBytes, orders, bids.getOrderCount() + asks.getOrderCount());
+        bids = null;
+        asks = null;
+
+        before = usedHeap();
+        OrderBook orderBook = new OrderBook("BTC", null, null, null, new AtomicLong(1));
+        for (int i = 0; i < orders; i++) {
+            boolean bid = (i & 1) == 0;
+            int offset = 1 + (i >> 1) % levels;
+            orderBook.insertLimitOrder(new LimitOrder(bid ? Order.BID : Order.ASK, 1 + i % 10, bid ? BASE_PRICE - offset : BASE_PRICE + offset, 0, i % 1000), new Response());
+        }
+        long bookBytes = usedHeap() - before;
+        report("order book completo", bookBytes, orders, orders);
+        System.out.println("Verifica invarianti: " + orderBook.checkInvariants());
+        orderBook = null;
+
+        before = usedHeap();
+        OrderBook offHeapBook = new OrderBook("BTC", null, null, null, new AtomicLong(1), orders, null);
+        for (int i = 0; i < orders; i++) {
+            boolean bid = (i & 1) == 0;
+            int offset = 1 + (i >> 1) % levels;
+            offHeapBook.insertLimitOrder(new LimitOrder(bid ? Order.BID : Order.ASK, 1 + i % 10, bid ? BASE_PRICE - offset : BASE_PRICE + offset, 0, i % 1000), new Response());
+        }
+        long offHeapBytes = usedHeap() - before;
+        report("order book off-heap (heap)", offHeapBytes, orders, orders);
+        report("order book off-heap (memoria diretta)", offHeapBook.getOffHeapBytes(), orders, orders);
+        System.out.println("Verifica invarianti: " + offHeapBook.checkInvariants());
+    }
+
+    private static void report(String label, long bytes, int orders, long resting) {
+        System.out.printf("%s: %d ordini in attesa, %.1f MB, %.1f byte per ordine%n",
+                label, resting, bytes / (1024.0 * 1024.0), (double) bytes / orders);
+    }
+
+    /**
+     * Restituisce la memoria heap occupata dopo alcuni cicli di garbage collection.
+     *
+     * @return I byte di heap in uso.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,72 @@
+package order;
+
+/**
+ * Stato di un ordine in attesa, copiato dal book al momento della lettura.
+ * Gli oggetti sono immutabili, quindi possono essere restituiti al client senza riferimenti al book.
+ */
+public class OrderStatus {
+    private final long orderId;
+    private final String instrument;
+    private final String orderType;
+    private final String type;
+    private final int size;
+    private final int price;
+
+    /**
+     * Crea lo stato di un ordine in attesa.
+     *
+     * @param orderId    L'ID dell'ordine.
+     * @param instrument Il simbolo dello strumento del book.
+     * @param orderType  Il tipo di ordine ("limit" o "stop").
+     * @param type       Il lato dell'ordine ("bid" o "ask").
+     * @param size       La quantità ancora da eseguire.
+     * @param price      Il prezzo limite o di attivazione.
+     */
+    public OrderStatus(long orderId, String instrument, String orderType, String type, int size, int price) {
+        this.orderId = orderId;
+        this.instrument = instrument;
+        this.orderType = orderType;
+        this.type = type;
+        this.size = size;
+        this.price = price;
+    }
+
+    public long getOrderId() {
+        return orderId;
+    }
+
+    public String getInstrument() {
+        return instrument;
+    }
+
+    /**
+     * Restituisce il tipo dell'ordine.
+     *
+     * @return "limit" o "stop".
+     */
+    public String getOrderType() {
+        return orderType;
+    }
+
+    /**
+     * Restituisce il lato dell'ordine.
+     *
+     * @return "bid" o "ask".
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Restituisce la quantità non ancora eseguita: la parte eseguita è la differenza con la quantità inviata.
+     *
+     * @return La quantità residua dell'ordine.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+}
@@ -0,0 +1,82 @@
+package order;
+
+/**
+ * Banda di prezzi di uno strumento, con la relativa dimensione del tick.
+ * I livelli con prezzo nella banda e multiplo del tick vengono indicizzati in un array da {@link BookSide},
+ * all'indice {@code (prezzo - minimo) / tick}; gli altri prezzi restano in una mappa ordinata.
+ */
+public class PriceBand {
+    private final int tickSize;
+    private final int minPrice;
+    private final int maxPrice;
+
+    /**
+     * Crea una banda di prezzi.
+     *
+     * @param tickSize La variazione minima di prezzo, maggiore di zero.
+     * @param minPrice Il prezzo minimo della banda, incluso.
+     * @param maxPrice Il prezzo massimo della banda, incluso.
+     * @throws IllegalArgumentException se i parametri non definiscono una banda valida.
+     */
+    public PriceBand(int tickSize, int minPrice, int maxPrice) {
+        if (tickSize <= 0 || minPrice < 0 || maxPrice < minPrice) {
+            throw new IllegalArgumentException("Banda di prezzi non valida: tick " + tickSize + ", prezzi " + minPrice + "-" + maxPrice);
+        }
+        this.tickSize = tickSize;
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+    }
+
+    /**
+     * Legge una banda di prezzi dalla configurazione, nel formato {@code tick,minimo,massimo}.
+     *
+     * @param value Il valore letto dal file di configurazione.
+     * @return La banda, oppure null se il valore è assente o vuoto.
+     * @throws IllegalArgumentException se il valore non è nel formato atteso.
+     */
+    public static PriceBand parse(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        String[] parts = value.trim().split("\\s*,\\s*");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Banda di prezzi non valida, formato atteso tick,minimo,massimo: " + value);
+        }
+        return new PriceBand(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+    }
+
+    /**
+     * Restituisce l'indice di un prezzo nella banda.
+     *
+     * @param price Il prezzo.
+     * @return L'indice del tick, oppure -1 se il prezzo è fuori dalla banda o non è un multiplo del tick.
+     */
+    int indexOf(int price) {
+        if (price < minPrice || price > maxPrice) {
+            return -1;
+        }
+        int offset = price - minPrice;
+        return offset % tickSize == 0 ? offset / tickSize : -1;
+    }
+
+    /**
+     * Restituisce il numero di tick della banda.
+     *
+     * @return La dimensione dell'array dei livelli.
+     */
+    int getTicks() {
+        return (maxPrice - minPrice) / tickSize + 1;
+    }
+
+    public int getTickSize() {
+        return tickSize;
+    }
+
+    public int getMinPrice() {
+        return minPrice;
+    }
+
+    public int getMaxPrice() {
+        return maxPrice;
+    }
+}
@@ -0,0 +1,245 @@
+package order;
+
+/**
+ * Rappresenta un livello di prezzo del book.
+ * Mantiene una coda FIFO degli ordini allo stesso prezzo (priorità temporale) e la quantità
+ * totale aggregata, aggiornata incrementalmente a ogni inserimento, esecuzione o cancellazione.
+ * La coda è una lista doppiamente collegata intrusiva, così la rimozione di un ordine costa O(1).
+ * Se il lato usa una memoria off-heap ({@link OffHeapOrderStore}) la coda è collegata tramite gli slot degli ordini
+ * e il livello ne conserva solo il primo e l'ultimo.
+ */
+public class PriceLevel {
+    private final int price;
+    private Order head;
+    private Order tail;
+    private int headSlot = -1;
+    private int tailSlot = -1;
+    private int orderCount;
+    private long totalQuantity;
+    boolean changed; //già registrato tra i livelli modificati dall'operazione in corso (vedi BookSide)
+    Integer key; //chiave nella mappa ordinata di BookSide, conservata per rimuovere il livello senza creare oggetti
+
+    /**
+     * Crea un livello di prezzo vuoto.
+     *
+     * @param price Il prezzo del livello.
+     */
+    public PriceLevel(int price) {
+        this.price = price;
+    }
+
+    /**
+     * Accoda un ordine in fondo al livello.
+     *
+     * @param order L'ordine da accodare.
+     */
+    void append(Order order) {
+        order.level = this;
+        order.prev = tail;
+        order.next = null;
+        if (tail == null) {
+            head = order;
+        } else {
+            tail.next = order;
+        }
+        tail = order;
+        orderCount++;
+        totalQuantity += order.getSize();
+    }
+
+    /**
+     * Rimuove un ordine dal livello, indipendentemente dalla sua posizione nella coda.
+     *
+     * @param order L'ordine da rimuovere.
+     */
+    void unlink(Order order) {
+        if (order.prev == null) {
+            head = order.next;
+        } else {
+            order.prev.next = order.next;
+        }
+        if (order.next == null) {
+            tail = order.prev;
+        } else {
+            order.next.prev = order.prev;
+        }
+        totalQuantity -= order.getSize();
+        orderCount--;
+        order.level = null;
+        order.prev = null;
+        order.next = null;
+    }
+
+    /**
+     * Accoda in fondo al livello un ordine conservato off-heap.
+     *
+     * @param store La memoria degli ordini del lato.
+     * @param slot  Lo slot dell'ordine da accodare.
+     */
+    void append(OffHeapOrderStore store, int slot) {
+        store.setPrev(slot, tailSlot);
+        store.setNext(slot, -1);
+        if (tailSlot < 0) {
+            headSlot = slot;
+        } else {
+            store.setNext(tailSlot, slot);
+        }
+        tailSlot = slot;
+        orderCount++;
+        totalQuantity += store.getSize(slot);
+    }
+
+    /**
+     * Rimuove dal livello un ordine conservato off-heap, indipendentemente dalla sua posizione nella coda.
+     * Lo slot non viene liberato.
+     *
+     * @param store La memoria degli ordini del lato.
+     * @param slot  Lo slot dell'ordine da rimuovere.
+     */
+    void unlink(OffHeapOrderStore store, int slot) {
+        int prev = store.getPrev(slot);
+        int next = store.getNext(slot);
+        if (prev < 0) {
+            headSlot = next;
+        } else {
+            store.setNext(prev, next);
+        }
+        if (next < 0) {
+            tailSlot = prev;
+        } else {
+            store.setPrev(next, prev);
+        }
+        totalQuantity -= store.getSize(slot);
+        orderCount--;
+    }
+
+    /**
+     * Riduce la quantità di un ordine conservato off-heap aggiornando il totale aggregato.
+     *
+     * @param store  La memoria degli ordini del lato.
+     * @param slot   Lo slot dell'ordine eseguito.
+     * @param amount La quantità eseguita.
+     */
+    void reduce(OffHeapOrderStore store, int slot, int amount) {
+        store.setSize(slot, store.getSize(slot) - amount);
+        totalQuantity -= amount;
+    }
+
+    /**
+     * Restituisce lo slot del primo ordine in coda, se il livello è conservato off-heap.
+     *
+     * @return Lo slot del primo ordine, oppure -1 se il livello è vuoto.
+     */
+    int peekSlot() {
+        return headSlot;
+    }
+
+    /**
+     * Riduce la quantità di un ordine del livello aggiornando il totale aggregato.
+     *
+     * @param order  L'ordine eseguito (parzialmente o totalmente).
+     * @param amount La quantità eseguita.
+     */
+    void reduce(Order order, int amount) {
+        order.reduceSize(amount);
+        totalQuantity -= amount;
+    }
+
+    /**
+     * Restituisce il primo ordine in coda (il più vecchio).
+     *
+     * @return Il primo ordine del livello, oppure null se il livello è vuoto.
+     */
+    public Order peek() {
+        return head;
+    }
+
+    /**
+     * Restituisce il prezzo del livello.
+     *
+     * @return Il prezzo.
+     */
+    public int getPrice() {
+        return price;
+    }
+
+    /**
+     * Restituisce la quantità totale degli ordini presenti nel livello.
+     *
+     * @return La quantità aggregata.
+     */
+    public long getTotalQuantity() {
+        return totalQuantity;
+    }
+
+    /**
+     * Restituisce il numero di ordini presenti nel livello.
+     *
+     * @return Il numero di ordini.
+     */
+    public int getOrderCount() {
+        return orderCount;
+    }
+
+    /**
+     * Indica se il livello non contiene più ordini.
+     *
+     * @return true se il livello è vuoto, false altrimenti.
+     */
+    public boolean isEmpty() {
+        return orderCount == 0;
+    }
+
+    /**
+     * Verifica che il numero di ordini e la quantità aggregata corrispondano al contenuto della coda
+     * e che i collegamenti della lista siano coerenti. Pensato per essere usato con {@code assert}.
+     *
+     * @return true se il livello è coerente.
+     * @throws IllegalStateException se viene trovata un'incoerenza.
+     */
+    boolean checkInvariants() {
+        int count = 0;
+        long quantity = 0;
+        Order previous = null;
+        for (Order order = head; order != null; order = order.next) {
+            if (order.level != this || order.prev != previous || order.getPrice() != price || order.getSize() <= 0) {
+                throw new IllegalStateException("Ordine " + order.getOrderId() + " incoerente nel livello " + price);
+            }
+            count++;
+            quantity += order.getSize();
+            previous = order;
+        }
+        if (previous != tail || count != orderCount || quantity != totalQuantity) {
+            throw new IllegalStateException("Livello " + price + " incoerente: ordini " + count + "/" + orderCount
+                    + ", quantità " + quantity + "/" + totalQuantity);
+        }
+        return true;
+    }
+
+    /**
+     * Come {@link #checkInvariants()}, per un livello i cui ordini sono conservati off-heap.
+     *
+     * @param store La memoria degli ordini del lato.
+     * @return true se il livello è coerente.
+     * @throws IllegalStateException se viene trovata un'incoerenza.
+     */
+    boolean checkInvariants(OffHeapOrderStore store) {
+        int count = 0;
+        long quantity = 0;
+        int previous = -1;
+        for (int slot = headSlot; slot >= 0; slot = store.getNext(slot)) {
+            if (store.getPrev(slot) != previous || store.getPrice(slot) != price || store.getSize(slot) <= 0
+                    || store.find(store.getOrderId(slot)) != slot) {
+                throw new IllegalStateException("Ordine " + store.getOrderId(slot) + " incoerente nel livello " + price);
+            }
+            count++;
+            quantity += store.getSize(slot);
+            previous = slot;
+        }
+        if (previous != tailSlot || head != null || count != orderCount || quantity != totalQuantity) {
+            throw new IllegalStateException("Livello " + price + " incoerente: ordini " + count + "/" + orderCount
+                    + ", quantità " + quantity + "/" + totalQuantity);
+        }
+        return true;
+    }
+}
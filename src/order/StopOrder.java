@@ -1,27 +1,22 @@
 package order;
 
-import user.UserSession;
-
 /**
  * Rappresenta un ordine di tipo StopOrder, che si attiva quando il prezzo raggiunge un valore specifico (triggerPrice).
- * Estende la classe Order.
+ * Estende la classe Order; il prezzo di attivazione coincide con il prezzo dell'ordine.
  */
 public class StopOrder extends Order {
-    private final int triggerPrice;
 
     /**
      * Costruttore per creare un'istanza di StopOrder.
      *
-     * @param type         Il tipo di ordine (es. "BUY" o "SELL").
+     * @param side         Il lato dell'ordine ({@link Order#BID} o {@link Order#ASK}).
      * @param size         La quantità dell'ordine.
      * @param triggerPrice Il prezzo di attivazione dell'ordine.
      * @param orderId      L'ID univoco dell'ordine.
-     * @param timestamp    Il timestamp dell'ordine.
-     * @param session      La sessione utente associata all'ordine.
+     * @param userIndex    L'indice dell'utente proprietario dell'ordine.
      */
-    public StopOrder(String type, int size, int triggerPrice, long orderId, long timestamp, UserSession session, String userPropertyName) {
-        super(type, size, triggerPrice, orderId, timestamp,session,userPropertyName);
-        this.triggerPrice = triggerPrice;
+    public StopOrder(byte side, int size, int triggerPrice, long orderId, int userIndex) {
+        super(STOP, side, size, triggerPrice, orderId, userIndex);
     }
 
     /**
@@ -30,6 +25,6 @@ public class StopOrder extends Order {
      * @return Il prezzo di attivazione dell'ordine.
      */
     public int getTriggerPrice() {
-        return triggerPrice;
+        return getPrice();
     }
 }
@@ -0,0 +1,28 @@
+package order;
+
+/**
+ * Vista riutilizzabile di un ordine conservato in un {@link OffHeapOrderStore}.
+ * I campi vengono copiati dallo slot alla lettura, così il book può continuare a lavorare con {@link Order}
+ * senza creare un oggetto per ogni ordine in attesa; le modifiche vanno comunque applicate allo slot.
+ */
+class StoredOrder extends Order {
+    private int slot = -1;
+
+    StoredOrder() {
+        super(Order.LIMIT, Order.BID, 0, 0, 0, -1);
+    }
+
+    void load(int slot, long orderId, long sequence, byte orderType, byte side, int size, int price, int userIndex) {
+        this.slot = slot;
+        load(orderId, sequence, orderType, side, size, price, userIndex);
+    }
+
+    /**
+     * Restituisce lo slot da cui è stato letto l'ordine.
+     *
+     * @return Lo slot nella memoria off-heap.
+     */
+    int getSlot() {
+        return slot;
+    }
+}
@@ -0,0 +1,21 @@
+package order;
+
+/**
+ * Riceve uno alla volta gli scambi letti dallo storico.
+ * I campi vengono passati come valori primitivi, così chi legge grandi intervalli di storico
+ * non deve creare un oggetto per ogni scambio.
+ */
+@FunctionalInterface
+public interface TradeConsumer {
+    /**
+     * Elabora uno scambio letto dallo storico.
+     *
+     * @param orderId   L'ID dell'ordine eseguito.
+     * @param type      Il lato dell'ordine (bid/ask).
+     * @param orderType Il tipo di ordine registrato, può essere null nei record più vecchi.
+     * @param size      La quantità scambiata.
+     * @param price     Il prezzo dello scambio.
+     * @param timestamp Il timestamp dello scambio in secondi (UTC).
+     */
+    void accept(long orderId, String type, String orderType, int size, int price, long timestamp);
+}
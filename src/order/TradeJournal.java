@@ -0,0 +1,637 @@
+package order;
+
+import common.JsonParsing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Giornale append-only degli scambi eseguiti, partizionato per mese.
+ * Ogni scambio viene scritto come un record JSON su una singola riga, in coda al file della partizione
+ * del suo mese ({@link TradePartition}): il costo di scrittura per scambio è costante
+ * e non dipende dalla dimensione dello storico.
+ * All'avvio vengono caricati solo gli indici delle partizioni (recuperando quelle con una scrittura interrotta),
+ * quindi avvio e interrogazioni dello storico restano veloci indipendentemente dagli anni di scambi accumulati.
+ * I file delle partizioni vengono aperti e modificati solo durante l'avvio e dal thread di scrittura:
+ * le interrogazioni usano le partizioni già aperte e non toccano mai i file in scrittura.
+ * <p>
+ * La scrittura avviene in uno stadio asincrono: il matching accoda gli scambi e un thread dedicato
+ * li raggruppa in batch (group commit), scrivendo ogni batch con una sola operazione e sincronizzandolo
+ * su disco secondo la {@link Durability} configurata.
+ */
+public class TradeJournal {
+    /**
+     * Livello di durabilità del giornale.
+     */
+    public enum Durability {
+        /** Nessuna sincronizzazione esplicita: i dati restano nella cache del sistema operativo. */
+        NONE,
+        /** Sincronizzazione su disco al più una volta per intervallo configurato. */
+        PERIODIC,
+        /** Sincronizzazione su disco dopo ogni batch scritto. */
+        BATCH
+    }
+
+    private static final long METRICS_LOG_INTERVAL_MILLIS = 60_000L;
+    private static final long INDEX_SAVE_INTERVAL_MILLIS = 1000L;
+    private static final int IMPORT_CHUNK_CHARS = 64 * 1024;
+    private static final long MIN_RETRY_MILLIS = 100L;
+    private static final long MAX_RETRY_MILLIS = 5000L;
+    private static final int CLOSE_RETRIES = 5; //tentativi di scrittura ancora concessi durante la chiusura
+    private static final long BACK_PRESSURE_LOG_INTERVAL_MILLIS = 1000L;
+
+    private final Path historyDirectory;
+    private final boolean binaryStore;
+    //Partizioni in ordine di mese: aperte solo all'avvio e dal thread di scrittura, create vuote anche dal matching
+    private final ConcurrentNavigableMap<YearMonth, TradePartition> partitions = new ConcurrentSkipListMap<>();
+    private TradePartition activePartition;
+    private final JsonParsing jsonParsing = new JsonParsing();
+
+    private final Durability durability;
+    private final int batchSize;
+    private final long fsyncIntervalMillis;
+    private final BlockingQueue<PendingTrade> pendingTrades;
+    //Record preallocati: il matching li compila e il thread di scrittura li restituisce dopo averli scritti
+    private final BlockingQueue<PendingTrade> freeTrades;
+    private final TradeJournalMetrics metrics = new TradeJournalMetrics();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private boolean closed;
+    private boolean unsynced;
+    private long lastFsyncMillis = System.currentTimeMillis();
+    private long lastMetricsLogMillis = System.currentTimeMillis();
+    private long lastIndexSaveMillis;
+    private int writtenTrades; //scambi del batch corrente già scritti nelle partizioni
+    //Partizione del mese dell'ultimo scambio, di cui il matching aggiorna le candele; usata solo dal matching
+    private TradePartition candlePartition;
+    private long candleMonthStart;
+    private long candleMonthEnd;
+    private volatile long lastBackPressureLogMillis;
+
+    /**
+     * Apre (o crea) lo storico partizionato degli scambi e avvia il thread di scrittura.
+     * Tutte le partizioni esistenti vengono aperte e, se necessario, recuperate prima di avviare il thread di scrittura.
+     * Se la cartella non contiene ancora partizioni, gli scambi del primo vecchio storico esistente vengono
+     * importati una sola volta, suddivisi per mese. Sono supportati sia il giornale a file unico con un record
+     * JSON per riga, che contiene già gli scambi importati dal formato precedente, sia il formato a oggetto
+     * unico con l'array "trades".
+     *
+     * @param historyDirectory    Cartella delle partizioni mensili.
+     * @param legacyHistoryPaths  Percorsi dei vecchi storici in ordine di preferenza; quelli inesistenti vengono ignorati.
+     * @param durability          Livello di durabilità delle scritture.
+     * @param batchSize           Numero massimo di scambi scritti in un singolo batch.
+     * @param fsyncIntervalMillis Intervallo tra due sincronizzazioni in modalità {@link Durability#PERIODIC}.
+     * @param queueCapacity       Numero massimo di scambi in attesa di scrittura.
+     * @param binaryStore         true per registrare gli scambi anche nei segmenti binari mappati in memoria.
+     * @throws IOException se la cartella dello storico non può essere creata o l'importazione fallisce.
+     */
+    public TradeJournal(String historyDirectory, List<String> legacyHistoryPaths, Durability durability, int batchSize,
+                        long fsyncIntervalMillis, int queueCapacity, boolean binaryStore) throws IOException {
+        this.historyDirectory = Path.of(historyDirectory);
+        this.binaryStore = binaryStore;
+        this.durability = durability;
+        this.batchSize = batchSize;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.pendingTrades = new ArrayBlockingQueue<>(queueCapacity);
+        this.freeTrades = new ArrayBlockingQueue<>(queueCapacity);
+        for (int i = 0; i < queueCapacity; i++) {
+            freeTrades.add(new PendingTrade());
+        }
+        Files.createDirectories(this.historyDirectory);
+        if (listPartitionMonths().isEmpty()) {
+            for (String legacyHistoryPath : legacyHistoryPaths) {
+                if (legacyHistoryPath != null && Files.exists(Path.of(legacyHistoryPath))) {
+                    importLegacyHistory(Path.of(legacyHistoryPath));
+                    break;
+                }
+            }
+        }
+        openPartitions();
+        this.writerThread = new Thread(this::writeLoop, "trade-journal-writer");
+        this.writerThread.start();
+        //Alla chiusura del server vengono scritti gli scambi ancora in coda
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * Accoda uno scambio per la scrittura asincrona nel giornale e aggiorna subito la candela giornaliera in memoria,
+     * così lo storico prezzi include lo scambio anche prima che sia scritto.
+     * Lo scambio viene copiato in un record preallocato, quindi l'accodamento non crea oggetti.
+     * Viene chiamato dal matching dello strumento, un solo scambio alla volta.
+     * Se tutti i record sono in attesa di scrittura il chiamante attende, così nessuno scambio viene perso:
+     * l'attesa blocca il matching dello strumento, quindi viene segnalata e conteggiata nelle metriche.
+     *
+     * @param orderId   L'ID dell'ordine eseguito.
+     * @param side      Il lato dell'ordine ({@link Order#BID} o {@link Order#ASK}).
+     * @param orderType Il tipo di ordine ({@link Order#LIMIT}, {@link Order#MARKET} o {@link Order#STOP}).
+     * @param size      La quantità scambiata.
+     * @param price     Il prezzo dello scambio.
+     */
+    public void append(long orderId, byte side, byte orderType, int size, int price) {
+        long timestamp = System.currentTimeMillis() / 1000;
+        updateCandle(price, timestamp);
+        try {
+            PendingTrade trade = freeTrades.poll();
+            if (trade == null) {
+                trade = awaitFreeTrade();
+            }
+            trade.set(orderId, side, orderType, size, price, timestamp);
+            pendingTrades.put(trade);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interruzione durante l'accodamento dello scambio dell'ordine " + orderId);
+        }
+    }
+
+    /**
+     * Aggiorna la candela giornaliera in memoria di uno scambio appena eseguito. La partizione del mese viene cercata
+     * solo al cambio di mese; se non esiste ancora viene creata vuota, senza aprire file.
+     *
+     * @param price     Il prezzo dello scambio.
+     * @param timestamp Il timestamp dello scambio in secondi (UTC).
+     */
+    private void updateCandle(int price, long timestamp) {
+        if (candlePartition == null || timestamp < candleMonthStart || timestamp >= candleMonthEnd) {
+            YearMonth month = TradePartition.monthOf(timestamp);
+            candlePartition = partitions.computeIfAbsent(month, m -> TradePartition.create(historyDirectory, m, binaryStore));
+            candleMonthStart = month.atDay(1).toEpochDay() * 86400L;
+            candleMonthEnd = month.plusMonths(1).atDay(1).toEpochDay() * 86400L;
+        }
+        candlePartition.updateCandle(price, timestamp);
+    }
+
+    /**
+     * Attende che il thread di scrittura restituisca un record, registrando l'attesa nelle metriche.
+     *
+     * @return Il record libero.
+     * @throws InterruptedException se il thread viene interrotto durante l'attesa.
+     */
+    private PendingTrade awaitFreeTrade() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        if (now - lastBackPressureLogMillis >= BACK_PRESSURE_LOG_INTERVAL_MILLIS) {
+            lastBackPressureLogMillis = now;
+            System.err.println("Coda del giornale degli scambi piena (" + pendingTrades.size()
+                    + " scambi in attesa di scrittura): il matching attende il thread di scrittura");
+        }
+        long start = System.nanoTime();
+        PendingTrade trade = freeTrades.take();
+        metrics.recordBackPressure(System.nanoTime() - start);
+        return trade;
+    }
+
+    /**
+     * Legge in streaming gli scambi con timestamp compreso nell'intervallo indicato, in ordine di mese.
+     * Vengono lette solo le partizioni dei mesi dell'intervallo il cui indice indica scambi nell'intervallo;
+     * nessuna partizione viene caricata interamente in memoria. Se la partizione ha un segmento binario,
+     * la lettura avviene sui record mappati in memoria invece che sul file JSON.
+     *
+     * @param fromTimestamp Inizio dell'intervallo in secondi, incluso.
+     * @param toTimestamp   Fine dell'intervallo in secondi, inclusa.
+     * @param consumer      Destinatario degli scambi, uno alla volta.
+     * @return Il numero di scambi passati al consumer.
+     */
+    public long forEachTrade(long fromTimestamp, long toTimestamp, TradeConsumer consumer) {
+        long delivered = 0;
+        for (TradePartition partition : partitions.values()) {
+            YearMonth month = partition.getMonth();
+            long monthStart = month.atDay(1).toEpochDay() * 86400L;
+            long monthEnd = month.plusMonths(1).atDay(1).toEpochDay() * 86400L - 1;
+            if (monthEnd < fromTimestamp || monthStart > toTimestamp) {
+                continue;
+            }
+            if (partition.getLastTimestamp() < fromTimestamp || partition.getFirstTimestamp() > toTimestamp) {
+                continue;
+            }
+            TradeSegment segment = partition.getSegment();
+            if (segment != null) {
+                delivered += segment.forEach(fromTimestamp, toTimestamp, consumer);
+                continue;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(partition.getDataPath(), StandardCharsets.UTF_8)) {
+                delivered += TradeStreamReader.readTrades(reader, fromTimestamp, toTimestamp, consumer);
+            } catch (IOException e) {
+                System.err.println("Errore nella lettura della partizione " + month + ": " + e.getMessage());
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Calcola le candele di durata fissa degli scambi in un intervallo, leggendo i segmenti binari.
+     * Le partizioni senza segmento binario vengono lette in streaming dal file JSON.
+     * Le candele vengono calcolate separatamente per ogni partizione mensile, quindi la durata
+     * deve essere un divisore di un giorno perché nessuna candela sia spezzata tra due mesi.
+     *
+     * @param fromTimestamp   Inizio dell'intervallo in secondi, incluso.
+     * @param toTimestamp     Fine dell'intervallo in secondi, inclusa.
+     * @param intervalSeconds Durata di ogni candela in secondi.
+     * @param consumer        Destinatario delle candele, in ordine di tempo.
+     */
+    public void forEachCandle(long fromTimestamp, long toTimestamp, long intervalSeconds, CandleConsumer consumer) {
+        for (TradePartition partition : partitions.values()) {
+            YearMonth month = partition.getMonth();
+            long monthStart = month.atDay(1).toEpochDay() * 86400L;
+            long monthEnd = month.plusMonths(1).atDay(1).toEpochDay() * 86400L - 1;
+            if (monthEnd < fromTimestamp || monthStart > toTimestamp) {
+                continue;
+            }
+            TradeSegment segment = partition.getSegment();
+            if (segment != null) {
+                segment.computeCandles(Math.max(fromTimestamp, monthStart), Math.min(toTimestamp, monthEnd), intervalSeconds, consumer);
+                continue;
+            }
+            CandleBuilder builder = new CandleBuilder(intervalSeconds, consumer);
+            forEachTrade(Math.max(fromTimestamp, monthStart), Math.min(toTimestamp, monthEnd), builder);
+            builder.flush();
+        }
+    }
+
+    /**
+     * Restituisce le candele giornaliere di un mese, mantenute in memoria dalla relativa partizione
+     * e aggiornate a ogni scambio: non vengono letti file.
+     *
+     * @param month Il mese di riferimento (1-12).
+     * @param year  L'anno di riferimento.
+     * @return La lista delle candele del mese in ordine di data, vuota se nel mese non ci sono scambi.
+     */
+    public List<DayPriceData> getPriceHistory(int month, int year) {
+        TradePartition partition = getPartition(YearMonth.of(year, month));
+        return partition == null ? new ArrayList<>() : partition.getDayPrices();
+    }
+
+    /**
+     * Restituisce la partizione di un mese, aperta all'avvio o creata dal thread di scrittura.
+     * Non apre file: può essere chiamato da qualsiasi thread.
+     *
+     * @param month Il mese richiesto.
+     * @return La partizione, oppure null se per il mese non esistono scambi.
+     */
+    public TradePartition getPartition(YearMonth month) {
+        return partitions.get(month);
+    }
+
+    /**
+     * Arresta il thread di scrittura dopo aver scritto gli scambi ancora in coda,
+     * sincronizza la partizione attiva su disco e ne salva l'indice.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (activePartition != null) {
+            try {
+                activePartition.closeChannel();
+                activePartition.saveIndex();
+            } catch (IOException e) {
+                System.err.println("Errore nella chiusura del giornale degli scambi: " + e.getMessage());
+            }
+        }
+        System.out.println("Giornale degli scambi chiuso: " + metrics);
+    }
+
+    /**
+     * Ciclo del thread di scrittura: preleva gli scambi in attesa a gruppi e li scrive con un'unica operazione.
+     * Un batch la cui scrittura fallisce non viene scartato: viene ritentato con un'attesa crescente
+     * finché la scrittura non riesce, e nel frattempo i nuovi scambi restano in coda.
+     * Durante la chiusura i tentativi sono limitati, per non bloccare l'arresto del server.
+     */
+    private void writeLoop() {
+        List<PendingTrade> batch = new ArrayList<>(batchSize);
+        StringBuilder records = new StringBuilder();
+        long pollMillis = durability == Durability.PERIODIC ? Math.min(fsyncIntervalMillis, 1000) : 1000;
+        long retryMillis = 0;
+        int closeRetries = 0;
+        while (running || !pendingTrades.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    PendingTrade first = pendingTrades.poll(pollMillis, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        pendingTrades.drainTo(batch, batchSize - 1);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    writeBatch(batch, records);
+                    releaseBatch(batch);
+                    retryMillis = 0;
+                }
+                if (durability == Durability.PERIODIC && unsynced
+                        && System.currentTimeMillis() - lastFsyncMillis >= fsyncIntervalMillis) {
+                    fsync();
+                }
+                saveIndexIfDue();
+                logMetricsIfDue();
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (IOException e) {
+                metrics.recordWriteFailure();
+                if (!running && ++closeRetries > CLOSE_RETRIES) {
+                    System.err.println("Giornale degli scambi non scrivibile durante la chiusura: " + (batch.size() - writtenTrades + pendingTrades.size())
+                            + " scambi non salvati. Ultimo errore: " + e.getMessage());
+                    return;
+                }
+                retryMillis = Math.min(Math.max(retryMillis * 2, MIN_RETRY_MILLIS), MAX_RETRY_MILLIS);
+                System.err.println("Errore nella scrittura del giornale degli scambi (" + (batch.size() - writtenTrades)
+                        + " scambi da scrivere, nuovo tentativo tra " + retryMillis + " ms): " + e.getMessage());
+                try {
+                    Thread.sleep(retryMillis);
+                } catch (InterruptedException interrupted) {
+                    running = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Restituisce al pool i record di un batch già scritto.
+     *
+     * @param batch Il batch da svuotare.
+     */
+    private void releaseBatch(List<PendingTrade> batch) {
+        for (PendingTrade trade : batch) {
+            freeTrades.offer(trade);
+        }
+        batch.clear();
+        writtenTrades = 0;
+    }
+
+    /**
+     * Scrive un batch di scambi e, in modalità {@link Durability#BATCH}, lo sincronizza su disco.
+     * Gli scambi consecutivi dello stesso mese vengono scritti con un'unica operazione sulla partizione del mese.
+     * Se il batch è già stato scritto in parte da un tentativo precedente, vengono scritti solo gli scambi mancanti.
+     *
+     * @param batch   Gli scambi da scrivere.
+     * @param records Buffer riutilizzato per comporre le righe del batch.
+     * @throws IOException se la scrittura fallisce.
+     */
+    private void writeBatch(List<PendingTrade> batch, StringBuilder records) throws IOException {
+        long start = System.nanoTime();
+        if (writtenTrades < batch.size()) {
+            records.setLength(0);
+            int runStart = writtenTrades;
+            YearMonth runMonth = TradePartition.monthOf(batch.get(runStart).timestamp);
+            for (int i = runStart; i < batch.size(); i++) {
+                PendingTrade trade = batch.get(i);
+                YearMonth month = TradePartition.monthOf(trade.timestamp);
+                if (!month.equals(runMonth)) {
+                    writeRun(runMonth, batch.subList(runStart, i), records);
+                    records.setLength(0);
+                    runStart = i;
+                    runMonth = month;
+                }
+                records.append(jsonParsing.createTradeRecord(trade.orderId, Order.sideName(trade.side), Order.typeName(trade.orderType),
+                        trade.size, trade.price, trade.timestamp)).append('\n');
+            }
+            writeRun(runMonth, batch.subList(runStart, batch.size()), records);
+            records.setLength(0);
+            unsynced = true;
+        }
+        if (durability == Durability.BATCH) {
+            fsync();
+        }
+        metrics.recordBatch(batch.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Scrive nella partizione del mese le righe di una sequenza di scambi e ne aggiorna l'indice.
+     * Se il mese cambia, la partizione precedente viene sincronizzata, chiusa e indicizzata.
+     *
+     * @param month   Il mese degli scambi.
+     * @param trades  Gli scambi della sequenza.
+     * @param records Le righe già composte degli scambi.
+     * @throws IOException se la scrittura fallisce.
+     */
+    private void writeRun(YearMonth month, List<PendingTrade> trades, StringBuilder records) throws IOException {
+        if (activePartition == null || !activePartition.getMonth().equals(month)) {
+            if (activePartition != null) {
+                activePartition.closeChannel();
+                activePartition.saveIndex();
+            }
+            activePartition = partitions.computeIfAbsent(month, this::openOrCreatePartition);
+        }
+        activePartition.append(records.toString());
+        for (PendingTrade trade : trades) {
+            activePartition.record(trade.orderId, Order.sideName(trade.side), Order.typeName(trade.orderType), trade.size, trade.price, trade.timestamp);
+        }
+        writtenTrades += trades.size();
+    }
+
+    private void fsync() throws IOException {
+        if (activePartition != null) {
+            activePartition.force();
+        }
+        unsynced = false;
+        lastFsyncMillis = System.currentTimeMillis();
+        metrics.recordFsync();
+    }
+
+    private void saveIndexIfDue() throws IOException {
+        long now = System.currentTimeMillis();
+        if (activePartition != null && now - lastIndexSaveMillis >= INDEX_SAVE_INTERVAL_MILLIS) {
+            activePartition.saveIndex();
+            lastIndexSaveMillis = now;
+        }
+    }
+
+    private void logMetricsIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastMetricsLogMillis >= METRICS_LOG_INTERVAL_MILLIS && metrics.getBatches() > 0) {
+            System.out.println("Giornale degli scambi (" + durability + "): " + metrics);
+            lastMetricsLogMillis = now;
+        }
+    }
+
+    /**
+     * Apre tutte le partizioni presenti nella cartella dello storico, recuperando quelle con una scrittura
+     * interrotta, e ne chiude i file: verranno riaperti in scrittura solo dal thread di scrittura.
+     * Viene chiamato dal costruttore prima di avviare il thread di scrittura.
+     *
+     * @throws IOException se il file di una partizione non può essere chiuso.
+     */
+    private void openPartitions() throws IOException {
+        for (YearMonth month : listPartitionMonths()) {
+            if (partitions.containsKey(month)) {
+                continue;
+            }
+            TradePartition partition = openPartition(month);
+            if (partition != null) {
+                partition.closeChannel();
+                partitions.put(month, partition);
+            }
+        }
+    }
+
+    private TradePartition openPartition(YearMonth month) {
+        try {
+            return TradePartition.open(historyDirectory, month, binaryStore);
+        } catch (IOException e) {
+            System.err.println("Errore nell'apertura della partizione " + month + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private TradePartition openOrCreatePartition(YearMonth month) {
+        TradePartition partition = openPartition(month);
+        return partition != null ? partition : TradePartition.create(historyDirectory, month, binaryStore);
+    }
+
+    /**
+     * Elenca i mesi per cui esiste una partizione, in ordine crescente.
+     *
+     * @return La lista dei mesi delle partizioni presenti nella cartella dello storico.
+     */
+    private List<YearMonth> listPartitionMonths() {
+        List<YearMonth> months = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(historyDirectory, "*.jsonl")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    months.add(YearMonth.parse(name.substring(0, name.length() - ".jsonl".length())));
+                } catch (DateTimeParseException e) {
+                    System.err.println("File ignorato nella cartella dello storico: " + name);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Errore nella lettura della cartella dello storico: " + e.getMessage());
+        }
+        Collections.sort(months);
+        return months;
+    }
+
+    /**
+     * Importa in streaming gli scambi da un vecchio storico, suddividendoli nelle partizioni mensili.
+     * Le righe vengono accumulate per mese e scritte a blocchi, quindi la memoria usata non dipende
+     * dalla dimensione del vecchio storico.
+     *
+     * @param legacyHistoryPath Percorso del vecchio storico.
+     * @throws IOException se le partizioni non possono essere scritte.
+     */
+    private void importLegacyHistory(Path legacyHistoryPath) throws IOException {
+        Map<YearMonth, StringBuilder> pendingRecords = new TreeMap<>();
+        Map<YearMonth, TradePartition> imported = new TreeMap<>();
+        long[] importedTrades = new long[1];
+        IOException[] writeError = new IOException[1];
+        try (BufferedReader reader = Files.newBufferedReader(legacyHistoryPath, StandardCharsets.UTF_8)) {
+            TradeStreamReader.readTrades(reader, Long.MIN_VALUE, Long.MAX_VALUE, (orderId, type, orderType, size, price, timestamp) -> {
+                if (writeError[0] != null) {
+                    return;
+                }
+                YearMonth month = TradePartition.monthOf(timestamp);
+                TradePartition partition = imported.computeIfAbsent(month, m -> partitions.computeIfAbsent(m, this::openOrCreatePartition));
+                StringBuilder records = pendingRecords.computeIfAbsent(month, m -> new StringBuilder());
+                records.append(jsonParsing.createTradeRecord(orderId, type, orderType, size, price, timestamp)).append('\n');
+                partition.record(orderId, type, orderType, size, price, timestamp);
+                partition.updateCandle(price, timestamp);
+                importedTrades[0]++;
+                if (records.length() >= IMPORT_CHUNK_CHARS) {
+                    try {
+                        partition.append(records.toString());
+                    } catch (IOException e) {
+                        writeError[0] = e;
+                    }
+                    records.setLength(0);
+                }
+            });
+        } catch (IOException e) {
+            //Gli scambi letti prima dell'errore vengono comunque importati
+            System.err.println("Errore nella lettura del vecchio storico: " + e.getMessage());
+        }
+        if (writeError[0] != null) {
+            throw writeError[0];
+        }
+        for (Map.Entry<YearMonth, TradePartition> entry : imported.entrySet()) {
+            TradePartition partition = entry.getValue();
+            partition.append(pendingRecords.get(entry.getKey()).toString());
+            partition.closeChannel();
+            partition.saveIndex();
+        }
+        System.out.println("Importati " + importedTrades[0] + " scambi da " + legacyHistoryPath + " in " + imported.size() + " partizioni mensili");
+    }
+
+    /**
+     * Aggrega in candele gli scambi ricevuti in ordine di tempo dalla lettura in streaming.
+     */
+    private static class CandleBuilder implements TradeConsumer {
+        private final long intervalSeconds;
+        private final CandleConsumer consumer;
+        private long candleStart = Long.MIN_VALUE;
+        private int open;
+        private int close;
+        private int max;
+        private int min;
+        private long volume;
+
+        private CandleBuilder(long intervalSeconds, CandleConsumer consumer) {
+            this.intervalSeconds = intervalSeconds;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void accept(long orderId, String type, String orderType, int size, int price, long timestamp) {
+            long start = Math.floorDiv(timestamp, intervalSeconds) * intervalSeconds;
+            if (start != candleStart) {
+                flush();
+                candleStart = start;
+                open = price;
+                max = price;
+                min = price;
+                volume = 0;
+            }
+            close = price;
+            max = Math.max(max, price);
+            min = Math.min(min, price);
+            volume += size;
+        }
+
+        private void flush() {
+            if (candleStart != Long.MIN_VALUE) {
+                consumer.accept(candleStart, open, close, max, min, volume);
+            }
+        }
+    }
+
+    /**
+     * Record riutilizzabile di uno scambio in attesa di essere scritto, con il timestamp (in secondi) dell'esecuzione.
+     * I campi scritti dal matching sono resi visibili al thread di scrittura dal passaggio attraverso la coda.
+     */
+    private static class PendingTrade {
+        private long orderId;
+        private long timestamp;
+        private int size;
+        private int price;
+        private byte side;
+        private byte orderType;
+
+        private void set(long orderId, byte side, byte orderType, int size, int price, long timestamp) {
+            this.orderId = orderId;
+            this.side = side;
+            this.orderType = orderType;
+            this.size = size;
+            this.price = price;
+            this.timestamp = timestamp;
+        }
+    }
+}
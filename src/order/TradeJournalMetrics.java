@@ -0,0 +1,128 @@
+package order;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metriche del salvataggio asincrono degli scambi: dimensione dei batch e latenza di scrittura/flush.
+ * Permettono di valutare il compromesso tra durabilità e throughput scelto in configurazione.
+ * Riportano anche gli errori di scrittura e le attese del matching quando la coda degli scambi è piena.
+ */
+public class TradeJournalMetrics {
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicLong writeFailures = new AtomicLong();
+    private final AtomicLong backPressureWaits = new AtomicLong();
+    private final AtomicLong backPressureNanos = new AtomicLong();
+
+    /**
+     * Registra la scrittura di un batch.
+     *
+     * @param batchSize  Numero di scambi scritti nel batch.
+     * @param flushNanos Tempo impiegato per scrivere (ed eventualmente sincronizzare) il batch.
+     */
+    void recordBatch(int batchSize, long flushNanos) {
+        batches.incrementAndGet();
+        records.addAndGet(batchSize);
+        maxBatchSize.accumulateAndGet(batchSize, Math::max);
+        totalFlushNanos.addAndGet(flushNanos);
+        maxFlushNanos.accumulateAndGet(flushNanos, Math::max);
+    }
+
+    /**
+     * Registra una sincronizzazione su disco (fsync).
+     */
+    void recordFsync() {
+        fsyncs.incrementAndGet();
+    }
+
+    /**
+     * Registra un tentativo di scrittura fallito, che verrà ripetuto.
+     */
+    void recordWriteFailure() {
+        writeFailures.incrementAndGet();
+    }
+
+    /**
+     * Registra un'attesa del matching per un record libero, con la coda degli scambi piena.
+     *
+     * @param waitNanos Durata dell'attesa.
+     */
+    void recordBackPressure(long waitNanos) {
+        backPressureWaits.incrementAndGet();
+        backPressureNanos.addAndGet(waitNanos);
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getRecords() {
+        return records.get();
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    public long getFsyncs() {
+        return fsyncs.get();
+    }
+
+    public long getWriteFailures() {
+        return writeFailures.get();
+    }
+
+    public long getBackPressureWaits() {
+        return backPressureWaits.get();
+    }
+
+    /**
+     * Restituisce il tempo totale trascorso dal matching in attesa di un record libero, in millisecondi.
+     *
+     * @return Il tempo di attesa totale in millisecondi.
+     */
+    public double getBackPressureMillis() {
+        return backPressureNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Restituisce la dimensione media dei batch scritti.
+     *
+     * @return Il numero medio di scambi per batch.
+     */
+    public double getAverageBatchSize() {
+        long count = batches.get();
+        return count == 0 ? 0 : (double) records.get() / count;
+    }
+
+    /**
+     * Restituisce la latenza media di scrittura di un batch in microsecondi.
+     *
+     * @return La latenza media in microsecondi.
+     */
+    public double getAverageFlushMicros() {
+        long count = batches.get();
+        return count == 0 ? 0 : totalFlushNanos.get() / 1000.0 / count;
+    }
+
+    /**
+     * Restituisce la latenza massima di scrittura di un batch in microsecondi.
+     *
+     * @return La latenza massima in microsecondi.
+     */
+    public double getMaxFlushMicros() {
+        return maxFlushNanos.get() / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("batch=%d, scambi=%d, media batch=%.1f, max batch=%d, flush medio=%.1fus, flush max=%.1fus, fsync=%d, "
+                        + "errori scrittura=%d, attese coda piena=%d (%.1fms)",
+                getBatches(), getRecords(), getAverageBatchSize(), getMaxBatchSize(), getAverageFlushMicros(), getMaxFlushMicros(), getFsyncs(),
+                getWriteFailures(), getBackPressureWaits(), getBackPressureMillis());
+    }
+}
@@ -0,0 +1,487 @@
+package order;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Partizione mensile dello storico degli scambi.
+ * Ogni partizione è composta da un file dati (un record JSON per riga, in ordine di scrittura)
+ * e da un piccolo indice con il numero di record, l'intervallo temporale coperto e le candele
+ * giornaliere già calcolate: lo storico prezzi di un mese si ottiene senza leggere gli scambi.
+ * Le candele consultate dalle interrogazioni vengono aggiornate in memoria dal matching a ogni scambio,
+ * prima che lo scambio sia scritto; l'indice salvato contiene invece le candele dei soli scambi già scritti
+ * nel file dati, così dopo un arresto improvviso resta coerente con esso.
+ * Se abilitato, gli scambi vengono registrati anche in un {@link TradeSegment} binario mappato in memoria,
+ * usato per le scansioni per intervallo; il file JSON resta la fonte di riferimento e il segmento
+ * viene riallineato a esso all'apertura della partizione.
+ * <p>
+ * L'indice viene modificato e salvato solo dal thread di scrittura del {@link TradeJournal};
+ * le candele in memoria vengono aggiornate solo dal matching e lette in concorrenza da qualsiasi thread.
+ * La creazione di una partizione nuova non apre file, quindi può avvenire anche dal matching.
+ */
+public class TradePartition {
+    private static final int MAX_DAYS = 31;
+
+    private final YearMonth month;
+    private final long monthStart; //inizio del mese in secondi (UTC)
+    private final Path dataPath;
+    private final Path indexPath;
+    private final Path segmentPath;
+    private FileChannel channel;
+    private volatile TradeSegment segment;
+    private boolean segmentPending; //segmento da creare alla prima scrittura
+
+    private long recordCount;
+    private long firstTimestamp = Long.MAX_VALUE;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private long dataLength;
+    private boolean dirty;
+    private final DayCandles indexCandles = new DayCandles(); //scambi scritti, salvate nell'indice
+    private final DayCandles liveCandles = new DayCandles(); //tutti gli scambi eseguiti, aggiornate dal matching
+
+    private TradePartition(Path directory, YearMonth month) {
+        this.month = month;
+        this.monthStart = month.atDay(1).toEpochDay() * 86400L;
+        this.dataPath = directory.resolve(month + ".jsonl");
+        this.indexPath = directory.resolve(month + ".index.json");
+        this.segmentPath = directory.resolve(month + ".bin");
+    }
+
+    /**
+     * Crea una nuova partizione vuota per il mese indicato, senza aprire file:
+     * il file dati e l'eventuale segmento binario vengono creati alla prima scrittura.
+     *
+     * @param directory   La cartella dello storico.
+     * @param month       Il mese della partizione.
+     * @param binaryStore true per registrare gli scambi anche nel segmento binario.
+     * @return La partizione vuota.
+     */
+    static TradePartition create(Path directory, YearMonth month, boolean binaryStore) {
+        TradePartition partition = new TradePartition(directory, month);
+        partition.segmentPending = binaryStore;
+        return partition;
+    }
+
+    /**
+     * Apre una partizione esistente caricandone l'indice.
+     * Se l'indice manca o non copre tutto il file dati (ad esempio dopo un arresto improvviso),
+     * vengono riletti solo i record successivi all'ultima posizione indicizzata.
+     *
+     * @param directory   La cartella dello storico.
+     * @param month       La partizione del mese.
+     * @param binaryStore true per registrare gli scambi anche nel segmento binario.
+     * @return La partizione, oppure null se per il mese non esistono scambi.
+     * @throws IOException se il file dati non può essere letto.
+     */
+    static TradePartition open(Path directory, YearMonth month, boolean binaryStore) throws IOException {
+        TradePartition partition = new TradePartition(directory, month);
+        if (!Files.exists(partition.dataPath)) {
+            return null;
+        }
+        long fileLength = Files.size(partition.dataPath);
+        if (!partition.loadIndex() || partition.dataLength > fileLength) {
+            partition.reset();
+        }
+        if (binaryStore) {
+            partition.openSegment();
+            //Il segmento non può contenere meno scambi dell'indice: in quel caso viene ricostruito dal file JSON
+            if (partition.segment != null && partition.segment.size() < partition.recordCount) {
+                partition.reset();
+            }
+            partition.truncateSegment(partition.recordCount);
+        }
+        if (partition.dataLength < fileLength) {
+            partition.recover(fileLength);
+        }
+        partition.liveCandles.copyFrom(partition.indexCandles);
+        return partition;
+    }
+
+    /**
+     * Restituisce il mese a cui appartiene un timestamp.
+     *
+     * @param timestamp Il timestamp in secondi (UTC).
+     * @return Il mese corrispondente.
+     */
+    static YearMonth monthOf(long timestamp) {
+        return YearMonth.from(LocalDate.ofEpochDay(Math.floorDiv(timestamp, 86400L)));
+    }
+
+    /**
+     * Aggiunge in coda al file dati le righe già composte di uno o più scambi.
+     * Se la scrittura fallisce il file viene riportato alla lunghezza precedente, così la stessa scrittura
+     * può essere ripetuta senza lasciare righe a metà; se nemmeno questo è possibile il file viene chiuso
+     * e troncato alla riapertura.
+     *
+     * @param records Le righe JSON da scrivere, ciascuna terminata da un a capo.
+     * @throws IOException se la scrittura fallisce.
+     */
+    void append(String records) throws IOException {
+        openPendingSegment();
+        if (channel == null) {
+            channel = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (channel.size() > dataLength) {
+                channel.truncate(dataLength);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8));
+        int length = buffer.remaining();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(dataLength);
+            } catch (IOException truncateException) {
+                channel.close();
+                channel = null;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            dataLength += length;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Aggiorna l'indice e le sue candele (ed eventualmente il segmento binario) con uno scambio già scritto
+     * nel file dati. Le candele in memoria vengono aggiornate separatamente con {@link #updateCandle(int, long)}.
+     *
+     * @param orderId   L'ID dell'ordine eseguito.
+     * @param type      Il lato dell'ordine (bid/ask).
+     * @param orderType Il tipo di ordine, può essere null.
+     * @param size      La quantità scambiata.
+     * @param price     Il prezzo dello scambio.
+     * @param timestamp Il timestamp dello scambio in secondi (UTC).
+     */
+    synchronized void record(long orderId, String type, String orderType, int size, int price, long timestamp) {
+        openPendingSegment();
+        if (segment != null) {
+            try {
+                segment.append(orderId, type, orderType, size, price, timestamp);
+            } catch (IOException e) {
+                //Il file JSON resta valido: il segmento verrà ricostruito alla prossima apertura
+                System.err.println("Errore nella scrittura del segmento binario " + month + ", disabilitato: " + e.getMessage());
+                segment = null;
+            }
+        }
+        indexCandles.update(dayOf(timestamp), price);
+        recordCount++;
+        firstTimestamp = Math.min(firstTimestamp, timestamp);
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        dirty = true;
+    }
+
+    /**
+     * Aggiorna la candela in memoria del giorno di uno scambio appena eseguito, senza creare oggetti.
+     * Viene chiamato dal matching, anche prima che lo scambio sia scritto nel file dati.
+     *
+     * @param price     Il prezzo dello scambio.
+     * @param timestamp Il timestamp dello scambio in secondi (UTC), all'interno del mese della partizione.
+     */
+    void updateCandle(int price, long timestamp) {
+        synchronized (liveCandles) {
+            liveCandles.update(dayOf(timestamp), price);
+        }
+    }
+
+    /**
+     * Sincronizza su disco il file dati, se aperto in scrittura.
+     *
+     * @throws IOException se la sincronizzazione fallisce.
+     */
+    void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Salva l'indice su file, solo se è cambiato dall'ultimo salvataggio.
+     * L'indice viene scritto in un file temporaneo e poi sostituito, così non resta mai a metà.
+     *
+     * @throws IOException se il salvataggio fallisce.
+     */
+    void saveIndex() throws IOException {
+        JsonObject index;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            index = toJson();
+            dirty = false;
+        }
+        Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            writer.write(index.toString());
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            throw e;
+        }
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Sincronizza e chiude il file dati; la partizione resta consultabile tramite l'indice in memoria.
+     *
+     * @throws IOException se la chiusura fallisce.
+     */
+    void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+        if (segment != null) {
+            segment.close();
+        }
+    }
+
+    /**
+     * Restituisce le candele giornaliere del mese, in ordine di data, comprese quelle degli scambi
+     * eseguiti ma non ancora scritti nel file dati.
+     *
+     * @return La lista delle candele, vuota se nel mese non ci sono scambi.
+     */
+    public List<DayPriceData> getDayPrices() {
+        List<DayPriceData> dayPrices = new ArrayList<>();
+        synchronized (liveCandles) {
+            for (int day = 0; day < MAX_DAYS; day++) {
+                if (liveCandles.tradedDays[day]) {
+                    dayPrices.add(new DayPriceData(month.atDay(day + 1), liveCandles.openPrices[day], liveCandles.closePrices[day],
+                            liveCandles.maxPrices[day], liveCandles.minPrices[day]));
+                }
+            }
+        }
+        return dayPrices;
+    }
+
+    public YearMonth getMonth() {
+        return month;
+    }
+
+    public Path getDataPath() {
+        return dataPath;
+    }
+
+    /**
+     * Restituisce il segmento binario della partizione.
+     *
+     * @return Il segmento binario, oppure null se non abilitato o non disponibile.
+     */
+    public TradeSegment getSegment() {
+        return segment;
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    public synchronized long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public synchronized long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    private JsonObject toJson() {
+        JsonObject index = new JsonObject();
+        index.addProperty("month", month.toString());
+        index.addProperty("records", recordCount);
+        index.addProperty("firstTimestamp", firstTimestamp);
+        index.addProperty("lastTimestamp", lastTimestamp);
+        index.addProperty("dataLength", dataLength);
+        JsonArray candles = new JsonArray();
+        for (int day = 0; day < MAX_DAYS; day++) {
+            if (indexCandles.tradedDays[day]) {
+                JsonObject candle = new JsonObject();
+                candle.addProperty("day", day + 1);
+                candle.addProperty("openPrice", indexCandles.openPrices[day]);
+                candle.addProperty("closePrice", indexCandles.closePrices[day]);
+                candle.addProperty("maxPrice", indexCandles.maxPrices[day]);
+                candle.addProperty("minPrice", indexCandles.minPrices[day]);
+                candles.add(candle);
+            }
+        }
+        index.add("candles", candles);
+        return index;
+    }
+
+    /**
+     * Carica l'indice salvato della partizione.
+     *
+     * @return true se l'indice è stato caricato, false se manca o non è valido.
+     */
+    private boolean loadIndex() {
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        try (Reader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            JsonObject index = JsonParser.parseReader(reader).getAsJsonObject();
+            recordCount = index.get("records").getAsLong();
+            firstTimestamp = index.get("firstTimestamp").getAsLong();
+            lastTimestamp = index.get("lastTimestamp").getAsLong();
+            dataLength = index.get("dataLength").getAsLong();
+            for (JsonElement element : index.getAsJsonArray("candles")) {
+                JsonObject candle = element.getAsJsonObject();
+                int day = candle.get("day").getAsInt() - 1;
+                indexCandles.tradedDays[day] = true;
+                indexCandles.openPrices[day] = candle.get("openPrice").getAsInt();
+                indexCandles.closePrices[day] = candle.get("closePrice").getAsInt();
+                indexCandles.maxPrices[day] = candle.get("maxPrice").getAsInt();
+                indexCandles.minPrices[day] = candle.get("minPrice").getAsInt();
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Indice della partizione " + month + " non valido, ricostruzione: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void reset() {
+        recordCount = 0;
+        firstTimestamp = Long.MAX_VALUE;
+        lastTimestamp = Long.MIN_VALUE;
+        dataLength = 0;
+        Arrays.fill(indexCandles.tradedDays, false);
+        truncateSegment(0);
+    }
+
+    private int dayOf(long timestamp) {
+        return (int) Math.floorDiv(timestamp - monthStart, 86400L);
+    }
+
+    /**
+     * Crea il segmento binario di una partizione nuova alla prima scrittura, scartando l'eventuale
+     * contenuto di un segmento rimasto senza file dati.
+     */
+    private void openPendingSegment() {
+        if (segmentPending) {
+            segmentPending = false;
+            openSegment();
+            truncateSegment(0);
+        }
+    }
+
+    private void openSegment() {
+        try {
+            segment = TradeSegment.open(segmentPath);
+        } catch (IOException e) {
+            System.err.println("Errore nell'apertura del segmento binario " + month + ": " + e.getMessage());
+            segment = null;
+        }
+    }
+
+    private void truncateSegment(long records) {
+        if (segment != null) {
+            segment.truncate(records);
+        }
+    }
+
+    /**
+     * Rilegge i record del file dati non ancora coperti dall'indice e aggiorna l'indice.
+     * I record vengono letti una riga alla volta: la lettura si ferma alla prima riga incompleta (senza a capo)
+     * o non valida, tipicamente l'ultima di una scrittura interrotta, e il file dati viene troncato alla fine
+     * dell'ultima riga valida, così le scritture successive iniziano su una riga nuova.
+     *
+     * @param fileLength La dimensione attuale del file dati.
+     * @throws IOException se il file dati non può essere letto o troncato.
+     */
+    private void recover(long fileLength) throws IOException {
+        long validLength = dataLength;
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(dataPath))) {
+            input.skipNBytes(dataLength);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long position = dataLength;
+            int next;
+            while ((next = input.read()) != -1) {
+                position++;
+                if (next != '\n') {
+                    line.write(next);
+                    continue;
+                }
+                try {
+                    TradeStreamReader.readTrades(new StringReader(line.toString(StandardCharsets.UTF_8)),
+                            Long.MIN_VALUE, Long.MAX_VALUE, this::record);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Record della partizione " + month + " non valido: " + e.getMessage());
+                    break;
+                }
+                line.reset();
+                validLength = position;
+            }
+        }
+        if (validLength < fileLength) {
+            System.err.println("Partizione " + month + ": scartati " + (fileLength - validLength) + " byte di record incompleti in coda");
+            try (FileChannel file = FileChannel.open(dataPath, StandardOpenOption.WRITE)) {
+                file.truncate(validLength);
+                file.force(false);
+            }
+        }
+        dataLength = validLength;
+        dirty = true;
+        saveIndex();
+    }
+
+    /**
+     * Candele giornaliere di un mese: apertura, chiusura, massimo e minimo per ciascun giorno con scambi.
+     */
+    private static class DayCandles {
+        private final boolean[] tradedDays = new boolean[MAX_DAYS];
+        private final int[] openPrices = new int[MAX_DAYS];
+        private final int[] closePrices = new int[MAX_DAYS];
+        private final int[] maxPrices = new int[MAX_DAYS];
+        private final int[] minPrices = new int[MAX_DAYS];
+
+        private void update(int day, int price) {
+            if (!tradedDays[day]) {
+                tradedDays[day] = true;
+                openPrices[day] = price;
+                maxPrices[day] = price;
+                minPrices[day] = price;
+            } else {
+                maxPrices[day] = Math.max(maxPrices[day], price);
+                minPrices[day] = Math.min(minPrices[day], price);
+            }
+            closePrices[day] = price;
+        }
+
+        private void copyFrom(DayCandles other) {
+            System.arraycopy(other.tradedDays, 0, tradedDays, 0, MAX_DAYS);
+            System.arraycopy(other.openPrices, 0, openPrices, 0, MAX_DAYS);
+            System.arraycopy(other.closePrices, 0, closePrices, 0, MAX_DAYS);
+            System.arraycopy(other.maxPrices, 0, maxPrices, 0, MAX_DAYS);
+            System.arraycopy(other.minPrices, 0, minPrices, 0, MAX_DAYS);
+        }
+    }
+}
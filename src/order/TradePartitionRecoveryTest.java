@@ -0,0 +1,76 @@
+package order;
+
+import common.JsonParsing;
+
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+
+/**
+ * Verifica il recupero di una partizione dello storico dopo una scrittura interrotta.
+ * Il file dati contiene alcuni record completi seguiti da una riga troncata e nessun indice:
+ * all'apertura la riga troncata deve essere scartata e il file troncato alla fine dell'ultimo record valido,
+ * così lo scambio aggiunto subito dopo inizia su una riga nuova e alla riapertura tutti gli scambi completi
+ * risultano leggibili. La prova viene ripetuta con e senza segmento binario.
+ * <p>
+ * Esecuzione: {@code java -cp out:lib/gson-2.8.9.jar order.TradePartitionRecoveryTest}
+ */
+public class TradePartitionRecoveryTest {
+    private static final YearMonth MONTH = YearMonth.of(2024, 5);
+    private static final long MONTH_START = MONTH.atDay(1).toEpochDay() * 86400L;
+    private static final int COMPLETE_RECORDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        for (boolean binaryStore : new boolean[]{false, true}) {
+            passed &= run(binaryStore);
+        }
+        System.out.println(passed ? "OK: i record troncati vengono scartati e le scritture successive restano leggibili"
+                : "ERRORE: recupero della partizione non corretto");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean run(boolean binaryStore) throws Exception {
+        JsonParsing jsonParsing = new JsonParsing();
+        Path directory = Files.createTempDirectory("partition-recovery");
+        Path dataPath = directory.resolve(MONTH + ".jsonl");
+
+        StringBuilder records = new StringBuilder();
+        for (int i = 0; i < COMPLETE_RECORDS; i++) {
+            records.append(jsonParsing.createTradeRecord(i + 1, "bid", "limit", 1, 1000 + i, MONTH_START + i)).append('\n');
+        }
+        long validLength = records.toString().getBytes(StandardCharsets.UTF_8).length;
+        String lastRecord = jsonParsing.createTradeRecord(COMPLETE_RECORDS + 1, "ask", "market", 1, 2000, MONTH_START + COMPLETE_RECORDS);
+        //scrittura interrotta a metà dell'ultimo record
+        records.append(lastRecord, 0, lastRecord.length() / 2);
+        Files.writeString(dataPath, records.toString(), StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
+
+        TradePartition partition = TradePartition.open(directory, MONTH, binaryStore);
+        long recovered = partition.getRecordCount();
+        boolean truncated = Files.size(dataPath) == validLength;
+
+        long timestamp = MONTH_START + COMPLETE_RECORDS + 1;
+        partition.append(jsonParsing.createTradeRecord(COMPLETE_RECORDS + 2, "ask", "limit", 2, 1500, timestamp) + "\n");
+        partition.record(COMPLETE_RECORDS + 2, "ask", "limit", 2, 1500, timestamp);
+        partition.closeChannel();
+        partition.saveIndex();
+
+        TradePartition reopened = TradePartition.open(directory, MONTH, binaryStore);
+        long read;
+        try (BufferedReader reader = Files.newBufferedReader(dataPath, StandardCharsets.UTF_8)) {
+            read = TradeStreamReader.readTrades(reader, Long.MIN_VALUE, Long.MAX_VALUE,
+                    (orderId, type, orderType, size, price, tradeTimestamp) -> {
+                    });
+        }
+        long segmentRecords = reopened.getSegment() == null ? read : reopened.getSegment().size();
+        reopened.closeChannel();
+
+        System.out.printf("Segmento binario %s: record dopo il recupero %d, file troncato %b, record letti dopo la scrittura %d%n",
+                binaryStore ? "attivo" : "non attivo", recovered, truncated, read);
+        return recovered == COMPLETE_RECORDS && truncated && read == COMPLETE_RECORDS + 1
+                && reopened.getRecordCount() == COMPLETE_RECORDS + 1 && segmentRecords == COMPLETE_RECORDS + 1;
+    }
+}
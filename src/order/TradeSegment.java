@@ -0,0 +1,296 @@
+package order;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Segmento binario mappato in memoria con gli scambi di un mese, complementare al file JSON della partizione.
+ * Ogni scambio occupa un record a dimensione fissa di {@value #RECORD_SIZE} byte:
+ * <pre>
+ *  0  long orderId
+ *  8  long timestamp (secondi, UTC)
+ * 16  int  size
+ * 20  int  price
+ * 24  byte lato (0 = bid, 1 = ask)
+ * 25  byte tipo di ordine (0 = non indicato, 1 = limit, 2 = market, 3 = stop)
+ * </pre>
+ * L'intestazione del file contiene il numero di record validi. Finché gli scambi sono scritti in ordine di
+ * tempo, le interrogazioni per intervallo usano la ricerca binaria sui record mappati; la scansione e il
+ * calcolo delle candele leggono direttamente la memoria mappata senza creare oggetti per record.
+ * <p>
+ * I record vengono aggiunti solo dal thread di scrittura del {@link TradeJournal}; le letture possono avvenire
+ * in concorrenza perché il numero di record viene pubblicato solo dopo la scrittura del record.
+ */
+public class TradeSegment {
+    static final int RECORD_SIZE = 32;
+    private static final int HEADER_SIZE = 32;
+    private static final int MAGIC = 0x43524F53;
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Path path;
+    private FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+    private long capacity;
+    private volatile long count;
+    private volatile boolean sorted = true;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    private TradeSegment(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Apre (o crea) il segmento binario e ne mappa il contenuto in memoria.
+     *
+     * @param path Il percorso del file del segmento.
+     * @return Il segmento aperto.
+     * @throws IOException se il file non può essere aperto o non è un segmento valido.
+     */
+    static TradeSegment open(Path path) throws IOException {
+        TradeSegment segment = new TradeSegment(path);
+        segment.map();
+        MappedByteBuffer buffer = segment.buffer;
+        if (buffer.getInt(0) == 0) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, 0);
+            buffer.put(16, (byte) 1);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            segment.close();
+            throw new IOException("Segmento binario non valido: " + path);
+        }
+        segment.count = Math.min(buffer.getLong(8), segment.capacity);
+        segment.sorted = buffer.get(16) == 1;
+        if (segment.count > 0) {
+            segment.lastTimestamp = segment.getTimestamp(segment.count - 1);
+        }
+        return segment;
+    }
+
+    /**
+     * Aggiunge in coda un record di scambio.
+     *
+     * @param orderId   L'ID dell'ordine eseguito.
+     * @param type      Il lato dell'ordine (bid/ask).
+     * @param orderType Il tipo di ordine, può essere null.
+     * @param size      La quantità scambiata.
+     * @param price     Il prezzo dello scambio.
+     * @param timestamp Il timestamp dello scambio in secondi (UTC).
+     * @throws IOException se il segmento non può essere ingrandito.
+     */
+    void append(long orderId, String type, String orderType, int size, int price, long timestamp) throws IOException {
+        if (channel == null || count == capacity) {
+            map();
+        }
+        MappedByteBuffer target = buffer;
+        int offset = offsetOf(count);
+        target.putLong(offset, orderId);
+        target.putLong(offset + 8, timestamp);
+        target.putInt(offset + 16, size);
+        target.putInt(offset + 20, price);
+        target.put(offset + 24, "ask".equals(type) ? Order.ASK : Order.BID);
+        target.put(offset + 25, Order.parseTypeName(orderType));
+        if (timestamp < lastTimestamp && sorted) {
+            sorted = false;
+            target.put(16, (byte) 0);
+        }
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        target.putLong(8, count + 1);
+        //Il nuovo record diventa visibile ai lettori solo dopo essere stato scritto interamente
+        count = count + 1;
+    }
+
+    /**
+     * Riduce il numero di record validi, scartando quelli in coda.
+     * Usato all'apertura della partizione per riallineare il segmento al file JSON.
+     *
+     * @param records Il nuovo numero di record, non superiore a quello attuale.
+     */
+    void truncate(long records) {
+        if (records >= count) {
+            return;
+        }
+        count = records;
+        buffer.putLong(8, records);
+        lastTimestamp = records > 0 ? getTimestamp(records - 1) : Long.MIN_VALUE;
+        if (records == 0) {
+            sorted = true;
+            buffer.put(16, (byte) 1);
+        }
+    }
+
+    /**
+     * Restituisce il numero di record validi nel segmento.
+     *
+     * @return Il numero di scambi registrati.
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Restituisce l'indice del primo record con timestamp maggiore o uguale a quello indicato.
+     * Richiede che i record siano in ordine di tempo; altrimenti restituisce 0.
+     *
+     * @param timestamp Il timestamp cercato in secondi.
+     * @return L'indice del primo record non precedente al timestamp, oppure {@link #size()} se non esiste.
+     */
+    public long lowerBound(long timestamp) {
+        long high = count;
+        if (!sorted) {
+            return 0;
+        }
+        long low = 0;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (getTimestamp(middle) < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Scorre i record con timestamp compreso nell'intervallo indicato.
+     * L'inizio dell'intervallo viene individuato con la ricerca binaria e la scansione termina
+     * al primo record successivo alla fine dell'intervallo.
+     *
+     * @param fromTimestamp Inizio dell'intervallo in secondi, incluso.
+     * @param toTimestamp   Fine dell'intervallo in secondi, inclusa.
+     * @param consumer      Destinatario degli scambi, uno alla volta.
+     * @return Il numero di scambi passati al consumer.
+     */
+    public long forEach(long fromTimestamp, long toTimestamp, TradeConsumer consumer) {
+        long records = count;
+        MappedByteBuffer source = buffer;
+        boolean ordered = sorted;
+        long delivered = 0;
+        for (long index = lowerBound(fromTimestamp); index < records; index++) {
+            int offset = offsetOf(index);
+            long timestamp = source.getLong(offset + 8);
+            if (timestamp > toTimestamp) {
+                if (ordered) {
+                    break;
+                }
+                continue;
+            }
+            if (timestamp < fromTimestamp) {
+                continue;
+            }
+            consumer.accept(source.getLong(offset), Order.sideName(source.get(offset + 24)), Order.typeName(source.get(offset + 25)),
+                    source.getInt(offset + 16), source.getInt(offset + 20), timestamp);
+            delivered++;
+        }
+        return delivered;
+    }
+
+    /**
+     * Calcola le candele (apertura, chiusura, massimo, minimo e volume) degli scambi nell'intervallo indicato,
+     * raggruppandoli in intervalli di durata fissa. I valori vengono letti direttamente dalla memoria mappata,
+     * senza creare oggetti per i singoli record.
+     *
+     * @param fromTimestamp   Inizio dell'intervallo in secondi, incluso.
+     * @param toTimestamp     Fine dell'intervallo in secondi, inclusa.
+     * @param intervalSeconds Durata di ogni candela in secondi.
+     * @param consumer        Destinatario delle candele, in ordine di tempo.
+     */
+    public void computeCandles(long fromTimestamp, long toTimestamp, long intervalSeconds, CandleConsumer consumer) {
+        long records = count;
+        MappedByteBuffer source = buffer;
+        long candleStart = Long.MIN_VALUE;
+        int open = 0;
+        int close = 0;
+        int max = 0;
+        int min = 0;
+        long volume = 0;
+        for (long index = lowerBound(fromTimestamp); index < records; index++) {
+            int offset = offsetOf(index);
+            long timestamp = source.getLong(offset + 8);
+            if (timestamp > toTimestamp) {
+                if (sorted) {
+                    break;
+                }
+                continue;
+            }
+            if (timestamp < fromTimestamp) {
+                continue;
+            }
+            int price = source.getInt(offset + 20);
+            long start = Math.floorDiv(timestamp, intervalSeconds) * intervalSeconds;
+            if (start != candleStart) {
+                if (candleStart != Long.MIN_VALUE) {
+                    consumer.accept(candleStart, open, close, max, min, volume);
+                }
+                candleStart = start;
+                open = price;
+                max = price;
+                min = price;
+                volume = 0;
+            }
+            close = price;
+            max = Math.max(max, price);
+            min = Math.min(min, price);
+            volume += source.getInt(offset + 16);
+        }
+        if (candleStart != Long.MIN_VALUE) {
+            consumer.accept(candleStart, open, close, max, min, volume);
+        }
+    }
+
+    /**
+     * Sincronizza su disco le modifiche al segmento.
+     */
+    void force() {
+        if (channel != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Sincronizza e chiude il canale del file; il contenuto già mappato resta leggibile.
+     *
+     * @throws IOException se la chiusura fallisce.
+     */
+    void close() throws IOException {
+        if (channel != null) {
+            buffer.force();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private long getTimestamp(long index) {
+        return buffer.getLong(offsetOf(index) + 8);
+    }
+
+    private static int offsetOf(long index) {
+        return Math.toIntExact(HEADER_SIZE + index * RECORD_SIZE);
+    }
+
+    /**
+     * Mappa il file in memoria, raddoppiandone la capacità se il segmento è pieno.
+     *
+     * @throws IOException se il file non può essere mappato.
+     */
+    private void map() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        long fileRecords = Math.max(0, (channel.size() - HEADER_SIZE) / RECORD_SIZE);
+        long newCapacity = Math.max(INITIAL_CAPACITY, fileRecords);
+        if (buffer != null && count == newCapacity) {
+            newCapacity *= 2;
+        }
+        if (buffer != null && newCapacity == capacity) {
+            return;
+        }
+        capacity = newCapacity;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, offsetOf(capacity));
+    }
+}
@@ -0,0 +1,216 @@
+package order;
+
+import common.JsonParsing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Verifica le letture del segmento binario confrontandole con la lettura in streaming del file JSON
+ * della stessa partizione: scansione per intervallo ({@link TradeSegment#forEach}), ricerca binaria
+ * ({@link TradeSegment#lowerBound}) e calcolo delle candele ({@link TradeSegment#computeCandles}).
+ * Più scambi hanno lo stesso timestamp, quindi gli intervalli provati iniziano e finiscono anche a metà
+ * di un secondo con più scambi, in un secondo senza scambi e fuori dall'intervallo coperto.
+ * Le candele vengono verificate anche attraverso {@link TradeJournal#forEachCandle}, con e senza segmento binario.
+ * <p>
+ * Esecuzione: {@code java -cp out:lib/gson-2.8.9.jar order.TradeSegmentTest}
+ */
+public class TradeSegmentTest {
+    private static final YearMonth MONTH = YearMonth.of(2024, 5);
+    private static final long MONTH_START = MONTH.atDay(1).toEpochDay() * 86400L;
+    private static final long MONTH_END = MONTH.plusMonths(1).atDay(1).toEpochDay() * 86400L - 1;
+    private static final int TRADES = 2000;
+    private static final long[] INTERVALS = {1, 7, 60, 3600};
+
+    public static void main(String[] args) throws Exception {
+        JsonParsing jsonParsing = new JsonParsing();
+        Path directory = Files.createTempDirectory("trade-segment");
+        Random random = new Random(42);
+
+        TradePartition partition = TradePartition.create(directory, MONTH, true);
+        List<Long> timestamps = new ArrayList<>();
+        long timestamp = MONTH_START + 5 * 3600;
+        for (int i = 0; i < TRADES; i++) {
+            //da 0 a 3 secondi tra uno scambio e il successivo: più scambi nello stesso secondo e secondi senza scambi
+            timestamp += random.nextInt(4);
+            String type = random.nextBoolean() ? "bid" : "ask";
+            String orderType = i % 4 == 0 ? null : i % 4 == 1 ? "limitorder" : i % 4 == 2 ? "marketorder" : "stoporder";
+            int size = 1 + random.nextInt(10);
+            int price = 1000 + random.nextInt(200);
+            partition.append(jsonParsing.createTradeRecord(i + 1, type, orderType, size, price, timestamp) + "\n");
+            partition.record(i + 1, type, orderType, size, price, timestamp);
+            timestamps.add(timestamp);
+        }
+        long first = timestamps.get(0);
+        long last = timestamps.get(TRADES - 1);
+        long shared = sharedSecond(timestamps);
+        long empty = emptySecond(timestamps);
+        long[][] ranges = {
+                {Long.MIN_VALUE, Long.MAX_VALUE},
+                {first, last},
+                {shared, shared},
+                {shared, shared + 1},
+                {shared - 1, shared},
+                {shared + 1, last},
+                {empty, empty},
+                {empty, shared + 100},
+                {first - 10, first - 1},
+                {last + 1, last + 10},
+                {first + 1, last - 1},
+        };
+
+        TradeSegment segment = partition.getSegment();
+        boolean passed = segment.size() == TRADES;
+        passed &= checkLowerBound(segment, timestamps, first, last, shared, empty);
+        passed &= checkRanges("ordinato", partition, ranges);
+
+        //Uno scambio fuori ordine disattiva la ricerca binaria: le letture devono restare corrette
+        partition.append(jsonParsing.createTradeRecord(TRADES + 1, "ask", "limitorder", 3, 900, shared) + "\n");
+        partition.record(TRADES + 1, "ask", "limitorder", 3, 900, shared);
+        passed &= segment.lowerBound(shared) == 0;
+        passed &= checkRanges("non ordinato", partition, ranges);
+        partition.closeChannel();
+        partition.saveIndex();
+
+        passed &= checkJournal(directory, true);
+        passed &= checkJournal(directory, false);
+
+        System.out.println(passed ? "OK: segmento binario e file JSON restituiscono gli stessi scambi e le stesse candele"
+                : "ERRORE: il segmento binario non corrisponde al file JSON");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean checkLowerBound(TradeSegment segment, List<Long> timestamps, long... probes) {
+        boolean passed = true;
+        for (long probe : probes) {
+            for (long value = probe - 1; value <= probe + 1; value++) {
+                long expected = 0;
+                while (expected < timestamps.size() && timestamps.get((int) expected) < value) {
+                    expected++;
+                }
+                if (segment.lowerBound(value) != expected) {
+                    System.out.println("lowerBound(" + value + "): atteso " + expected + ", ottenuto " + segment.lowerBound(value));
+                    passed = false;
+                }
+            }
+        }
+        return passed;
+    }
+
+    private static boolean checkRanges(String label, TradePartition partition, long[][] ranges) throws IOException {
+        boolean passed = true;
+        TradeSegment segment = partition.getSegment();
+        for (long[] range : ranges) {
+            List<String> expected = new ArrayList<>();
+            try (BufferedReader reader = Files.newBufferedReader(partition.getDataPath(), StandardCharsets.UTF_8)) {
+                TradeStreamReader.readTrades(reader, range[0], range[1], collectTrades(expected));
+            }
+            List<String> actual = new ArrayList<>();
+            long delivered = segment.forEach(range[0], range[1], collectTrades(actual));
+            if (!expected.equals(actual) || delivered != expected.size()) {
+                System.out.println("forEach " + label + " [" + range[0] + ", " + range[1] + "]: attesi " + expected.size()
+                        + " scambi, ottenuti " + actual.size());
+                passed = false;
+            }
+            for (long interval : INTERVALS) {
+                List<String> expectedCandles = expectedCandles(partition.getDataPath(), range[0], range[1], interval);
+                List<String> candles = new ArrayList<>();
+                segment.computeCandles(range[0], range[1], interval, collectCandles(candles));
+                if (!expectedCandles.equals(candles)) {
+                    System.out.println("computeCandles " + label + " [" + range[0] + ", " + range[1] + "] ogni " + interval
+                            + "s: attese " + expectedCandles.size() + " candele, ottenute " + candles.size());
+                    passed = false;
+                }
+            }
+        }
+        System.out.println("Segmento " + label + ": " + ranges.length + " intervalli verificati");
+        return passed;
+    }
+
+    private static boolean checkJournal(Path directory, boolean binaryStore) throws IOException {
+        TradeJournal journal = new TradeJournal(directory.toString(), List.of(), TradeJournal.Durability.NONE, 16, 1000, 16, binaryStore);
+        Path dataPath = directory.resolve(MONTH + ".jsonl");
+        boolean passed = true;
+        try {
+            for (long interval : INTERVALS) {
+                List<String> candles = new ArrayList<>();
+                journal.forEachCandle(MONTH_START, MONTH_END, interval, collectCandles(candles));
+                passed &= expectedCandles(dataPath, MONTH_START, MONTH_END, interval).equals(candles);
+            }
+        } finally {
+            journal.close();
+        }
+        System.out.println("Candele del giornale " + (binaryStore ? "con" : "senza") + " segmento binario: " + (passed ? "corrette" : "errate"));
+        return passed;
+    }
+
+    /**
+     * Calcola le candele attese leggendo il file JSON in streaming: una nuova candela inizia quando lo scambio
+     * successivo, in ordine di scrittura, appartiene a un altro intervallo.
+     */
+    private static List<String> expectedCandles(Path dataPath, long fromTimestamp, long toTimestamp, long interval) throws IOException {
+        List<String> candles = new ArrayList<>();
+        long[] candle = {Long.MIN_VALUE, 0, 0, 0, 0, 0}; //inizio, apertura, chiusura, massimo, minimo, volume
+        try (BufferedReader reader = Files.newBufferedReader(dataPath, StandardCharsets.UTF_8)) {
+            TradeStreamReader.readTrades(reader, fromTimestamp, toTimestamp, (orderId, type, orderType, size, price, timestamp) -> {
+                long start = Math.floorDiv(timestamp, interval) * interval;
+                if (start != candle[0]) {
+                    if (candle[0] != Long.MIN_VALUE) {
+                        candles.add(formatCandle(candle[0], candle[1], candle[2], candle[3], candle[4], candle[5]));
+                    }
+                    candle[0] = start;
+                    candle[1] = price;
+                    candle[3] = price;
+                    candle[4] = price;
+                    candle[5] = 0;
+                }
+                candle[2] = price;
+                candle[3] = Math.max(candle[3], price);
+                candle[4] = Math.min(candle[4], price);
+                candle[5] += size;
+            });
+        }
+        if (candle[0] != Long.MIN_VALUE) {
+            candles.add(formatCandle(candle[0], candle[1], candle[2], candle[3], candle[4], candle[5]));
+        }
+        return candles;
+    }
+
+    private static TradeConsumer collectTrades(List<String> trades) {
+        return (orderId, type, orderType, size, price, timestamp) ->
+                trades.add(orderId + " " + type + " " + orderType + " " + size + " " + price + " " + timestamp);
+    }
+
+    private static CandleConsumer collectCandles(List<String> candles) {
+        return (start, open, close, max, min, volume) -> candles.add(formatCandle(start, open, close, max, min, volume));
+    }
+
+    private static String formatCandle(long start, long open, long close, long max, long min, long volume) {
+        return start + " " + open + " " + close + " " + max + " " + min + " " + volume;
+    }
+
+    private static long sharedSecond(List<Long> timestamps) {
+        for (int i = timestamps.size() / 2; i < timestamps.size() - 2; i++) {
+            if (timestamps.get(i).equals(timestamps.get(i + 1)) && timestamps.get(i + 1).equals(timestamps.get(i + 2))) {
+                return timestamps.get(i);
+            }
+        }
+        throw new IllegalStateException("nessun secondo con più scambi");
+    }
+
+    private static long emptySecond(List<Long> timestamps) {
+        for (int i = timestamps.size() / 4; i < timestamps.size() - 1; i++) {
+            if (timestamps.get(i + 1) - timestamps.get(i) > 1) {
+                return timestamps.get(i) + 1;
+            }
+        }
+        throw new IllegalStateException("nessun secondo senza scambi");
+    }
+}
@@ -0,0 +1,137 @@
+package order;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Lettore in streaming dello storico degli scambi basato su {@link JsonReader}.
+ * Il file viene percorso un token alla volta senza costruirne l'albero in memoria: ogni scambio
+ * viene letto in variabili locali, filtrato per intervallo temporale e solo allora passato al
+ * {@link TradeConsumer}. La memoria usata è costante indipendentemente dalla dimensione del file.
+ * <p>
+ * Sono supportati sia il vecchio formato a oggetto unico {"trades": [...]} sia il giornale
+ * con un record JSON per riga.
+ */
+public class TradeStreamReader {
+    private TradeStreamReader() {
+    }
+
+    /**
+     * Legge tutti gli scambi con timestamp compreso nell'intervallo indicato.
+     *
+     * @param reader        La sorgente da leggere; non viene chiusa.
+     * @param fromTimestamp Inizio dell'intervallo in secondi, incluso.
+     * @param toTimestamp   Fine dell'intervallo in secondi, inclusa.
+     * @param consumer      Destinatario degli scambi nell'intervallo.
+     * @return Il numero di scambi passati al consumer.
+     * @throws IOException se la sorgente non può essere letta o non è JSON valido.
+     */
+    public static long readTrades(Reader reader, long fromTimestamp, long toTimestamp, TradeConsumer consumer) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+        //Il giornale contiene più valori JSON di primo livello, uno per riga
+        jsonReader.setLenient(true);
+        long delivered = 0;
+        while (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+            jsonReader.beginObject();
+            if (!jsonReader.hasNext()) {
+                jsonReader.endObject();
+                continue;
+            }
+            String name = jsonReader.nextName();
+            if (name.equals("trades") && jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+                jsonReader.beginArray();
+                while (jsonReader.hasNext()) {
+                    jsonReader.beginObject();
+                    delivered += readTrade(jsonReader, null, fromTimestamp, toTimestamp, consumer);
+                }
+                jsonReader.endArray();
+                skipRemainingFields(jsonReader);
+            } else {
+                delivered += readTrade(jsonReader, name, fromTimestamp, toTimestamp, consumer);
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Legge i campi di uno scambio il cui oggetto è già stato aperto e ne consuma la chiusura.
+     *
+     * @param jsonReader Il lettore posizionato all'interno dell'oggetto.
+     * @param firstName  Il nome del primo campo se già letto, altrimenti null.
+     * @param fromTimestamp Inizio dell'intervallo in secondi, incluso.
+     * @param toTimestamp   Fine dell'intervallo in secondi, inclusa.
+     * @param consumer      Destinatario dello scambio se nell'intervallo.
+     * @return 1 se lo scambio è stato passato al consumer, 0 altrimenti.
+     */
+    private static int readTrade(JsonReader jsonReader, String firstName, long fromTimestamp, long toTimestamp,
+                                 TradeConsumer consumer) throws IOException {
+        long orderId = 0;
+        String type = null;
+        String orderType = null;
+        int size = 0;
+        int price = 0;
+        long timestamp = 0;
+        boolean hasSize = false;
+        boolean hasPrice = false;
+        boolean hasTimestamp = false;
+        String name = firstName;
+        while (name != null || jsonReader.hasNext()) {
+            if (name == null) {
+                name = jsonReader.nextName();
+            }
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.skipValue();
+                name = null;
+                continue;
+            }
+            switch (name) {
+                case "orderId":
+                case "OrderId":
+                    orderId = jsonReader.nextLong();
+                    break;
+                case "type":
+                    type = jsonReader.nextString();
+                    break;
+                case "orderType":
+                    orderType = jsonReader.nextString();
+                    break;
+                case "size":
+                    size = jsonReader.nextInt();
+                    hasSize = true;
+                    break;
+                case "price":
+                    price = jsonReader.nextInt();
+                    hasPrice = true;
+                    break;
+                case "timestamp":
+                    timestamp = jsonReader.nextLong();
+                    hasTimestamp = true;
+                    break;
+                default:
+                    jsonReader.skipValue();
+            }
+            name = null;
+        }
+        jsonReader.endObject();
+        if (!hasSize || !hasPrice || !hasTimestamp) {
+            System.err.println("ERRORE: Scambio " + orderId + " senza size, price o timestamp, ignorato");
+            return 0;
+        }
+        if (timestamp < fromTimestamp || timestamp > toTimestamp) {
+            return 0;
+        }
+        consumer.accept(orderId, type, orderType, size, price, timestamp);
+        return 1;
+    }
+
+    private static void skipRemainingFields(JsonReader jsonReader) throws IOException {
+        while (jsonReader.hasNext()) {
+            jsonReader.nextName();
+            jsonReader.skipValue();
+        }
+        jsonReader.endObject();
+    }
+}
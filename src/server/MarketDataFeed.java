@@ -0,0 +1,160 @@
+package server;
+
+import common.MarketDataMessage;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Canale multicast dei dati di mercato: diffonde ogni scambio e ogni variazione di un livello di prezzo
+ * come un datagramma binario numerato ({@link MarketDataMessage}), uno per evento e uguale per tutti i client,
+ * che possono così mantenere un book locale senza interrogare il server.
+ * Come per il {@link NotificationDispatcher}, il matching si limita a codificare l'evento in un buffer preallocato
+ * e ad accodarlo, senza bloccarsi né creare oggetti; un unico thread dedicato invia i datagrammi nell'ordine
+ * di pubblicazione, quindi i numeri di sequenza di ogni strumento escono in ordine crescente.
+ * Se la coda è piena l'evento viene scartato: i client se ne accorgono dal buco nella sequenza,
+ * mentre il server si limita a contarlo; è il thread di invio a segnalare gli scarti, al più una volta al secondo.
+ */
+public class MarketDataFeed {
+    private final DatagramChannel channel;
+    private final InetSocketAddress group;
+    private final BlockingQueue<ByteBuffer> outboundQueue;
+    //Buffer preallocati: il matching ne preleva uno libero, il thread di invio lo restituisce dopo l'invio
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final Thread senderThread;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private long reportedDroppedEvents; //usato solo dal thread di invio
+    private long lastDropReportMillis;
+    private volatile boolean running = true;
+
+    /**
+     * Costruttore della classe MarketDataFeed.
+     *
+     * @param groupAddress  L'indirizzo del gruppo multicast dei dati di mercato.
+     * @param port          La porta del gruppo.
+     * @param queueCapacity Numero massimo di eventi in attesa di invio.
+     * @throws IOException se la creazione del canale UDP fallisce.
+     */
+    public MarketDataFeed(String groupAddress, int port, int queueCapacity) throws IOException {
+        this.channel = DatagramChannel.open();
+        this.group = new InetSocketAddress(InetAddress.getByName(groupAddress), port);
+        this.outboundQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.freeBuffers = new ArrayBlockingQueue<>(queueCapacity);
+        //un'unica allocazione diretta, suddivisa in un buffer per evento
+        ByteBuffer memory = ByteBuffer.allocateDirect(queueCapacity * MarketDataMessage.MAX_SIZE);
+        for (int i = 0; i < queueCapacity; i++) {
+            memory.limit((i + 1) * MarketDataMessage.MAX_SIZE).position(i * MarketDataMessage.MAX_SIZE);
+            freeBuffers.add(memory.slice());
+        }
+        this.senderThread = new Thread(this::drain, "market-data-feed");
+        senderThread.setDaemon(true);
+        senderThread.start();
+    }
+
+    /**
+     * Pubblica uno scambio.
+     *
+     * @param instrument    Il simbolo dello strumento in ASCII.
+     * @param sequence      Il numero di sequenza dell'evento nello strumento.
+     * @param aggressorSide Il lato dell'ordine che ha generato lo scambio.
+     * @param size          La quantità scambiata.
+     * @param price         Il prezzo dello scambio.
+     */
+    public void publishTrade(byte[] instrument, long sequence, byte aggressorSide, int size, int price) {
+        publish(instrument, sequence, MarketDataMessage.TRADE, aggressorSide, price, size, 0);
+    }
+
+    /**
+     * Pubblica il nuovo stato di un livello di prezzo.
+     *
+     * @param instrument Il simbolo dello strumento in ASCII.
+     * @param sequence   Il numero di sequenza dell'evento nello strumento.
+     * @param side       Il lato del livello.
+     * @param price      Il prezzo del livello.
+     * @param quantity   La quantità totale del livello, 0 se il livello è stato svuotato.
+     * @param orders     Il numero di ordini del livello.
+     */
+    public void publishLevel(byte[] instrument, long sequence, byte side, int price, long quantity, int orders) {
+        publish(instrument, sequence, MarketDataMessage.LEVEL, side, price, quantity, orders);
+    }
+
+    /**
+     * Restituisce il numero di eventi in attesa di essere inviati.
+     *
+     * @return Il numero di eventi in coda.
+     */
+    public int getQueuedEvents() {
+        return outboundQueue.size();
+    }
+
+    private void publish(byte[] instrument, long sequence, byte type, byte side, int price, long quantity, int orders) {
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+        MarketDataMessage.encode(buffer, instrument, sequence, type, side, price, quantity, orders, System.currentTimeMillis());
+        outboundQueue.offer(buffer);
+    }
+
+    /**
+     * Ciclo del thread dedicato: preleva i datagrammi dalla coda e li invia al gruppo multicast.
+     */
+    private void drain() {
+        while (running) {
+            ByteBuffer buffer;
+            try {
+                buffer = outboundQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                channel.send(buffer, group);
+            } catch (IOException e) {
+                System.err.println("Errore durante l'invio dei dati di mercato: " + e.getMessage());
+            } finally {
+                freeBuffers.offer(buffer);
+            }
+            reportDroppedEvents();
+        }
+    }
+
+    /**
+     * Segnala gli eventi scartati dall'ultima segnalazione, al più una volta al secondo.
+     */
+    private void reportDroppedEvents() {
+        long dropped = droppedEvents.get();
+        if (dropped == reportedDroppedEvents) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastDropReportMillis >= 1000) {
+            System.err.println("Coda dei dati di mercato piena: " + (dropped - reportedDroppedEvents)
+                    + " eventi scartati (" + dropped + " in totale)");
+            reportedDroppedEvents = dropped;
+            lastDropReportMillis = now;
+        }
+    }
+
+    /**
+     * Arresta il thread di invio e chiude il canale.
+     */
+    public void shutDown() {
+        running = false;
+        senderThread.interrupt();
+        if (droppedEvents.get() > 0) {
+            System.out.println("Eventi dei dati di mercato scartati con la coda piena: " + droppedEvents.get());
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Errore nella chiusura del canale dei dati di mercato: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package server;
+
+import common.JsonParsing;
+import order.FillEvent;
+import order.Order;
+import user.UserDatabase;
+import user.UserSession;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coda asincrona delle notifiche in uscita.
+ * Il matching si limita a pubblicare gli eventi di esecuzione in eventi preallocati; thread dedicati
+ * li prelevano, costruiscono il messaggio e li inoltrano tramite il {@link NotificationSender},
+ * che applica il ritmo di invio per singolo destinatario.
+ * Un'esecuzione privata non viene mai scartata: se tutti gli eventi sono in coda il matching attende
+ * che un thread di invio ne liberi uno. Le notifiche pubbliche (soglie e, se il canale dei dati di mercato
+ * è disattivato, scambi) invece vengono scartate, per non rallentare il matching.
+ * Ogni esecuzione viene notificata solo alle due controparti, mentre l'informazione pubblica dello scambio
+ * viene diffusa una sola volta in multicast: il costo per scambio non dipende dal numero di utenti connessi.
+ */
+public class NotificationDispatcher {
+    private final BlockingQueue<FillEvent> outboundQueue;
+    //Eventi preallocati: il matching ne preleva uno libero, i thread di invio lo restituiscono dopo l'invio
+    private final BlockingQueue<FillEvent> freeEvents;
+    private final UserDatabase userDatabase;
+    private final NotificationSender notificationSender;
+    private final Thread[] senderThreads;
+    private final AtomicLong backPressureWaits = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private volatile long lastBackPressureLogMillis;
+    private volatile boolean running = true;
+
+    /**
+     * Costruttore della classe NotificationDispatcher.
+     *
+     * @param userDatabase       Database degli utenti, usato per verificare che il destinatario sia ancora connesso.
+     * @param notificationSender Il sender UDP usato per l'invio effettivo.
+     * @param queueCapacity      Capacità massima della coda degli eventi in uscita.
+     * @param threads            Numero di thread dedicati allo svuotamento della coda.
+     */
+    public NotificationDispatcher(UserDatabase userDatabase, NotificationSender notificationSender, int queueCapacity, int threads) {
+        this.userDatabase = userDatabase;
+        this.notificationSender = notificationSender;
+        this.outboundQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.freeEvents = new ArrayBlockingQueue<>(queueCapacity);
+        for (int i = 0; i < queueCapacity; i++) {
+            freeEvents.add(new FillEvent());
+        }
+        this.senderThreads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            senderThreads[i] = new Thread(this::drain, "notification-dispatcher-" + i);
+            senderThreads[i].setDaemon(true);
+            senderThreads[i].start();
+        }
+    }
+
+    /**
+     * Pubblica la notifica privata di un'esecuzione al proprietario dell'ordine.
+     *
+     * @param instrument Il simbolo dello strumento scambiato.
+     * @param orderType  Il tipo di ordine (es. "market", "limit", "stop").
+     * @param side       Il lato dell'ordine eseguito.
+     * @param size       La quantità eseguita.
+     * @param price      Il prezzo di esecuzione.
+     * @param orderId    L'ID dell'ordine eseguito.
+     * @param userIndex  L'indice dell'utente proprietario dell'ordine.
+     */
+    public void publishFill(String instrument, String orderType, byte side, int size, int price, long orderId, int userIndex) {
+        publishPrivate(FillEvent.PRIVATE_FILL, instrument, orderType, side, size, price, orderId, userIndex);
+    }
+
+    /**
+     * Pubblica la notifica privata di un ordine scartato senza esecuzione al proprietario dell'ordine.
+     *
+     * @param instrument Il simbolo dello strumento.
+     * @param orderType  Il tipo di ordine scartato.
+     * @param side       Il lato dell'ordine.
+     * @param size       La quantità dell'ordine.
+     * @param price      Il prezzo dell'ultimo scambio al momento dello scarto.
+     * @param orderId    L'ID dell'ordine scartato.
+     * @param userIndex  L'indice dell'utente proprietario dell'ordine.
+     */
+    public void publishRejection(String instrument, String orderType, byte side, int size, int price, long orderId, int userIndex) {
+        publishPrivate(FillEvent.ORDER_REJECTED, instrument, orderType, side, size, price, orderId, userIndex);
+    }
+
+    /**
+     * Pubblica le informazioni pubbliche di uno scambio, inviate una sola volta sul canale multicast.
+     *
+     * @param instrument Il simbolo dello strumento scambiato.
+     * @param orderType  Il tipo di ordine che ha generato lo scambio.
+     * @param size       La quantità scambiata.
+     * @param price      Il prezzo dello scambio.
+     * @param orderId    L'ID di una delle due parti dello scambio.
+     */
+    public void publishPublicTrade(String instrument, String orderType, int size, int price, long orderId) {
+        publish(FillEvent.PUBLIC_TRADE, instrument, orderType, Order.ASK, size, price, orderId, -1);
+    }
+
+    /**
+     * Pubblica sul canale multicast la notifica della soglia di prezzo raggiunta.
+     *
+     * @param instrument Il simbolo dello strumento.
+     * @param threshold  La soglia raggiunta.
+     * @param orderId    L'ID dell'ordine che ha raggiunto la soglia.
+     */
+    public void publishThreshold(String instrument, int threshold, long orderId) {
+        publish(FillEvent.THRESHOLD, instrument, null, Order.ASK, 0, threshold, orderId, -1);
+    }
+
+    /**
+     * Restituisce il numero di eventi in attesa di essere inviati.
+     *
+     * @return Il numero di eventi in coda.
+     */
+    public int getQueuedEvents() {
+        return outboundQueue.size();
+    }
+
+    /**
+     * Compila un evento libero e lo accoda senza mai bloccare il chiamante né creare oggetti.
+     * Se non ci sono eventi liberi l'evento viene scartato e contato, per non rallentare il matching.
+     */
+    private void publish(byte kind, String instrument, String orderType, byte side, int size, int price, long orderId, int userIndex) {
+        FillEvent event = freeEvents.poll();
+        if (event == null) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+        event.set(kind, instrument, orderType, side, size, price, orderId, userIndex);
+        outboundQueue.offer(event);
+    }
+
+    /**
+     * Compila un evento libero destinato al proprietario di un ordine e lo accoda senza creare oggetti.
+     * Se non ci sono eventi liberi il chiamante attende, così nessuna notifica privata viene persa.
+     */
+    private void publishPrivate(byte kind, String instrument, String orderType, byte side, int size, int price, long orderId, int userIndex) {
+        FillEvent event = freeEvents.poll();
+        if (event == null) {
+            event = awaitFreeEvent(orderId);
+            if (event == null) {
+                return;
+            }
+        }
+        event.set(kind, instrument, orderType, side, size, price, orderId, userIndex);
+        outboundQueue.offer(event);
+    }
+
+    /**
+     * Attende che un thread di invio restituisca un evento, segnalando l'attesa che blocca il matching.
+     *
+     * @param orderId L'ID dell'ordine da notificare.
+     * @return L'evento libero, oppure null se il dispatcher è stato arrestato o il thread interrotto durante l'attesa.
+     */
+    private FillEvent awaitFreeEvent(long orderId) {
+        backPressureWaits.incrementAndGet();
+        long now = System.currentTimeMillis();
+        if (now - lastBackPressureLogMillis >= 1000) {
+            lastBackPressureLogMillis = now;
+            System.err.println("Coda delle notifiche piena: il matching attende l'invio delle notifiche in coda");
+        }
+        try {
+            //dopo l'arresto i thread di invio non restituiscono più eventi: l'attesa non deve bloccare il matching
+            while (running) {
+                FillEvent event = freeEvents.poll(100, TimeUnit.MILLISECONDS);
+                if (event != null) {
+                    return event;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.err.println("Notifica dell'ordine " + orderId + " non inviata: dispatcher delle notifiche arrestato");
+        return null;
+    }
+
+    /**
+     * Ciclo dei thread dedicati: preleva gli eventi dalla coda e li inoltra al proprietario dell'ordine
+     * oppure, per le informazioni pubbliche dello scambio, al gruppo multicast.
+     */
+    private void drain() {
+        //Ogni thread usa la propria istanza di JsonParsing
+        JsonParsing jsonParsing = new JsonParsing();
+        while (running) {
+            FillEvent event;
+            try {
+                event = outboundQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                send(event, jsonParsing);
+            } finally {
+                freeEvents.offer(event);
+            }
+        }
+    }
+
+    /**
+     * Costruisce il messaggio di un evento e lo inoltra al destinatario.
+     *
+     * @param event       L'evento da inviare.
+     * @param jsonParsing L'istanza di JsonParsing del thread di invio.
+     */
+    private void send(FillEvent event, JsonParsing jsonParsing) {
+        if (event.getKind() == FillEvent.PUBLIC_TRADE) {
+            notificationSender.sendNotificationMulticast(jsonParsing.createPublicTradeNotification(event.getInstrument(), event.getSize(), event.getPrice(), event.getOrderType()));
+            return;
+        }
+        if (event.getKind() == FillEvent.THRESHOLD) {
+            notificationSender.sendNotificationMulticast(jsonParsing.createThresholdNotification(event.getInstrument(), event.getPrice()));
+            return;
+        }
+        //La sessione viene risolta al momento dell'invio: l'ordine conserva solo l'indice dell'utente
+        UserSession session = userDatabase.getUserSessionByIndex(event.getUserIndex());
+        if (session == null) {
+            return;
+        }
+        InetSocketAddress addressUDP = session.getAddressUDP();
+        if (addressUDP != null) {
+            String message = event.getKind() == FillEvent.ORDER_REJECTED
+                    ? jsonParsing.createOrderRejectedNotification(event.getInstrument(), event.getType(), event.getSize(), event.getPrice(), event.getOrderId(), event.getOrderType())
+                    : jsonParsing.createNotificationResponse(event.getInstrument(), event.getType(), event.getSize(), event.getPrice(), event.getOrderId(), event.getOrderType());
+            notificationSender.sendNotification(message, addressUDP);
+        }
+    }
+
+
+    /**
+     * Arresta i thread dedicati e il sender sottostante.
+     */
+    public void shutDown() {
+        running = false;
+        for (Thread thread : senderThreads) {
+            thread.interrupt();
+        }
+        System.out.println("Dispatcher delle notifiche arrestato: attese con la coda piena=" + backPressureWaits.get()
+                + ", notifiche pubbliche scartate=" + droppedEvents.get());
+        notificationSender.shutDown();
+    }
+}
@@ -5,19 +5,44 @@ import com.google.gson.JsonObject;
 
 import java.io.IOException;
 import java.net.*;
-import java.util.concurrent.ExecutorService;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NotificationSender{
     private static final String MULTICAST_GROUP = "224.0.0.1";
     private static final int PORT = 6789;
+    private static final int MAX_PENDING = 256; //notifiche al massimo in attesa per destinatario
+    private static final int MAX_DATAGRAM_BYTES = 8192; //dimensione massima di un datagramma con più notifiche
+    private static final long IDLE_EVICTION_MILLIS = 60_000L; //destinatari inattivi dimenticati dopo questo intervallo
+    private static final long DROP_LOG_INTERVAL_MILLIS = 1000L;
     private final DatagramSocket socket;
-    private ExecutorService executorService;
+    private ScheduledExecutorService executorService;
+    //Intervallo minimo tra due notifiche verso lo stesso destinatario
+    private final long pacingMillis;
+    //Notifiche in attesa e ritmo di invio di ogni destinatario con notifiche recenti
+    private final ConcurrentMap<InetSocketAddress, Destination> destinations = new ConcurrentHashMap<>();
+    private final AtomicLong droppedNotifications = new AtomicLong();
+    private volatile long lastDropLogMillis;
 
-    public NotificationSender() throws SocketException {
+    /**
+     * Costruttore della classe NotificationSender.
+     *
+     * @param pacingMillis Intervallo minimo in millisecondi tra due notifiche verso lo stesso destinatario.
+     * @param threads      Numero di thread dedicati all'invio.
+     * @throws SocketException se la creazione del socket UDP fallisce.
+     */
+    public NotificationSender(long pacingMillis, int threads) throws SocketException {
         this.socket = new DatagramSocket();
-        executorService = Executors.newCachedThreadPool();
+        this.pacingMillis = pacingMillis;
+        executorService = Executors.newScheduledThreadPool(threads);
+        executorService.scheduleWithFixedDelay(this::evictIdleDestinations, IDLE_EVICTION_MILLIS, IDLE_EVICTION_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -48,26 +73,101 @@ public class NotificationSender{
 
     /**
      * Invia una notifica UDP a un indirizzo specifico.
-     * Crea un DatagramSocket temporaneo per inviare il pacchetto dati all'indirizzo specificato.
+     * L'invio non blocca il chiamante: la notifica viene accodata alle altre del destinatario, che riceve
+     * al più un datagramma per intervallo di invio, così il ritmo è rispettato per singolo destinatario senza attese
+     * sugli altri. Le notifiche accumulate nel frattempo partono insieme in un unico datagramma, come array JSON,
+     * quindi il ritardo non cresce con il numero di notifiche; oltre {@value #MAX_PENDING} notifiche in attesa
+     * le nuove vengono scartate e conteggiate.
      *
      * @param message Il messaggio da inviare.
      * @param address L'indirizzo destinatario della notifica.
      */
     public void sendNotification(String message, InetSocketAddress address) {
-        executorService.submit(() -> {
-            try(DatagramSocket socket = new DatagramSocket()) {
-                byte[] buffer = message.getBytes();
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address);
-                socket.send(packet);
-                System.out.println("Notifica inviata a " + address);
-            } catch (IOException e) {
-                System.err.println("Errore durante l'invio della notifica UDP: " + e.getMessage());
+        destinations.compute(address, (a, destination) -> {
+            if (destination == null) {
+                destination = new Destination();
+            }
+            if (destination.pending.size() >= MAX_PENDING) {
+                droppedNotifications.incrementAndGet();
+                logDrop(address);
+                return destination;
             }
+            destination.pending.addLast(message);
+            if (!destination.scheduled) {
+                long delay = Math.max(0, destination.nextSendMillis - System.currentTimeMillis());
+                destination.scheduled = schedule(address, delay);
+            }
+            return destination;
         });
     }
 
+    /**
+     * Pianifica l'invio delle notifiche in attesa di un destinatario.
+     *
+     * @return true se l'invio è stato pianificato, false se il sender è stato arrestato.
+     */
+    private boolean schedule(InetSocketAddress address, long delay) {
+        try {
+            executorService.schedule(() -> flush(address), delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
 
+    /**
+     * Invia in un unico datagramma le notifiche in attesa di un destinatario, fino a {@value #MAX_DATAGRAM_BYTES} byte,
+     * e pianifica l'invio successivo dopo l'intervallo di invio se ne restano altre.
+     */
+    private void flush(InetSocketAddress address) {
+        StringBuilder datagram = new StringBuilder();
+        int[] count = new int[1];
+        destinations.computeIfPresent(address, (a, destination) -> {
+            while (!destination.pending.isEmpty()) {
+                String message = destination.pending.peekFirst();
+                if (count[0] > 0 && datagram.length() + message.length() + 1 > MAX_DATAGRAM_BYTES) {
+                    break;
+                }
+                datagram.append(count[0] == 0 ? "" : ",").append(destination.pending.pollFirst());
+                count[0]++;
+            }
+            destination.nextSendMillis = System.currentTimeMillis() + pacingMillis;
+            destination.scheduled = !destination.pending.isEmpty() && schedule(a, pacingMillis);
+            return destination;
+        });
+        if (count[0] == 0) {
+            return;
+        }
+        try {
+            //Più notifiche nello stesso datagramma vengono inviate come array JSON
+            byte[] buffer = (count[0] == 1 ? datagram.toString() : "[" + datagram + "]").getBytes(StandardCharsets.UTF_8);
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address);
+            socket.send(packet);
+            System.out.println("Notifica inviata a " + address + (count[0] > 1 ? " (" + count[0] + " notifiche)" : ""));
+        } catch (IOException e) {
+            System.err.println("Errore durante l'invio della notifica UDP: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Dimentica i destinatari senza notifiche in attesa e senza invii nell'ultimo intervallo di inattività,
+     * ad esempio i client disconnessi, così la mappa contiene solo i destinatari recenti.
+     */
+    private void evictIdleDestinations() {
+        long idleSince = System.currentTimeMillis() - IDLE_EVICTION_MILLIS;
+        for (InetSocketAddress address : destinations.keySet()) {
+            destinations.computeIfPresent(address, (a, destination) ->
+                    !destination.scheduled && destination.nextSendMillis < idleSince ? null : destination);
+        }
+    }
 
+    private void logDrop(InetSocketAddress address) {
+        long now = System.currentTimeMillis();
+        if (now - lastDropLogMillis >= DROP_LOG_INTERVAL_MILLIS) {
+            lastDropLogMillis = now;
+            System.err.println("Troppe notifiche in attesa per " + address + ": le nuove vengono scartate (" + droppedNotifications.get() + " in totale)");
+        }
+    }
 
 
     /**
@@ -81,10 +181,22 @@ public class NotificationSender{
             if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
                 System.err.println("Timeout durante l'attesa del completamento dell'invio delle notifiche.");
             }
+            if (droppedNotifications.get() > 0) {
+                System.out.println("Notifiche scartate per destinatari con troppe notifiche in attesa: " + droppedNotifications.get());
+            }
             System.out.println("Socket chiuso correttamente.");
         } catch (InterruptedException e) {
             System.err.println("Errore nella chiusura del socket: " + e.getMessage());
         }
     }
-}
 
+    /**
+     * Stato di un destinatario: le notifiche in attesa e l'istante da cui può partire il datagramma successivo.
+     * Viene letto e modificato solo all'interno delle operazioni atomiche della mappa dei destinatari.
+     */
+    private static class Destination {
+        private final ArrayDeque<String> pending = new ArrayDeque<>();
+        private long nextSendMillis;
+        private boolean scheduled; //invio delle notifiche in attesa già pianificato
+    }
+}
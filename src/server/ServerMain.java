@@ -2,7 +2,10 @@ package server;
 
 import RMI.UserRegistrationImpl;
 import common.ConfigReader;
+import order.Exchange;
 import order.OrderBook;
+import order.PriceBand;
+import order.TradeJournal;
 import user.UserDatabase;
 
 import java.io.FileInputStream;
@@ -10,6 +13,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
+import java.net.SocketException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
@@ -17,9 +21,15 @@ import java.nio.channels.SocketChannel;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Classe principale del server che gestisce connessioni TCP e un servizio RMI.
@@ -28,17 +38,45 @@ import java.util.concurrent.*;
 public class ServerMain {
     private static final int PORT;
     private static final int RMIPORT ;
-    private static final String filePathOrders;
+    private static final String tradeHistoryDirectory;
+    private static final String legacyFilePathOrders;
+    private static final String legacyTradeJournalPath;
+    private static final List<String> INSTRUMENTS; //Il primo strumento è quello predefinito
+    private static final Map<String, PriceBand> PRICE_BANDS = new HashMap<>(); //strumenti senza banda: solo mappe ordinate
     //Parametri di configurazione della thread pool
     private static final int CORE_POLL_SIZE ; //Minimo numero di thread
     private static final int MAX_POLL_SIZE ; //Massimo numero di thread
     private static final long KEEP_ALIVE_TIME; //Tempo di inattività prima di terminare i thread extra
     private static final int QUEUE_CAPACITY ; //Dimensione massima della coda
     private static final String filePath ;
+    //Parametri del motore di matching a scrittore singolo
+    private static final boolean MATCHING_ENGINE_ENABLED;
+    private static final int RING_BUFFER_SIZE;
+    private static final int OFF_HEAP_ORDER_CAPACITY; //0 per tenere gli ordini in attesa sull'heap
+    private static final int MAX_BATCH_ORDERS; //ordini accettati in un'unica richiesta insertOrderBatch
+    private static final boolean CANCEL_ON_DISCONNECT; //cancella gli ordini in attesa di un utente alla sua disconnessione
+    //Parametri della coda asincrona delle notifiche
+    private static final int NOTIFICATION_THREADS;
+    private static final int NOTIFICATION_QUEUE_CAPACITY;
+    private static final long NOTIFICATION_PACING_MILLIS;
+    //Parametri del canale multicast dei dati di mercato
+    private static final boolean MARKET_DATA_ENABLED;
+    private static final String MARKET_DATA_GROUP;
+    private static final int MARKET_DATA_PORT;
+    private static final int MARKET_DATA_QUEUE_CAPACITY;
+    //Parametri del salvataggio asincrono degli scambi
+    private static final TradeJournal.Durability TRADE_DURABILITY;
+    private static final int TRADE_BATCH_SIZE;
+    private static final long TRADE_FSYNC_INTERVAL_MILLIS;
+    private static final int TRADE_QUEUE_CAPACITY;
+    private static final boolean TRADE_BINARY_STORE;
 
     private final ThreadPoolExecutor pool;
     private final UserDatabase userDatabase = new UserDatabase(filePath);
-    private final OrderBook orderBook = new OrderBook(userDatabase,filePathOrders);
+    private final NotificationDispatcher notificationDispatcher = createNotificationDispatcher(userDatabase);
+    private final MarketDataFeed marketDataFeed = createMarketDataFeed(); //null se il canale è disattivato
+    private final Map<String, TradeJournal> tradeJournals = new LinkedHashMap<>();
+    private final Exchange exchange;
 
     static {
         ConfigReader configReader = null;
@@ -52,7 +90,33 @@ public class ServerMain {
             KEEP_ALIVE_TIME = configReader.getLong("server.keepAliveTime");
             QUEUE_CAPACITY = configReader.getInt("server.queueCapacity");
             filePath = configReader.getString("server.userDatabaseFilePath");
-            filePathOrders = configReader.getString("server.orderBookFilePath");
+            tradeHistoryDirectory = configReader.getString("server.tradeHistoryDirectory");
+            legacyFilePathOrders = configReader.getString("server.legacyOrderBookFilePath");
+            legacyTradeJournalPath = configReader.getString("server.legacyTradeJournalPath");
+            INSTRUMENTS = List.of(configReader.getString("server.instruments").trim().toUpperCase().split("\\s*,\\s*"));
+            for (String instrument : INSTRUMENTS) {
+                PriceBand band = PriceBand.parse(configReader.getString("server.priceBand." + instrument));
+                if (band != null) {
+                    PRICE_BANDS.put(instrument, band);
+                }
+            }
+            MATCHING_ENGINE_ENABLED = configReader.getBoolean("server.matchingEngine");
+            RING_BUFFER_SIZE = configReader.getInt("server.ringBufferSize");
+            OFF_HEAP_ORDER_CAPACITY = configReader.getInt("server.offHeapOrderCapacity");
+            MAX_BATCH_ORDERS = configReader.getInt("server.maxBatchOrders");
+            CANCEL_ON_DISCONNECT = configReader.getBoolean("server.cancelOnDisconnect");
+            NOTIFICATION_THREADS = configReader.getInt("server.notificationThreads");
+            NOTIFICATION_QUEUE_CAPACITY = configReader.getInt("server.notificationQueueCapacity");
+            NOTIFICATION_PACING_MILLIS = configReader.getLong("server.notificationPacingMillis");
+            MARKET_DATA_ENABLED = configReader.getBoolean("server.marketData");
+            MARKET_DATA_GROUP = configReader.getString("server.marketDataGroup");
+            MARKET_DATA_PORT = configReader.getInt("server.marketDataPort");
+            MARKET_DATA_QUEUE_CAPACITY = configReader.getInt("server.marketDataQueueCapacity");
+            TRADE_DURABILITY = TradeJournal.Durability.valueOf(configReader.getString("server.tradeDurability").trim().toUpperCase());
+            TRADE_BATCH_SIZE = configReader.getInt("server.tradeBatchSize");
+            TRADE_FSYNC_INTERVAL_MILLIS = configReader.getLong("server.tradeFsyncIntervalMillis");
+            TRADE_QUEUE_CAPACITY = configReader.getInt("server.tradeQueueCapacity");
+            TRADE_BINARY_STORE = configReader.getBoolean("server.tradeBinaryStore");
         } catch (IOException e) {
             throw new ExceptionInInitializerError("Errore nel caricamento della configurazione: " + e.getMessage());
         }
@@ -78,6 +142,71 @@ public class ServerMain {
                         }
                     }
                 });
+        //Un book per strumento; se abilitato, ogni book ha un unico thread che vi applica gli ordini
+        //e la pool si limita a decodificare le richieste
+        AtomicLong orderIdGenerator = new AtomicLong(1);
+        Map<String, OrderBook> books = new LinkedHashMap<>();
+        for (String instrument : INSTRUMENTS) {
+            TradeJournal tradeJournal = createTradeJournal(instrument);
+            tradeJournals.put(instrument, tradeJournal);
+            books.put(instrument, new OrderBook(instrument, userDatabase, tradeJournal, notificationDispatcher, orderIdGenerator,
+                    OFF_HEAP_ORDER_CAPACITY, PRICE_BANDS.get(instrument), marketDataFeed));
+        }
+        exchange = new Exchange(books, MATCHING_ENGINE_ENABLED, RING_BUFFER_SIZE);
+        if (CANCEL_ON_DISCONNECT) {
+            userDatabase.setDisconnectListener(exchange::cancelAllOrders);
+        }
+    }
+
+    /**
+     * Crea la coda asincrona delle notifiche e il relativo sender UDP.
+     *
+     * @param userDatabase Database degli utenti da cui ricavare i destinatari.
+     * @return Il dispatcher delle notifiche.
+     */
+    private static NotificationDispatcher createNotificationDispatcher(UserDatabase userDatabase) {
+        try {
+            NotificationSender notificationSender = new NotificationSender(NOTIFICATION_PACING_MILLIS, NOTIFICATION_THREADS);
+            return new NotificationDispatcher(userDatabase, notificationSender, NOTIFICATION_QUEUE_CAPACITY, NOTIFICATION_THREADS);
+        } catch (SocketException e) {
+            throw new IllegalStateException("Errore nella creazione di NotificationSender: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Crea il canale multicast dei dati di mercato, se abilitato nella configurazione.
+     *
+     * @return Il canale, oppure null se disattivato.
+     */
+    private static MarketDataFeed createMarketDataFeed() {
+        if (!MARKET_DATA_ENABLED) {
+            return null;
+        }
+        try {
+            return new MarketDataFeed(MARKET_DATA_GROUP, MARKET_DATA_PORT, MARKET_DATA_QUEUE_CAPACITY);
+        } catch (IOException e) {
+            throw new IllegalStateException("Errore nella creazione del canale dei dati di mercato: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Apre lo storico degli scambi di uno strumento, partizionato per mese.
+     * Lo strumento predefinito usa la cartella dello storico e importa i vecchi storici se necessario;
+     * gli altri strumenti usano una sottocartella con il proprio simbolo.
+     *
+     * @param instrument Il simbolo dello strumento.
+     * @return Il giornale degli scambi dello strumento.
+     */
+    private static TradeJournal createTradeJournal(String instrument) {
+        boolean defaultInstrument = instrument.equals(INSTRUMENTS.get(0));
+        String directory = defaultInstrument ? tradeHistoryDirectory : Paths.get(tradeHistoryDirectory, instrument).toString();
+        List<String> legacyPaths = defaultInstrument ? List.of(legacyTradeJournalPath, legacyFilePathOrders) : List.of();
+        try {
+            return new TradeJournal(directory, legacyPaths, TRADE_DURABILITY,
+                    TRADE_BATCH_SIZE, TRADE_FSYNC_INTERVAL_MILLIS, TRADE_QUEUE_CAPACITY, TRADE_BINARY_STORE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Errore nell'apertura del giornale degli scambi: " + e.getMessage(), e);
+        }
     }
 
     /**
@@ -93,6 +222,7 @@ public class ServerMain {
      * Avvia sia il server RMI che il server TCP.
      */
     private void start() {
+        exchange.start();
         startRmiServer();
         startTcpServer();
     }
@@ -166,6 +296,14 @@ public class ServerMain {
         } catch (InterruptedException e) {
             pool.shutdownNow();
         }
+        exchange.shutdown();
+        notificationDispatcher.shutDown();
+        if (marketDataFeed != null) {
+            marketDataFeed.shutDown();
+        }
+        for (TradeJournal tradeJournal : tradeJournals.values()) {
+            tradeJournal.close();
+        }
     }
 
     /**
@@ -203,7 +341,7 @@ public class ServerMain {
         try {
             int availableBytes = channel.socket().getInputStream().available(); //so quanti byte sono pronti per essere letti
             if (availableBytes > 0) {
-                pool.execute(new ServerMessageHandler(key, userDatabase, orderBook));
+                pool.execute(new ServerMessageHandler(key, userDatabase, exchange, MAX_BATCH_ORDERS));
             }
         } catch (IOException e) {
             System.err.println("Errore nella verifica del canale " + e.getMessage());
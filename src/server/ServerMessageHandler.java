@@ -2,9 +2,13 @@ package server;
 
 import common.JsonParsing;
 import common.Response;
+import order.Exchange;
 import order.LimitOrder;
 import order.MarketOrder;
+import order.MatchingEngine;
+import order.Order;
 import order.OrderBook;
+import order.OrderStatus;
 import order.StopOrder;
 import user.UserDatabase;
 import user.UserSession;
@@ -14,22 +18,35 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public class ServerMessageHandler implements Runnable {
+    private static final int BATCH_ORDER_FIELDS = 5; //tipo di ordine, lato, quantità, prezzo e strumento
+    private static final int MINUTES_PER_DAY = 1440; //le candele di getPriceHistory non superano il giorno
+
     private final SelectionKey key;
     private final UserDatabase userDatabase;
-    private final OrderBook orderBook;
+    private final Exchange exchange;
+    private final int maxBatchOrders;
 
     /**
      * Costruttore della classe ServerMessageHandler
      * @param key SelectionKey associata al client
      * @param userDatabase Database degli utenti
-     * @param orderBook Order book per la gestione degli ordini
+     * @param exchange Strumenti negoziabili, ciascuno con il proprio order book ed eventualmente il proprio motore di matching
+     * @param maxBatchOrders Numero massimo di ordini accettati in un'unica richiesta insertOrderBatch
      */
-    public ServerMessageHandler(SelectionKey key, UserDatabase userDatabase, OrderBook orderBook) {
+    public ServerMessageHandler(SelectionKey key, UserDatabase userDatabase, Exchange exchange, int maxBatchOrders) {
         this.key = key;
         this.userDatabase = userDatabase;
-        this.orderBook = orderBook;
+        this.exchange = exchange;
+        this.maxBatchOrders = maxBatchOrders;
     }
 
     /**
@@ -47,6 +64,7 @@ public class ServerMessageHandler implements Runnable {
             int bytesRead = clientChannel.read(buffer);
 	    if(bytesRead == -1){
                 System.out.println("Client disconnesso");
+                userDatabase.channelClosed(clientChannel);
                 clientChannel.close();
                 key.cancel();
                 return;
@@ -79,7 +97,16 @@ public class ServerMessageHandler implements Runnable {
                 Response response = handleOperation(convertedMessage, clientChannel);
 
                 //riconverto la stringa in formato json per inviarla al client
-                String jsonResponse = jsonParsing.createResponse(response.getResponseCode(), response.getErrorMessage(), response.getOrderId(), response.getDayPrices());
+                String jsonResponse;
+                if (response.getResults() != null) {
+                    jsonResponse = jsonParsing.createBatchResponse(response.getResponseCode(), response.getErrorMessage(), response.getResults());
+                } else if (response.getDepth() != null) {
+                    jsonResponse = jsonParsing.createDepthResponse(response.getResponseCode(), response.getErrorMessage(), response.getDepth(), response.getDepthLevels());
+                } else if (response.getOrders() != null) {
+                    jsonResponse = jsonParsing.createOrdersResponse(response.getResponseCode(), response.getErrorMessage(), response.getOrders());
+                } else {
+                    jsonResponse = jsonParsing.createResponse(response.getResponseCode(), response.getErrorMessage(), response.getOrderId(), response.getDayPrices());
+                }
                 ByteBuffer responseBuffer = ByteBuffer.wrap(jsonResponse.getBytes());
                 key.attach(responseBuffer);
                 key.interestOps(SelectionKey.OP_WRITE);
@@ -104,6 +131,7 @@ public class ServerMessageHandler implements Runnable {
             //}
         } catch (IOException e) {
             System.err.println("Errore nella lettura del messaggio del client: " + e.getMessage());
+            userDatabase.channelClosed(clientChannel);
             try {
                 clientChannel.close();
                 key.cancel();
@@ -128,7 +156,9 @@ public class ServerMessageHandler implements Runnable {
         Response response = null;
         String userNameSession = null;
         // Controlla se l'utente è loggato solo per le operazioni che richiedono ordini
-        if ("insertLimitOrder".equals(operation) || "insertMarketOrder".equals(operation) || "insertStopOrder".equals(operation)) {
+        if ("insertLimitOrder".equals(operation) || "insertMarketOrder".equals(operation) || "insertStopOrder".equals(operation)
+                || "insertOrderBatch".equals(operation) || "quote".equals(operation) || "cancelAllOrders".equals(operation)
+                || "getOpenOrders".equals(operation) || "getOrderStatus".equals(operation) || "modifyOrder".equals(operation)) {
             if (!userDatabase.isUserConnectedToChannel(clientChannel)) {
                 return new Response(101, "user not logged in", 0,null);
             }
@@ -169,32 +199,98 @@ public class ServerMessageHandler implements Runnable {
                 updateLastActiveTime(newUsername);
                 break;
             case "insertLimitOrder":
-                String type = parts[1];
+                byte side = Order.parseSide(parts[1]);
                 int size = Integer.parseInt(parts[2]);
                 int price = Integer.parseInt(parts[3]);
-                //Inserisco l'ordine nel sistema
-                response = orderBook.addOrder(new LimitOrder(type, size, price, 0, System.currentTimeMillis(), userDatabase.getUserSession(userNameSession),userNameSession));
+                int userIndex = userDatabase.getUserIndex(userNameSession);
+                LimitOrder limitOrder = new LimitOrder(side, size, price, 0, userIndex);
+                //Inserisco l'ordine nel book dello strumento richiesto
+                response = addOrder(instrumentOf(parts, 4), limitOrder, parts.length > 5 ? parts[5] : null);
                 updateLastActiveTime(userNameSession);
                 break;
             case "insertMarketOrder":
-                type = parts[1];
+                side = Order.parseSide(parts[1]);
                 size = Integer.parseInt(parts[2]);
+                userIndex = userDatabase.getUserIndex(userNameSession);
                 //Inserisco l'ordine di mercato nel sistema
-                response = orderBook.addOrder(new MarketOrder(type, size, 0, 0, System.currentTimeMillis(), userDatabase.getUserSession(userNameSession)));
+                response = addOrder(instrumentOf(parts, 3), new MarketOrder(side, size, 0, 0, userIndex), parts.length > 4 ? parts[4] : null);
                 updateLastActiveTime(userNameSession);
                 break;
             case "insertStopOrder":
-                type = parts[1];
+                side = Order.parseSide(parts[1]);
                 size = Integer.parseInt(parts[2]);
                 price = Integer.parseInt(parts[3]);
-                response = orderBook.addOrder(new StopOrder(type, size, price, 0, System.currentTimeMillis(), userDatabase.getUserSession(userNameSession), userNameSession));
+                userIndex = userDatabase.getUserIndex(userNameSession);
+                response = addOrder(instrumentOf(parts, 4), new StopOrder(side, size, price, 0, userIndex));
+                updateLastActiveTime(userNameSession);
+                break;
+            case "insertOrderBatch":
+                userIndex = userDatabase.getUserIndex(userNameSession);
+                response = insertOrderBatch(parts, userIndex);
+                updateLastActiveTime(userNameSession);
+                break;
+            case "quote":
+                response = quote(parts, userNameSession);
                 updateLastActiveTime(userNameSession);
                 break;
             case "cancelOrder":
                 int orderId = Integer.parseInt(parts[1]);
                 String name = userDatabase.getUsernameByChannel(clientChannel);
                 updateLastActiveTime(name);
-                response = orderBook.cancelOrder(orderId,name);
+                //Gli ID sono unici tra tutti gli strumenti: la cancellazione va al book che contiene l'ordine
+                String orderInstrument = exchange.findInstrument(orderId);
+                if (orderInstrument == null) {
+                    response = new Response(101, "order does not exist or belongs to different user or has already been finalized or other error cases", 0, null);
+                    break;
+                }
+                MatchingEngine matchingEngine = exchange.getEngine(orderInstrument);
+                if (matchingEngine != null) {
+                    response = awaitEngine(callback -> matchingEngine.submitCancel(orderId, name, callback));
+                } else {
+                    response = exchange.getBook(orderInstrument).cancelOrder(orderId, name);
+                }
+                break;
+            case "cancelAllOrders":
+                //Gli ordini dell'utente vengono cancellati in tutti i book, seguendo le liste per utente
+                int cancelled = exchange.cancelAllOrders(userNameSession);
+                response = new Response(100, cancelled + " orders cancelled", 0, null);
+                updateLastActiveTime(userNameSession);
+                break;
+            case "getOpenOrders":
+                response = getOpenOrders(instrumentOf(parts, 1), userNameSession);
+                updateLastActiveTime(userNameSession);
+                break;
+            case "getOrderStatus":
+                long statusOrderId = Long.parseLong(parts[1]);
+                updateLastActiveTime(userNameSession);
+                //Lo stato viene letto dal book che contiene l'ordine, senza passare dal motore di matching
+                String statusInstrument = exchange.findInstrument(statusOrderId);
+                OrderStatus status = statusInstrument == null ? null
+                        : exchange.getBook(statusInstrument).getOrderStatus(statusOrderId, userNameSession);
+                if (status == null) {
+                    response = new Response(101, "order is not open: filled, cancelled, not existing or belonging to a different user", 0, null);
+                } else {
+                    response = new Response(100, "OK", statusOrderId, null, List.of(status));
+                }
+                break;
+            case "modifyOrder":
+                long modifiedOrderId = Long.parseLong(parts[1]);
+                int newSize = Integer.parseInt(parts[2]);
+                int newPrice = Integer.parseInt(parts[3]);
+                String modifyingUser = userNameSession; //copia effettivamente final per la callback del motore
+                updateLastActiveTime(modifyingUser);
+                //Come per la cancellazione, la modifica va al book che contiene l'ordine
+                String modifiedInstrument = exchange.findInstrument(modifiedOrderId);
+                if (modifiedInstrument == null) {
+                    response = new Response(101, "order does not exist or belongs to different user or has already been finalized or other error cases", 0, null);
+                    break;
+                }
+                MatchingEngine modifyEngine = exchange.getEngine(modifiedInstrument);
+                if (modifyEngine != null) {
+                    response = awaitEngine(callback -> modifyEngine.submitModify(modifiedOrderId, newSize, newPrice, modifyingUser, callback));
+                } else {
+                    response = exchange.getBook(modifiedInstrument).modifyOrder(modifiedOrderId, newSize, newPrice, modifyingUser);
+                }
                 break;
             case "getPriceHistory":
                 updateLastActiveTime(userDatabase.getUsernameByChannel(clientChannel));
@@ -204,7 +300,36 @@ public class ServerMessageHandler implements Runnable {
                 int year = Integer.parseInt(dateString.substring(2));
 
                 System.out.println("Month: " + month + ", Year: " + year);
-                response = orderBook.getPriceHistory(month,year);
+                OrderBook orderBook = exchange.getBook(instrumentOf(parts, 2));
+                if (orderBook == null) {
+                    response = new Response(103, "unknown instrument: " + parts[2], 0, null);
+                    break;
+                }
+                //Lo storico è servito senza passare dal motore di matching: le candele giornaliere sono in memoria,
+                //quelle di durata inferiore vengono calcolate dagli scambi del mese
+                if (parts.length > 3) {
+                    int intervalMinutes = Integer.parseInt(parts[3]);
+                    if (intervalMinutes < 1 || MINUTES_PER_DAY % intervalMinutes != 0) {
+                        response = new Response(103, "invalid interval, must be a divisor of " + MINUTES_PER_DAY + " minutes", 0, null);
+                    } else {
+                        response = orderBook.getPriceHistory(month, year, intervalMinutes);
+                    }
+                    break;
+                }
+                response = orderBook.getPriceHistory(month, year);
+                break;
+            case "getOrderBookDepth":
+                //I dati di mercato sono pubblici: la profondità viene servita anche senza login
+                int levels = Integer.parseInt(parts[1]);
+                OrderBook depthBook = exchange.getBook(instrumentOf(parts, 2));
+                if (depthBook == null) {
+                    response = new Response(103, "unknown instrument: " + parts[2], 0, null);
+                } else if (levels < 1 || levels > OrderBook.MAX_DEPTH_LEVELS) {
+                    response = new Response(103, "invalid levels, must be between 1 and " + OrderBook.MAX_DEPTH_LEVELS, 0, null);
+                } else {
+                    //La vista immutabile viene condivisa tra i lettori, senza passare dal motore di matching
+                    response = new Response(100, "OK", depthBook.getDepth(), levels);
+                }
                 break;
             default:
                 response = new Response(103, "Unknown operation: " + operation, 0,null);
@@ -212,6 +337,201 @@ public class ServerMessageHandler implements Runnable {
         return response;
     }
 
+    /**
+     * Restituisce lo strumento indicato in un messaggio, se presente.
+     * @param parts Parti del messaggio
+     * @param index Posizione facoltativa dello strumento
+     * @return Il simbolo dello strumento, null per lo strumento predefinito
+     */
+    private String instrumentOf(String[] parts, int index) {
+        return parts.length > index && !"-".equals(parts[index]) ? parts[index] : null;
+    }
+
+    /**
+     * Imposta la validità (time in force) di un ordine limit o di mercato e lo inserisce nel book dello strumento.
+     * @param instrument Simbolo dello strumento, null per lo strumento predefinito
+     * @param order Ordine da inserire
+     * @param timeInForce Validità richiesta dal client (gtc, ioc o fok), null per gtc
+     * @return Response con il risultato dell'inserimento
+     */
+    private Response addOrder(String instrument, Order order, String timeInForce) {
+        byte parsed = Order.parseTimeInForce(timeInForce);
+        if (parsed < 0) {
+            return new Response(103, "invalid time in force, must be gtc/ioc/fok", -1, null);
+        }
+        order.setTimeInForce(parsed);
+        return addOrder(instrument, order);
+    }
+
+    /**
+     * Inserisce un ordine nel book dello strumento, pubblicandolo sul motore di matching dello strumento se attivo.
+     * @param instrument Simbolo dello strumento, null per lo strumento predefinito
+     * @param order Ordine già validato da inserire
+     * @return Response con il risultato dell'inserimento
+     */
+    private Response addOrder(String instrument, Order order) {
+        if (order.getSide() < 0) {
+            return new Response(103, "invalid order type, must be ask/bid", -1, null);
+        }
+        OrderBook orderBook = exchange.getBook(instrument);
+        if (orderBook == null) {
+            return new Response(103, "unknown instrument: " + instrument, -1, null);
+        }
+        //La risposta viene creata qui e compilata dal book, così il matching non crea oggetti
+        Response result = new Response();
+        MatchingEngine matchingEngine = exchange.getEngine(instrument);
+        if (matchingEngine != null) {
+            return awaitEngine(callback -> matchingEngine.submitOrder(order, result, callback));
+        }
+        return orderBook.addOrder(order, result);
+    }
+
+    /**
+     * Restituisce gli ordini in attesa dell'utente in uno strumento o in tutti gli strumenti.
+     * Gli ordini vengono letti dai book senza lock e senza passare dai motori di matching.
+     * @param instrument Simbolo dello strumento, null per tutti gli strumenti
+     * @param username Utente di cui leggere gli ordini
+     * @return Response con lo stato degli ordini in attesa
+     */
+    private Response getOpenOrders(String instrument, String username) {
+        List<OrderStatus> orders = new ArrayList<>();
+        if (instrument != null) {
+            OrderBook orderBook = exchange.getBook(instrument);
+            if (orderBook == null) {
+                return new Response(103, "unknown instrument: " + instrument, 0, null);
+            }
+            orders.addAll(orderBook.getOpenOrders(username));
+        } else {
+            for (String symbol : exchange.getInstruments()) {
+                orders.addAll(exchange.getBook(symbol).getOpenOrders(username));
+            }
+        }
+        return new Response(100, "OK", 0, null, orders);
+    }
+
+    /**
+     * Sostituisce con un'unica richiesta la quotazione a due lati dell'utente sul book dello strumento.
+     * @param parts Parti del messaggio: quantità e prezzo del bid, quantità e prezzo dell'ask, strumento facoltativo
+     * @param username Utente che quota
+     * @return Response con l'esito del bid e dell'ask
+     */
+    private Response quote(String[] parts, String username) {
+        int bidSize = Integer.parseInt(parts[1]);
+        int bidPrice = Integer.parseInt(parts[2]);
+        int askSize = Integer.parseInt(parts[3]);
+        int askPrice = Integer.parseInt(parts[4]);
+        String instrument = instrumentOf(parts, 5);
+        OrderBook orderBook = exchange.getBook(instrument);
+        if (orderBook == null) {
+            return new Response(103, "unknown instrument: " + instrument, 0, null);
+        }
+        MatchingEngine matchingEngine = exchange.getEngine(instrument);
+        if (matchingEngine != null) {
+            return awaitEngine(callback -> matchingEngine.submitQuote(bidSize, bidPrice, askSize, askPrice, username, callback));
+        }
+        return orderBook.quote(bidSize, bidPrice, askSize, askPrice, username);
+    }
+
+    /**
+     * Inserisce un batch di ordini con un'unica richiesta.
+     * Gli ordini validi vengono raggruppati per strumento e ogni gruppo viene applicato al proprio book in un'unica passata
+     * (un solo comando per motore di matching, o una sola acquisizione del lock del book); i gruppi di strumenti diversi
+     * vengono pubblicati tutti prima di attenderne gli esiti. Un ordine non valido non impedisce l'inserimento degli altri.
+     * @param parts Parti del messaggio: numero di ordini e, per ogni ordine, tipo di ordine, lato, quantità, prezzo e strumento
+     * @param userIndex Indice dell'utente che invia gli ordini
+     * @return Response con l'esito di ogni ordine, nello stesso ordine della richiesta
+     */
+    private Response insertOrderBatch(String[] parts, int userIndex) {
+        int count = parts.length > 1 ? parseCount(parts[1]) : -1;
+        if (count < 1 || count > maxBatchOrders || parts.length != 2 + count * BATCH_ORDER_FIELDS) {
+            return new Response(103, "invalid order batch, must contain 1 to " + maxBatchOrders + " orders", 0, null);
+        }
+        Response[] results = new Response[count];
+        Map<String, List<Order>> ordersByInstrument = new LinkedHashMap<>();
+        Map<String, List<Integer>> positionsByInstrument = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int base = 2 + i * BATCH_ORDER_FIELDS;
+            String instrument = "-".equals(parts[base + 4]) ? exchange.getDefaultInstrument() : parts[base + 4];
+            Order order = createOrder(parts[base], Order.parseSide(parts[base + 1]), parts[base + 2], parts[base + 3], userIndex);
+            if (order == null) {
+                results[i] = new Response(103, "invalid order: " + parts[base] + " " + parts[base + 2] + " " + parts[base + 3], -1, null);
+            } else if (order.getSide() < 0) {
+                results[i] = new Response(103, "invalid order type, must be ask/bid", -1, null);
+            } else if (exchange.getBook(instrument) == null) {
+                results[i] = new Response(103, "unknown instrument: " + instrument, -1, null);
+            } else {
+                ordersByInstrument.computeIfAbsent(instrument, k -> new ArrayList<>()).add(order);
+                positionsByInstrument.computeIfAbsent(instrument, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        Map<String, CompletableFuture<Response>> pending = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Order>> entry : ordersByInstrument.entrySet()) {
+            CompletableFuture<Response> result = new CompletableFuture<>();
+            MatchingEngine matchingEngine = exchange.getEngine(entry.getKey());
+            if (matchingEngine != null) {
+                matchingEngine.submitOrderBatch(entry.getValue(), result::complete);
+            } else {
+                result.complete(exchange.getBook(entry.getKey()).addOrderBatch(entry.getValue()));
+            }
+            pending.put(entry.getKey(), result);
+        }
+        for (Map.Entry<String, CompletableFuture<Response>> entry : pending.entrySet()) {
+            Response batchResponse = entry.getValue().join();
+            List<Integer> positions = positionsByInstrument.get(entry.getKey());
+            for (int j = 0; j < positions.size(); j++) {
+                //se il motore ha fallito l'intero comando, il suo errore vale per tutti gli ordini del gruppo
+                results[positions.get(j)] = batchResponse.getResults() != null ? batchResponse.getResults().get(j) : batchResponse;
+            }
+        }
+        return new Response(100, "OK", Arrays.asList(results));
+    }
+
+    /**
+     * Crea un ordine di un batch a partire dai suoi campi testuali.
+     * @param orderType Tipo di ordine (limit, market o stop)
+     * @param side Lato dell'ordine già convertito, -1 se non valido
+     * @param size Quantità
+     * @param price Prezzo limite o di attivazione, ignorato per gli ordini di mercato
+     * @param userIndex Indice dell'utente che invia l'ordine
+     * @return L'ordine, oppure null se il tipo di ordine o i valori numerici non sono validi
+     */
+    private Order createOrder(String orderType, byte side, String size, String price, int userIndex) {
+        try {
+            switch (orderType) {
+                case "limit":
+                    return new LimitOrder(side, Integer.parseInt(size), Integer.parseInt(price), 0, userIndex);
+                case "market":
+                    return new MarketOrder(side, Integer.parseInt(size), 0, 0, userIndex);
+                case "stop":
+                    return new StopOrder(side, Integer.parseInt(size), Integer.parseInt(price), 0, userIndex);
+                default:
+                    return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private int parseCount(String count) {
+        try {
+            return Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Pubblica un comando sul motore di matching e attende la risposta restituita dalla callback di completamento.
+     * @param submission Operazione che pubblica il comando passando la callback
+     * @return Response prodotta dal motore di matching
+     */
+    private Response awaitEngine(Consumer<Consumer<Response>> submission) {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        submission.accept(result::complete);
+        return result.join();
+    }
+
     /**
      * Aggiorna il tempo dell'ultima attività di un utente
      * @param username Nome utente
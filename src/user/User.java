@@ -8,6 +8,8 @@ public class User {
     private String username;
     private String password;
     private long lastActiveTime;
+    //Indice assegnato dal database degli utenti, non salvato su file
+    private transient int index = -1;
 
     /**
      * Costruttore per inizializzare un nuovo utente con il nome utente e la password.
@@ -49,6 +51,20 @@ public class User {
         return username;
     }
 
+    /**
+     * Restituisce l'indice dell'utente, usato dagli ordini al posto dello username.
+     * L'indice resta invariato anche se l'utente modifica lo username.
+     *
+     * @return l'indice dell'utente, -1 se non ancora assegnato.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
     /**
      * Restituisce la password dell'utente.
      *
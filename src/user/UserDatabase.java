@@ -9,8 +9,10 @@ import java.nio.channels.Channel;
 import java.nio.channels.SocketChannel;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 /**
  * Gestisce un database di utenti, incluse operazioni di registrazione, login, disconnessione, e gestione della sessione.
@@ -33,10 +35,19 @@ public class UserDatabase {
      * Mappa concorrente degli utenti loggati, indicizzati per username.
      */
     private final ConcurrentMap<String, UserSession> loggedInUsers = new ConcurrentHashMap<>();
+    /**
+     * Utenti registrati indicizzati per posizione: gli ordini memorizzano l'indice intero dell'utente
+     * invece dello username e della sessione. Le registrazioni sono rare, le letture non acquisiscono lock.
+     */
+    private final List<User> usersByIndex = new CopyOnWriteArrayList<>();
     /**
      * Servizio esecutore pianificato per controllare gli utenti inattivi ogni minuto.
      */
     private ScheduledExecutorService scheduler;
+    /**
+     * Azione eseguita quando un utente si disconnette (logout, inattività o chiusura del canale), null se assente.
+     */
+    private volatile Consumer<String> disconnectListener;
 
 
     /**
@@ -49,6 +60,9 @@ public class UserDatabase {
         this.users = new ConcurrentHashMap<>();
         this.userDataManager = new UserDataManager(filePath);
         this.users.putAll(userDataManager.loadUsersFromFile());
+        for (User user : users.values()) {
+            assignIndex(user);
+        }
 
 
         //Creo un thread che controlla gli utenti inattivi ogni minuto
@@ -63,6 +77,39 @@ public class UserDatabase {
     }
 
 
+    /**
+     * Imposta l'azione da eseguire alla disconnessione di un utente, ad esempio la cancellazione dei suoi ordini.
+     *
+     * @param disconnectListener l'azione, che riceve lo username dell'utente disconnesso; null per nessuna azione.
+     */
+    public void setDisconnectListener(Consumer<String> disconnectListener) {
+        this.disconnectListener = disconnectListener;
+    }
+
+    /**
+     * Segnala la chiusura del canale di un client: se il canale apparteneva a un utente loggato,
+     * viene eseguita l'azione di disconnessione.
+     *
+     * @param channel il canale chiuso.
+     */
+    public void channelClosed(Channel channel) {
+        String username = getUsernameByChannel(channel);
+        if (username != null) {
+            notifyDisconnect(username);
+        }
+    }
+
+    private void notifyDisconnect(String username) {
+        Consumer<String> listener = disconnectListener;
+        if (listener != null) {
+            try {
+                listener.accept(username);
+            } catch (RuntimeException e) {
+                System.err.println("Errore nella gestione della disconnessione di " + username + ": " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Salva i dati degli utenti nel file.
      */
@@ -142,13 +189,55 @@ public class UserDatabase {
             return new Response(103, "Invalid password", 0,null);
         }
         //Controllo se l'utente è già registrato altrimenti lo inserisco
-        if (users.putIfAbsent(username, new User(username, password)) != null) {
+        User user = new User(username, password);
+        if (users.putIfAbsent(username, user) != null) {
             return new Response(102, "Username not available", 0,null);
         }
+        assignIndex(user);
         saveUsers();
         return new Response(100, "OK", 0,null);
     }
 
+    private synchronized void assignIndex(User user) {
+        user.setIndex(usersByIndex.size());
+        usersByIndex.add(user);
+    }
+
+    /**
+     * Restituisce l'indice di un utente registrato.
+     *
+     * @param username il nome utente.
+     * @return l'indice dell'utente, o -1 se l'utente non è registrato.
+     */
+    public int getUserIndex(String username) {
+        User user = username == null ? null : users.get(username);
+        return user == null ? -1 : user.getIndex();
+    }
+
+    /**
+     * Restituisce il nome utente attuale associato a un indice.
+     *
+     * @param index l'indice dell'utente.
+     * @return il nome utente, o null se l'indice non è valido.
+     */
+    public String getUsernameByIndex(int index) {
+        if (index < 0 || index >= usersByIndex.size()) {
+            return null;
+        }
+        return usersByIndex.get(index).getUsername();
+    }
+
+    /**
+     * Restituisce la sessione dell'utente associato a un indice.
+     *
+     * @param index l'indice dell'utente.
+     * @return la sessione utente associata, o null se l'utente non è connesso o l'indice non è valido.
+     */
+    public UserSession getUserSessionByIndex(int index) {
+        String username = getUsernameByIndex(index);
+        return username == null ? null : loggedInUsers.get(username);
+    }
+
     private boolean isPasswordValid(String password) {
         if (password == null || password.isEmpty()) {
             return false;
@@ -245,6 +334,7 @@ public class UserDatabase {
     public Response logoutUser(String username, Channel channel) {
         disconnectFromChannel(channel);
         if (loggedInUsers.remove(username) != null) {
+            notifyDisconnect(username);
             return new Response(100, "OK", 0,null);
         } else {
             return new Response(101, "user not logged in", 0,null);
@@ -271,6 +361,7 @@ public class UserDatabase {
 
                 Channel channel = session.getChannel();
                 disconnectFromChannel(channel);
+                notifyDisconnect(username);
 
 
                 try {